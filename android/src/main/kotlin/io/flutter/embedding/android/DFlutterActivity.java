@@ -49,6 +49,7 @@ import io.flutter.embedding.engine.FlutterShellArgs;
 import io.flutter.embedding.engine.plugins.activity.ActivityControlSurface;
 import io.flutter.embedding.engine.plugins.util.GeneratedPluginRegister;
 import io.flutter.plugin.platform.PlatformPlugin;
+import tal.com.d_stack.node.DNodeManager;
 import tal.com.d_stack.observer.DStackActivityManager;
 
 /**
@@ -405,6 +406,9 @@ public class DFlutterActivity extends Activity
     @NonNull
     private LifecycleRegistry lifecycle;
 
+    //预测性返回，只在Android 14及以上并且开启时创建
+    private DPredictiveBack predictiveBack;
+
     public DFlutterActivity() {
         lifecycle = new LifecycleRegistry(this);
     }
@@ -441,6 +445,12 @@ public class DFlutterActivity extends Activity
         setContentView(createFlutterView());
 
         configureStatusBarForFullscreenFlutterExperience();
+
+        if (Build.VERSION.SDK_INT >= 34 && DNodeManager.getInstance().getSnapshotCache().isEnabled()) {
+            //预测性返回，手势拖动时显示下面页面的截图
+            predictiveBack = new DPredictiveBack(this);
+            predictiveBack.register();
+        }
     }
 
     private void switchLaunchThemeForNormalTheme() {
@@ -602,19 +612,36 @@ public class DFlutterActivity extends Activity
         delegate.onAttach(this);
     }
 
+    @Override
+    public long releaseDetachedSurface() {
+        if (delegate == null) {
+            return 0;
+        }
+        return delegate.releaseDetachedSurface();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (predictiveBack != null) {
+            predictiveBack.unregister();
+            predictiveBack = null;
+        }
         if (stillAttachedForEvent("onDestroy")) {
             // 延时解绑当前并绑定上一个
             delegate.detachFromFlutterEngine();
 //            lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
 
-            if (DStackActivityManager.getInstance().getLastHost() != null) {
+            if (isChangingConfigurations()) {
+                //配置变化重建，delegate按配置变化解绑，引擎留给重建的容器，不绑定上一个容器
+                DStackActivityManager.getInstance().setConfigChangeDetached(true);
+            } else if (DStackActivityManager.getInstance().getLastHost() != null) {
                 DStackActivityManager.getInstance().getLastHost().attachToFlutterEngine();
             }
         }
-        DStackActivityManager.getInstance().removeHost(this);
+        if (delegate != null) {
+            delegate.onDestroy();
+        }
 
     }
 
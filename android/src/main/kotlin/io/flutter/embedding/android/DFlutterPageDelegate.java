@@ -31,8 +31,11 @@ import io.flutter.embedding.engine.FlutterShellArgs;
 import io.flutter.embedding.engine.dart.DartExecutor;
 import io.flutter.embedding.engine.renderer.FlutterUiDisplayListener;
 import io.flutter.plugin.platform.PlatformPlugin;
+import tal.com.d_stack.lifecycle.EngineIdleManager;
+import tal.com.d_stack.memory.DMemoryPolicy;
 import tal.com.d_stack.node.DNodeManager;
 import tal.com.d_stack.observer.DStackActivityManager;
+import tal.com.d_stack.observer.DStackHostRegistry;
 
 import java.util.Arrays;
 
@@ -60,6 +63,10 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
     private boolean isAttached;
     private boolean isActive = false;
     private long destroyDelayTime = 200;
+    //内存不足时隐藏了FlutterView，释放了渲染surface
+    private boolean isSurfaceReleased;
+    //估算surface占用时使用的缓冲区数量
+    private static final int SURFACE_BUFFER_COUNT = 3;
 
     @NonNull
     private final FlutterUiDisplayListener flutterUiDisplayListener =
@@ -98,12 +105,13 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
 
     void onCreate(@NonNull Context context) {
         ensureAlive();
-        DStackActivityManager.getInstance().addHost(host);
+        DStackHostRegistry.getInstance().register(host);
         if (flutterEngine == null) {
             setupFlutterEngine();
         }
-        // 解除上一个Activity的绑定
-        if (DStackActivityManager.getInstance().isNeedReAttachEngine()) {
+        // 解除上一个Activity的绑定，配置变化重建时引擎已经解绑，上一个容器没有绑定引擎
+        if (!DStackActivityManager.getInstance().consumeConfigChangeDetached()
+                && DStackActivityManager.getInstance().isNeedReAttachEngine()) {
             Host lastHost = DStackActivityManager.getInstance().getLastHost();
             if (lastHost != null) {
                 lastHost.detachFromFlutterEngine();
@@ -131,6 +139,11 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
         }
         platformPlugin = host.providePlatformPlugin(host.getActivity(), flutterEngine);
         if (flutterView != null) {
+            if (isSurfaceReleased) {
+                //重新绑定引擎，恢复内存不足时隐藏的FlutterView
+                flutterView.setVisibility(View.VISIBLE);
+                isSurfaceReleased = false;
+            }
             flutterView.attachToFlutterEngine(flutterEngine);
         }
         host.configureFlutterEngine(flutterEngine);
@@ -228,6 +241,7 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
         Log.v(TAG, "Attaching FlutterEngine to FlutterView.");
         flutterView.attachToFlutterEngine(flutterEngine);
         flutterView.setId(flutterViewId);
+        DStackHostRegistry.getInstance().setFlutterView(host, flutterView);
 
         SplashScreen splashScreen = host.provideSplashScreen();
 
@@ -275,6 +289,7 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
         Log.v(TAG, "onStart()");
         ensureAlive();
         doInitialFlutterViewRun();
+        EngineIdleManager.getInstance().onHostStarted();
     }
 
     private void doInitialFlutterViewRun() {
@@ -443,6 +458,7 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
         ensureAlive();
         assert flutterEngine != null;
         flutterEngine.getLifecycleChannel().appIsPaused();
+        EngineIdleManager.getInstance().onHostStopped();
     }
 
     void onDestroyView() {
@@ -456,6 +472,13 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
         flutterView.removeOnFirstFrameRenderedListener(flutterUiDisplayListener);
     }
 
+    /**
+     * 容器销毁，从注册表移除
+     */
+    void onDestroy() {
+        DStackHostRegistry.getInstance().unregister(host);
+    }
+
     void onSaveInstanceState(@Nullable Bundle bundle) {
         Log.v(TAG, "onSaveInstanceState. Giving framework and plugins an opportunity to save state.");
         ensureAlive();
@@ -646,9 +669,29 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
                 flutterEngine.getDartExecutor().notifyLowMemoryWarning();
                 flutterEngine.getSystemChannel().sendMemoryPressureWarning();
             }
+            if (isAttached && isFirstFrameRendered) {
+                //每个容器都会收到onTrimMemory，混合栈的分级回收只由绑定引擎的容器执行一次
+                DMemoryPolicy.getInstance().onTrimMemory(level);
+            }
         }
     }
 
+    /**
+     * 释放已经解绑引擎的容器的渲染surface
+     * 隐藏FlutterView后系统会销毁surface和它的缓冲区，重新绑定引擎时恢复显示
+     *
+     * @return 估算释放的字节数
+     */
+    long releaseDetachedSurface() {
+        if (isAttached || isSurfaceReleased || flutterView == null) {
+            return 0;
+        }
+        long bytes = (long) flutterView.getWidth() * flutterView.getHeight() * 4 * SURFACE_BUFFER_COUNT;
+        flutterView.setVisibility(View.GONE);
+        isSurfaceReleased = true;
+        return bytes;
+    }
+
     void onLowMemory() {
         Log.v(TAG, "Forwarding onLowMemory() to FlutterEngine.");
         ensureAlive();
@@ -730,6 +773,11 @@ public class DFlutterPageDelegate implements ExclusiveAppComponent<Activity> {
          */
         void detachFromFlutterEngine();
 
+        /**
+         * 内存不足时释放已经解绑引擎的容器的渲染surface，返回估算释放的字节数
+         */
+        long releaseDetachedSurface();
+
         /**
          * Returns the Dart entrypoint that should run when a new {@link
          * io.flutter.embedding.engine.FlutterEngine} is created.
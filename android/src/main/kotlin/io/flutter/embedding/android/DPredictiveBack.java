@@ -0,0 +1,244 @@
+package io.flutter.embedding.android;
+
+import android.graphics.Bitmap;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import tal.com.d_stack.DStack;
+import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.observer.DStackActivityManager;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * flutter容器的预测性返回
+ * 返回手势拖动时，在FlutterView下面放一张下面页面的截图，FlutterView跟随手势缩小平移，截图逐渐放大
+ * 拖动过程只改变native的view属性，不和flutter侧通信，引擎只渲染当前页面
+ * 松手后不带动画直接出栈，截图保留到flutter侧画出下面的页面，取消时恢复原状
+ * 栈顶不是这个容器的flutter页面、是根页面或者没有截图时，不显示预览，松手后按普通返回处理
+ * 需要Android 14及以上，并且应用在manifest里开启了enableOnBackInvokedCallback，否则仍然走onBackPressed
+ * 插件按compileSdk 29编译，OnBackAnimationCallback、BackEvent和OnBackInvokedDispatcher都通过反射使用，
+ * 回调用动态代理实现，反射失败时不注册，仍然走onBackPressed
+ */
+class DPredictiveBack implements InvocationHandler {
+
+    //FlutterView拖动到底时的缩放比例
+    private static final float MIN_SCALE = 0.9f;
+    //截图在手势开始时的缩放比例
+    private static final float PREVIEW_MIN_SCALE = 0.95f;
+    //FlutterView拖动到底时的平移距离，按宽度的比例
+    private static final float MAX_TRANSLATION = 0.1f;
+    //出栈后等待flutter侧画出下面页面的时间
+    private static final long RESTORE_DELAY = 100;
+    //取消时恢复原状的动画时长
+    private static final long CANCEL_DURATION = 150;
+    //OnBackInvokedDispatcher.PRIORITY_DEFAULT
+    private static final int PRIORITY_DEFAULT = 0;
+    //BackEvent.EDGE_LEFT
+    private static final int EDGE_LEFT = 0;
+
+    private final DFlutterActivity activity;
+    //OnBackInvokedDispatcher
+    private Object dispatcher;
+    //实现OnBackAnimationCallback的动态代理
+    private Object callback;
+    private Method getProgress;
+    private Method getSwipeEdge;
+    //被拖动的容器内容，也就是setContentView的FlutterView
+    private View contentView;
+    private ImageView previewView;
+    private int swipeEdge;
+
+    DPredictiveBack(DFlutterActivity activity) {
+        this.activity = activity;
+    }
+
+    void register() {
+        try {
+            Class<?> callbackClass = Class.forName("android.window.OnBackAnimationCallback");
+            Class<?> invokedCallbackClass = Class.forName("android.window.OnBackInvokedCallback");
+            Class<?> backEventClass = Class.forName("android.window.BackEvent");
+            getProgress = backEventClass.getMethod("getProgress");
+            getSwipeEdge = backEventClass.getMethod("getSwipeEdge");
+            Object dispatcher = activity.getClass().getMethod("getOnBackInvokedDispatcher").invoke(activity);
+            Object callback = Proxy.newProxyInstance(callbackClass.getClassLoader(), new Class<?>[]{callbackClass}, this);
+            dispatcher.getClass()
+                    .getMethod("registerOnBackInvokedCallback", int.class, invokedCallbackClass)
+                    .invoke(dispatcher, PRIORITY_DEFAULT, callback);
+            this.dispatcher = dispatcher;
+            this.callback = callback;
+        } catch (Exception e) {
+            DLog.logE("预测性返回注册失败：" + e);
+        }
+    }
+
+    void unregister() {
+        if (dispatcher != null) {
+            try {
+                dispatcher.getClass()
+                        .getMethod("unregisterOnBackInvokedCallback", Class.forName("android.window.OnBackInvokedCallback"))
+                        .invoke(dispatcher, callback);
+            } catch (Exception e) {
+                DLog.logE("预测性返回注销失败：" + e);
+            }
+            dispatcher = null;
+            callback = null;
+        }
+        restore();
+    }
+
+    /**
+     * 动态代理的回调入口，按方法名分发
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "onBackStarted":
+                onBackStarted(args[0]);
+                return null;
+            case "onBackProgressed":
+                onBackProgressed(args[0]);
+                return null;
+            case "onBackInvoked":
+                onBackInvoked();
+                return null;
+            case "onBackCancelled":
+                onBackCancelled();
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "DPredictiveBack@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                return null;
+        }
+    }
+
+    private void onBackStarted(Object backEvent) {
+        restore();
+        Bitmap snapshot = findSnapshot();
+        ViewGroup content = activity.findViewById(android.R.id.content);
+        if (snapshot == null || content == null || content.getChildCount() == 0) {
+            return;
+        }
+        contentView = content.getChildAt(0);
+        previewView = new ImageView(activity);
+        previewView.setScaleType(ImageView.ScaleType.FIT_XY);
+        previewView.setImageBitmap(snapshot);
+        //放在FlutterView下面
+        content.addView(previewView, 0, new ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        swipeEdge = (Integer) read(getSwipeEdge, backEvent, EDGE_LEFT);
+        onBackProgressed(backEvent);
+    }
+
+    private void onBackProgressed(Object backEvent) {
+        if (previewView == null) {
+            return;
+        }
+        float progress = (Float) read(getProgress, backEvent, 0f);
+        float scale = 1 - (1 - MIN_SCALE) * progress;
+        //从左边缘开始的手势向右移动，从右边缘开始的向左移动
+        float direction = swipeEdge == EDGE_LEFT ? 1 : -1;
+        contentView.setScaleX(scale);
+        contentView.setScaleY(scale);
+        contentView.setTranslationX(direction * contentView.getWidth() * MAX_TRANSLATION * progress);
+        float previewScale = PREVIEW_MIN_SCALE + (1 - PREVIEW_MIN_SCALE) * progress;
+        previewView.setScaleX(previewScale);
+        previewView.setScaleY(previewScale);
+    }
+
+    private void onBackInvoked() {
+        if (previewView == null) {
+            activity.onBackPressed();
+            return;
+        }
+        //截图已经显示了下面的页面，直接出栈，不再播放转场动画
+        contentView.setVisibility(View.INVISIBLE);
+        previewView.setScaleX(1);
+        previewView.setScaleY(1);
+        DStack.getInstance().beginTransaction().animated(false).pop().commit();
+        if (activity.isFinishing()) {
+            activity.overridePendingTransition(0, 0);
+        }
+        contentView.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        }, RESTORE_DELAY);
+    }
+
+    private void onBackCancelled() {
+        if (previewView == null) {
+            return;
+        }
+        contentView.animate()
+                .scaleX(1)
+                .scaleY(1)
+                .translationX(0)
+                .setDuration(CANCEL_DURATION)
+                .withEndAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        restore();
+                    }
+                });
+    }
+
+    /**
+     * 读取BackEvent的属性，反射失败时返回默认值
+     */
+    private Object read(Method getter, Object backEvent, Object defaultValue) {
+        try {
+            return getter.invoke(backEvent);
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 可以预览时返回下面页面的截图，否则返回null
+     */
+    private Bitmap findSnapshot() {
+        DNodeManager nodeManager = DNodeManager.getInstance();
+        DNode currentNode = nodeManager.getCurrentNode();
+        DNode lastNode = nodeManager.getLastNode();
+        if (currentNode == null || lastNode == null || !currentNode.isFlutter() || currentNode.isRootPage()) {
+            return null;
+        }
+        if (DStackActivityManager.getInstance().getTopActivity() != activity) {
+            return null;
+        }
+        Bitmap snapshot = nodeManager.getSnapshotCache().get(lastNode.getId());
+        return snapshot == null || snapshot.isRecycled() ? null : snapshot;
+    }
+
+    /**
+     * 移除截图，恢复FlutterView
+     */
+    private void restore() {
+        if (contentView != null) {
+            contentView.animate().cancel();
+            contentView.setScaleX(1);
+            contentView.setScaleY(1);
+            contentView.setTranslationX(0);
+            contentView.setVisibility(View.VISIBLE);
+            contentView = null;
+        }
+        if (previewView != null) {
+            previewView.setImageDrawable(null);
+            if (previewView.getParent() instanceof ViewGroup) {
+                ((ViewGroup) previewView.getParent()).removeView(previewView);
+            }
+            previewView = null;
+        }
+    }
+}
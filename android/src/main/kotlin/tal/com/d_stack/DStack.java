@@ -1,8 +1,10 @@
 package tal.com.d_stack;
 
+import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.text.TextUtils;
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.android.FlutterActivityLaunchConfigs;
@@ -12,16 +14,34 @@ import io.flutter.embedding.engine.dart.DartExecutor;
 import io.flutter.plugin.common.MethodChannel;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import tal.com.d_stack.channel.DChannelMonitor;
 import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.channel.DStackQueryHandler;
+import tal.com.d_stack.jank.DJankMonitor;
+import tal.com.d_stack.lifecycle.AppStateMachine;
+import tal.com.d_stack.lifecycle.EngineIdleManager;
+import tal.com.d_stack.lifecycle.LifecycleSubscription;
+import tal.com.d_stack.memory.DMemoryPolicy;
 import tal.com.d_stack.node.DNode;
 import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.node.DNodeParamStore;
+import tal.com.d_stack.node.DNodePredictor;
+import tal.com.d_stack.node.DNodePushThrottle;
 import tal.com.d_stack.node.constants.DNodeActionType;
 import tal.com.d_stack.node.constants.DNodePageType;
+import tal.com.d_stack.observer.DActivityLeakWatcher;
 import tal.com.d_stack.observer.DStackActivityManager;
 import tal.com.d_stack.observer.DStackLifecycleObserver;
 import tal.com.d_stack.observer.FilterActivityManager;
+import tal.com.d_stack.plugin.DPluginRegistry;
+import tal.com.d_stack.result.DResultManager;
+import tal.com.d_stack.result.DStackResult;
+import tal.com.d_stack.router.IActivityLeakListener;
+import tal.com.d_stack.router.IDeepLinkParser;
+import tal.com.d_stack.router.IMemoryTrimListener;
 import tal.com.d_stack.router.INativeRouter;
 import tal.com.d_stack.router.INodeOperation;
+import tal.com.d_stack.router.IPushDropListener;
 import tal.com.d_stack.utils.DLog;
 
 
@@ -62,6 +82,15 @@ public class DStack {
 
     private boolean openNodeOperation;
 
+    //最多保持活跃的flutter页面数量，0表示不限制
+    private int maxLiveFlutterRoutes;
+
+    //按需注册的插件，为null时引擎自动注册所有插件
+    private DPluginRegistry pluginRegistry;
+
+    //deep link解析
+    private IDeepLinkParser deepLinkParser;
+
     /**
      * 初始化DStack
      *
@@ -69,9 +98,27 @@ public class DStack {
      * @param nativeRouter flutter打开native页面的路由回调
      */
     public void init(Context context, INativeRouter nativeRouter) {
-        this.context = context;
+        init(context, nativeRouter, null);
+    }
 
-        engine = new FlutterEngine(context);
+    /**
+     * 初始化DStack，按需注册插件
+     *
+     * @param context        全局上下文对象ApplicationContext
+     * @param nativeRouter   flutter打开native页面的路由回调
+     * @param pluginRegistry 按需注册的插件，为null时引擎自动注册所有插件
+     */
+    public void init(Context context, INativeRouter nativeRouter, DPluginRegistry pluginRegistry) {
+        this.context = context;
+        this.pluginRegistry = pluginRegistry;
+
+        if (pluginRegistry == null) {
+            engine = new FlutterEngine(context);
+        } else {
+            //关闭自动注册，只注册核心插件，d_stack通道由initMethodChannel注册
+            engine = new FlutterEngine(context, null, false);
+            pluginRegistry.attachCorePlugins(engine);
+        }
         engine.getDartExecutor().executeDartEntrypoint(
                 DartExecutor.DartEntrypoint.createDefault()
         );
@@ -81,6 +128,7 @@ public class DStack {
 
         initMethodChannel(engine);
         setNativeRouter(nativeRouter);
+        DNodeManager.getInstance().getJournal().open(context);
         // registerAppLifecycleObserver(context);
     }
 
@@ -98,10 +146,12 @@ public class DStack {
 
     /**
      * 初始化channel
+     * 修改节点栈的消息走主线程的d_stack通道，只读的查询消息走后台线程的d_stack_query通道
      */
     public void initMethodChannel(FlutterEngine engine) {
         methodChannel = new MethodChannel(engine.getDartExecutor(), CHANNEL_ID);
         methodChannel.setMethodCallHandler(new DStackMethodHandler());
+        DStackQueryHandler.register(engine.getDartExecutor().getBinaryMessenger());
     }
 
     /**
@@ -111,6 +161,13 @@ public class DStack {
         return engine;
     }
 
+    /**
+     * 获取按需注册的插件，可以读取插件注册耗时
+     */
+    public DPluginRegistry getPluginRegistry() {
+        return pluginRegistry;
+    }
+
     /**
      * 获取channel
      */
@@ -139,14 +196,15 @@ public class DStack {
      * @param pageRouter   页面路由地址
      * @param params       参数
      * @param containerCls flutter页面容器activity的类对象
+     * @return 页面返回结果，页面出栈时完成
      */
-    public void pushFlutterPage(String pageRouter, Map<String, Object> params, Class<?> containerCls) {
+    public DStackResult pushFlutterPage(String pageRouter, Map<String, Object> params, Class<?> containerCls) {
         DLog.logD("要打开的flutter页面路由是：" + pageRouter);
         DNode node = new DNode.Builder()
                 .target(pageRouter)
                 .params(params)
-                .pageType(DNodePageType.DNodePageTypeFlutter)
-                .action(DNodeActionType.DNodeActionTypePush)
+                .pageType(DNodePageType.FLUTTER)
+                .action(DNodeActionType.PUSH)
                 .boundary(true)
                 .build();
 
@@ -158,16 +216,21 @@ public class DStack {
             }
         }
 
+        if (DNodeManager.getInstance().getPushThrottle().shouldDrop(node)) {
+            //连续点击产生的重复操作，直接丢弃
+            return droppedResult();
+        }
         // 如果连续打开同一个Flutter控制器，则做个判断，只打开一次activity
         boolean isSameActivity = DStackActivityManager.getInstance().isSameActivity(containerCls);
         DNodeManager.getInstance().checkNode(node);
+        DStackResult result = registerResult(node);
         // 先给flutter发消息再打开flutter容器activity，避免短暂白屏问题
         if (!isSameActivity) {
             Intent intent = FlutterActivity.withCachedEngine(ENGINE_ID).build(context);
             intent.setClass(context, containerCls);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            context.startActivity(intent);
+            startContainer(intent);
         }
+        return result;
     }
 
     /**
@@ -176,14 +239,15 @@ public class DStack {
      * @param pageRouter   页面路由地址
      * @param params       参数
      * @param containerCls flutter页面容器activity的类对象
+     * @return 页面返回结果，页面出栈时完成
      */
-    public void pushFlutterPageWithTransparent(String pageRouter, Map<String, Object> params, Class<?> containerCls) {
+    public DStackResult pushFlutterPageWithTransparent(String pageRouter, Map<String, Object> params, Class<?> containerCls) {
         DLog.logD("要打开的flutter页面路由是：" + pageRouter);
         DNode node = new DNode.Builder()
                 .target(pageRouter)
                 .params(params)
-                .pageType(DNodePageType.DNodePageTypeFlutter)
-                .action(DNodeActionType.DNodeActionTypePush)
+                .pageType(DNodePageType.FLUTTER)
+                .action(DNodeActionType.PUSH)
                 .boundary(true)
                 .build();
 
@@ -196,17 +260,52 @@ public class DStack {
         }
 
 
+        if (DNodeManager.getInstance().getPushThrottle().shouldDrop(node)) {
+            //连续点击产生的重复操作，直接丢弃
+            return droppedResult();
+        }
         // 如果连续打开同一个Flutter控制器，则做个判断，只打开一次activity
         boolean isSameActivity = DStackActivityManager.getInstance().isSameActivity(containerCls);
         DNodeManager.getInstance().checkNode(node);
+        DStackResult result = registerResult(node);
         // 先给flutter发消息再打开flutter容器activity，避免短暂白屏问题
         if (!isSameActivity) {
             Intent intent = FlutterActivity.withCachedEngine(ENGINE_ID)
                     .backgroundMode(FlutterActivityLaunchConfigs.BackgroundMode.transparent)
                     .build(context);
             intent.setClass(context, containerCls);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            context.startActivity(intent);
+            startContainer(intent);
+        }
+        return result;
+    }
+
+    /**
+     * 为入栈的节点创建返回结果，节点没有入栈时直接完成
+     */
+    private DStackResult registerResult(DNode node) {
+        if (DNodeManager.getInstance().findNodeById(node.getId()) == null) {
+            return droppedResult();
+        }
+        return DResultManager.getInstance().register(node.getId());
+    }
+
+    /**
+     * 没有打开页面时返回已经完成的结果
+     */
+    private DStackResult droppedResult() {
+        DStackResult result = new DStackResult();
+        result.complete(null);
+        return result;
+    }
+
+    /**
+     * 设置native页面的返回参数，页面关闭时带给打开该页面时得到的返回结果
+     * flutter打开的native页面，返回参数会发回flutter侧
+     */
+    public void setResult(Activity activity, Map<String, Object> result) {
+        DNode node = DNodeManager.getInstance().findNodeByActivity(activity);
+        if (node != null) {
+            DResultManager.getInstance().setPendingResult(node.getId(), result);
         }
     }
 
@@ -215,10 +314,10 @@ public class DStack {
      */
     public void pop() {
         DNode currentNode = DNodeManager.getInstance().getCurrentNode();
-        if (currentNode.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+        if (currentNode.isFlutter()) {
             DNode node = new DNode.Builder().target(currentNode.getTarget())
-                    .pageType(DNodePageType.DNodePageTypeFlutter)
-                    .action(DNodeActionType.DNodeActionTypePop)
+                    .pageType(DNodePageType.FLUTTER)
+                    .action(DNodeActionType.POP)
                     .isHomePage(currentNode.isHomePage()).build();
             DNodeManager.getInstance().checkNode(node);
         }
@@ -229,12 +328,13 @@ public class DStack {
      */
     public void pop(Map<String, Object> params) {
         DNode currentNode = DNodeManager.getInstance().getCurrentNode();
-        if (currentNode.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+        if (currentNode.isFlutter()) {
             DNode node = new DNode.Builder().target(currentNode.getTarget())
-                    .pageType(DNodePageType.DNodePageTypeFlutter)
-                    .action(DNodeActionType.DNodeActionTypePop)
+                    .pageType(DNodePageType.FLUTTER)
+                    .action(DNodeActionType.POP)
                     .params(params)
                     .isHomePage(currentNode.isHomePage()).build();
+            DResultManager.getInstance().setPendingResult(currentNode.getId(), params);
             DNodeManager.getInstance().checkNode(node);
         }
     }
@@ -247,7 +347,7 @@ public class DStack {
         if (node == null) {
             return;
         }
-        node.setAction(DNodeActionType.DNodeActionTypePopTo);
+        node.setAction(DNodeActionType.POP_TO);
         node.setParams(params);
         DNodeManager.getInstance().checkNode(node);
     }
@@ -258,7 +358,7 @@ public class DStack {
     public void popToRoot() {
         DNode node = new DNode.Builder()
                 .target("/")
-                .action(DNodeActionType.DNodeActionTypePopToRoot)
+                .action(DNodeActionType.POP_TO_ROOT)
                 .build();
         DNodeManager.getInstance().checkNode(node);
     }
@@ -269,12 +369,85 @@ public class DStack {
     public void popToRoot(Map<String, Object> params) {
         DNode node = new DNode.Builder()
                 .target("/")
-                .action(DNodeActionType.DNodeActionTypePopToRoot)
+                .action(DNodeActionType.POP_TO_ROOT)
                 .params(params)
                 .build();
         DNodeManager.getInstance().checkNode(node);
     }
 
+    /**
+     * 开始一个多步导航事务，commit时只执行节点栈的净变化
+     */
+    public DStackTransaction beginTransaction() {
+        return new DStackTransaction();
+    }
+
+    /**
+     * 打开flutter容器activity
+     */
+    public void startFlutterContainer(Class<?> containerCls) {
+        if (containerCls == null) {
+            return;
+        }
+        Intent intent = FlutterActivity.withCachedEngine(ENGINE_ID).build(context);
+        intent.setClass(context, containerCls);
+        startContainer(intent);
+    }
+
+    /**
+     * 在当前task里打开flutter容器
+     * 从当前task的栈顶activity启动，分屏或者多个task时容器和打开它的页面在同一个task里
+     * 没有可用的activity时用application启动，需要FLAG_ACTIVITY_NEW_TASK
+     */
+    private void startContainer(Intent intent) {
+        Activity topActivity = DStackActivityManager.getInstance().getTopActivity();
+        if (topActivity != null && !topActivity.isFinishing()) {
+            topActivity.startActivity(intent);
+            return;
+        }
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(intent);
+    }
+
+    /**
+     * 设置deep link解析
+     * 冷启动时第一个activity的intent带有可以解析的deep link，直接用解析出的页面栈初始化节点集合
+     */
+    public void setDeepLinkParser(IDeepLinkParser deepLinkParser) {
+        this.deepLinkParser = deepLinkParser;
+    }
+
+    /**
+     * 解析intent里的deep link，没有设置解析或者不是可以处理的deep link时返回null
+     */
+    public DStackDeepLink parseDeepLink(Intent intent) {
+        if (deepLinkParser == null || intent == null || intent.getData() == null) {
+            return null;
+        }
+        DStackDeepLink deepLink = deepLinkParser.parse(intent.getData());
+        if (deepLink == null || deepLink.getPages().isEmpty()) {
+            return null;
+        }
+        return deepLink;
+    }
+
+    /**
+     * 应用已经启动时打开deep link，解析出的页面作为一个事务打开
+     *
+     * @return 是否是可以处理的deep link
+     */
+    public boolean openDeepLink(Uri uri) {
+        if (deepLinkParser == null || uri == null) {
+            return false;
+        }
+        DStackDeepLink deepLink = deepLinkParser.parse(uri);
+        if (deepLink == null || deepLink.getPages().isEmpty()) {
+            return false;
+        }
+        deepLink.toTransaction().commit();
+        return true;
+    }
+
     /**
      * 判断是否是纯FlutterApp
      */
@@ -330,4 +503,168 @@ public class DStack {
     public void setOpenNodeOperation(boolean openNodeOperation) {
         this.openNodeOperation = openNodeOperation;
     }
+
+    /**
+     * 设置节点参数的内存预算，超出后较大且最久没有访问的参数会编码到堆外内存
+     */
+    public void setParamMemoryBudget(long memoryBudget) {
+        DNodeManager.getInstance().getParamStore().setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * 获取节点参数存储，可以读取参数占用的统计信息
+     */
+    public DNodeParamStore getParamStore() {
+        return DNodeManager.getInstance().getParamStore();
+    }
+
+    /**
+     * 最多保持活跃的flutter页面数量
+     */
+    public int getMaxLiveFlutterRoutes() {
+        return maxLiveFlutterRoutes;
+    }
+
+    /**
+     * 设置最多保持活跃的flutter页面数量，0表示不限制
+     * 超出后较早的非临界flutter页面进入休眠，flutter侧释放页面内容，返回到该页面时重新创建
+     * 栈顶的两个页面始终保持活跃，所以最小值是2
+     */
+    public void setMaxLiveFlutterRoutes(int maxLiveFlutterRoutes) {
+        this.maxLiveFlutterRoutes = maxLiveFlutterRoutes <= 0 ? 0 : Math.max(2, maxLiveFlutterRoutes);
+    }
+
+    /**
+     * 设置打开页面的去重窗口，单位毫秒，0表示不去重
+     * 窗口内路由、参数和动作都相同的打开操作只保留第一次
+     */
+    public void setPushDedupWindow(long dedupWindow) {
+        DNodeManager.getInstance().getPushThrottle().setDedupWindow(dedupWindow);
+    }
+
+    /**
+     * 设置同一个路由在限流窗口内最多打开的次数，0表示不限流
+     */
+    public void setPushRateLimit(int rateLimit, long rateWindow) {
+        DNodeManager.getInstance().getPushThrottle().setRateLimit(rateLimit, rateWindow);
+    }
+
+    /**
+     * 设置打开页面被丢弃的监听
+     */
+    public void setPushDropListener(IPushDropListener dropListener) {
+        DNodeManager.getInstance().getPushThrottle().setDropListener(dropListener);
+    }
+
+    /**
+     * 开启或关闭下一个页面预测，需要在init之后调用
+     * 开启后根据页面跳转记录学习跳转概率，概率超过阈值时通知flutter侧预热下一个flutter页面
+     */
+    public void setPredictionEnabled(boolean enabled) {
+        DNodeManager.getInstance().setPredictionEnabled(context, enabled);
+    }
+
+    /**
+     * 设置预测阈值，0到1之间，默认0.6
+     */
+    public void setPredictionThreshold(float threshold) {
+        DNodeManager.getInstance().getPredictor().setThreshold(threshold);
+    }
+
+    /**
+     * 获取下一个页面预测，可以读取命中、取消和浪费的次数
+     */
+    public DNodePredictor getPredictor() {
+        return DNodeManager.getInstance().getPredictor();
+    }
+
+    /**
+     * 开启或关闭预测性返回的预览，需要Android 14及以上，在打开flutter容器之前调用
+     * 开启后页面被覆盖时异步保存缩小的截图，在flutter容器里返回手势拖动时显示下面页面的截图，
+     * 松手后直接出栈，不经过flutter侧的WillPopScope，没有截图时按普通返回处理
+     */
+    public void setPredictiveBackEnabled(boolean enabled) {
+        DNodeManager.getInstance().getSnapshotCache().setEnabled(enabled);
+    }
+
+    /**
+     * 设置内存分级回收的监听，可以获取每次回收的字节数
+     */
+    public void setMemoryTrimListener(IMemoryTrimListener trimListener) {
+        DMemoryPolicy.getInstance().setTrimListener(trimListener);
+    }
+
+    /**
+     * 设置activity泄漏的监听，activity销毁后仍然没有被回收时回调，带有估算持有的字节数
+     * 检测默认只在debug包开启，release包需要通过getActivityLeakWatcher().setEnabled(true)开启
+     */
+    public void setActivityLeakListener(IActivityLeakListener leakListener) {
+        DActivityLeakWatcher.getInstance().setLeakListener(leakListener);
+    }
+
+    /**
+     * 开启或关闭按页面的掉帧统计，需要Android 7.0及以上
+     */
+    public void setJankMonitorEnabled(boolean enabled) {
+        DJankMonitor monitor = DJankMonitor.getInstance();
+        monitor.setEnabled(enabled, DStackActivityManager.getInstance().getActivities());
+        monitor.onCurrentNodeChanged(DNodeManager.getInstance().getCurrentNode());
+    }
+
+    /**
+     * 获取掉帧统计，可以按路由或转场读取帧耗时的百分位数和冻结帧数量
+     */
+    public DJankMonitor getJankMonitor() {
+        return DJankMonitor.getInstance();
+    }
+
+    /**
+     * 获取消息通道监控，setEnabled(true)开启后可以读取每种消息的往返耗时和通道健康状态
+     */
+    public DChannelMonitor getChannelMonitor() {
+        return DChannelMonitor.getInstance();
+    }
+
+    /**
+     * 获取activity泄漏检测，可以开启或关闭检测，读取泄漏的数量和字节数
+     */
+    public DActivityLeakWatcher getActivityLeakWatcher() {
+        return DActivityLeakWatcher.getInstance();
+    }
+
+    /**
+     * 获取引擎空闲管理，可以读取活跃和空闲状态的时长和CPU时间
+     */
+    public EngineIdleManager getIdleManager() {
+        return EngineIdleManager.getInstance();
+    }
+
+    /**
+     * 设置最后一个页面不可见后，等待多久才通知flutter侧进入后台，单位毫秒，默认700
+     * 等待时间内有页面重新可见时不发送后台和前台通知
+     */
+    public void setAppStateDebounceTime(long debounceTime) {
+        AppStateMachine.getInstance().setDebounceTime(debounceTime);
+    }
+
+    /**
+     * 获取应用前后台状态，可以读取前后台通知的次数和省掉的通知对数
+     */
+    public AppStateMachine getAppStateMachine() {
+        return AppStateMachine.getInstance();
+    }
+
+    /**
+     * 获取flutter侧的消息订阅，可以读取没有发送的消息数量和估算的字节数
+     */
+    public LifecycleSubscription getLifecycleSubscription() {
+        return LifecycleSubscription.getInstance();
+    }
+
+    /**
+     * 获取打开页面的去重和限流，可以读取丢弃次数
+     */
+    public DNodePushThrottle getPushThrottle() {
+        return DNodeManager.getInstance().getPushThrottle();
+    }
 }
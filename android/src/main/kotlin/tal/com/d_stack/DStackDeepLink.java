@@ -0,0 +1,77 @@
+package tal.com.d_stack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * deep link解析出的页面栈
+ * 按从下到上的顺序添加flutter页面，冷启动时一次性写入节点集合，并用一条消息发给flutter侧
+ * 例如：new DStackDeepLink(FlutterContainerActivity.class).page("/list", null).page("/detail", params)
+ */
+public class DStackDeepLink {
+
+    //页面栈，从下到上
+    private final List<Page> pages = new ArrayList<>();
+    //native工程需要新的flutter容器时使用的activity类对象
+    private final Class<?> containerCls;
+
+    /**
+     * @param containerCls flutter容器activity的类对象，native工程冷启动和应用已经启动时都可能需要打开新容器，不能为null
+     */
+    public DStackDeepLink(Class<?> containerCls) {
+        if (containerCls == null) {
+            throw new IllegalArgumentException("DStackDeepLink的containerCls不能为null");
+        }
+        this.containerCls = containerCls;
+    }
+
+    /**
+     * 添加flutter页面
+     */
+    public DStackDeepLink page(String pageRouter, Map<String, Object> params) {
+        pages.add(new Page(pageRouter, params));
+        return this;
+    }
+
+    public List<Page> getPages() {
+        return Collections.unmodifiableList(pages);
+    }
+
+    public Class<?> getContainerCls() {
+        return containerCls;
+    }
+
+    /**
+     * 应用已经启动时，转成事务打开页面
+     */
+    DStackTransaction toTransaction() {
+        DStackTransaction transaction = new DStackTransaction();
+        for (Page page : pages) {
+            transaction.push(page.pageRouter, page.params, containerCls);
+        }
+        return transaction.animated(true);
+    }
+
+    /**
+     * 页面栈中的单个页面
+     */
+    public static class Page {
+        final String pageRouter;
+        final Map<String, Object> params;
+
+        Page(String pageRouter, Map<String, Object> params) {
+            this.pageRouter = pageRouter;
+            this.params = params;
+        }
+
+        public String getPageRouter() {
+            return pageRouter;
+        }
+
+        public Map<String, Object> getParams() {
+            return params;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler
 import io.flutter.plugin.common.MethodChannel.Result
 import io.flutter.plugin.common.PluginRegistry.Registrar
 import tal.com.d_stack.channel.DStackMethodHandler
+import tal.com.d_stack.channel.DStackQueryHandler
 
 /**
  * DStackPlugin
@@ -16,6 +17,7 @@ public class DStackPlugin : FlutterPlugin, MethodCallHandler {
     override fun onAttachedToEngine(@NonNull flutterPluginBinding: FlutterPlugin.FlutterPluginBinding) {
         val channel = MethodChannel(flutterPluginBinding.getFlutterEngine().getDartExecutor(), "d_stack")
         channel.setMethodCallHandler(DStackMethodHandler())
+        DStackQueryHandler.register(flutterPluginBinding.getBinaryMessenger())
     }
 
     // This static function is optional and equivalent to onAttachedToEngine. It supports the old
@@ -0,0 +1,192 @@
+package tal.com.d_stack;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.node.constants.DNodeActionType;
+import tal.com.d_stack.node.constants.DNodePageType;
+
+/**
+ * 多步导航事务
+ * 收集push、pop、popTo、replace操作，commit时只计算节点栈的净变化
+ * 节点只更新一次，只发送一次生命周期和一条flutter消息，只关闭或打开状态真正变化的activity
+ * 例如：DStack.getInstance().beginTransaction().popTo("/checkout", null).push("/receipt", params, cls).commit();
+ */
+public class DStackTransaction {
+
+    //事务中的操作，按添加顺序执行
+    private final List<Operation> operations = new ArrayList<>();
+    //是否开启转场动画，只作用于最后一个flutter页面
+    private boolean animated = true;
+    //是否已经提交
+    private boolean committed;
+
+    DStackTransaction() {
+    }
+
+    /**
+     * 打开flutter页面
+     *
+     * @param pageRouter   页面路由地址
+     * @param params       参数
+     * @param containerCls 需要新的flutter容器时使用的activity类对象，页面下面是native页面或者没有页面时不能为null
+     */
+    public DStackTransaction push(String pageRouter, Map<String, Object> params, Class<?> containerCls) {
+        Operation operation = new Operation(DNodeActionType.PUSH, pageRouter, params);
+        operation.containerCls = containerCls;
+        operations.add(operation);
+        return this;
+    }
+
+    /**
+     * 关闭栈顶页面，根页面不会被关闭
+     */
+    public DStackTransaction pop() {
+        operations.add(new Operation(DNodeActionType.POP, null, null));
+        return this;
+    }
+
+    /**
+     * 返回指定页面，找不到该页面时忽略
+     */
+    public DStackTransaction popTo(String pageRouter) {
+        operations.add(new Operation(DNodeActionType.POP_TO, pageRouter, null));
+        return this;
+    }
+
+    /**
+     * 替换栈顶的flutter页面，栈顶不是flutter页面时忽略
+     */
+    public DStackTransaction replace(String pageRouter, Map<String, Object> params) {
+        operations.add(new Operation(DNodeActionType.REPLACE, pageRouter, params));
+        return this;
+    }
+
+    /**
+     * 设置是否开启转场动画
+     */
+    public DStackTransaction animated(boolean animated) {
+        this.animated = animated;
+        return this;
+    }
+
+    /**
+     * 提交事务
+     */
+    public void commit() {
+        if (committed) {
+            throw new IllegalStateException("DStackTransaction已经提交过");
+        }
+        committed = true;
+        List<DNode> targetNodes = new ArrayList<>(DNodeManager.getInstance().getNodeList());
+        //新增的临界节点和打开它需要的容器
+        Map<DNode, Class<?>> containers = new IdentityHashMap<>();
+        for (Operation operation : operations) {
+            int size = targetNodes.size();
+            switch (operation.action) {
+                case DNodeActionType.PUSH:
+                    DNode pushNode = createFlutterNode(operation, targetNodes);
+                    if (pushNode.isBoundary()) {
+                        if (operation.containerCls == null) {
+                            throw new IllegalArgumentException(
+                                    "DStackTransaction打开" + operation.target + "需要新的flutter容器，containerCls不能为null");
+                        }
+                        containers.put(pushNode, operation.containerCls);
+                    }
+                    targetNodes.add(pushNode);
+                    break;
+                case DNodeActionType.POP:
+                    if (size > 1) {
+                        targetNodes.remove(size - 1);
+                    }
+                    break;
+                case DNodeActionType.POP_TO:
+                    for (int i = size - 1; i >= 0; i--) {
+                        if (targetNodes.get(i).getTarget().equals(operation.target)) {
+                            targetNodes.subList(i + 1, size).clear();
+                            break;
+                        }
+                    }
+                    break;
+                case DNodeActionType.REPLACE:
+                    if (size > 0 && targetNodes.get(size - 1).isFlutter()) {
+                        DNode replacedNode = targetNodes.remove(size - 1);
+                        DNode node = createFlutterNode(operation, targetNodes);
+                        node.setActivity(replacedNode.getActivity());
+                        targetNodes.add(node);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        boolean needContainer = DNodeManager.getInstance().commitTransaction(targetNodes, animated);
+        if (needContainer) {
+            //需要新容器时，第一个新增节点就是临界节点，它上面的新增页面都放在这个容器里
+            //容器创建时DStackLifecycleObserver把这些节点绑定到容器
+            DStack.getInstance().startFlutterContainer(findContainerCls(targetNodes, containers));
+        }
+    }
+
+    /**
+     * 节点栈中第一个新增的临界节点对应的容器
+     */
+    private Class<?> findContainerCls(List<DNode> targetNodes, Map<DNode, Class<?>> containers) {
+        for (DNode node : targetNodes) {
+            Class<?> containerCls = containers.get(node);
+            if (containerCls != null) {
+                return containerCls;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据事务中的位置创建flutter节点
+     * 下面是native页面或者没有页面时，需要新的flutter容器，是临界节点
+     */
+    private DNode createFlutterNode(Operation operation, List<DNode> targetNodes) {
+        DNode preNode = targetNodes.isEmpty() ? null : targetNodes.get(targetNodes.size() - 1);
+        DNode node = new DNode.Builder()
+                .target(operation.target)
+                .params(operation.params)
+                .pageType(DNodePageType.FLUTTER)
+                .action(DNodeActionType.PUSH)
+                .boundary(preNode == null || preNode.isNative())
+                .build();
+        if (!DStack.getInstance().isFlutterApp() && !containsFlutterNode(targetNodes)) {
+            //原生工程第一个flutter页面，设置flutter页面的homepage为true
+            node.setHomePage(true);
+        }
+        return node;
+    }
+
+    private boolean containsFlutterNode(List<DNode> nodes) {
+        for (DNode node : nodes) {
+            if (node.isFlutter()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 事务中的单个操作
+     */
+    private static class Operation {
+        int action;
+        String target;
+        Map<String, Object> params;
+        Class<?> containerCls;
+
+        Operation(int action, String target, Map<String, Object> params) {
+            this.action = action;
+            this.target = target;
+            this.params = params;
+        }
+    }
+}
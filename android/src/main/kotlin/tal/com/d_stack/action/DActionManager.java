@@ -15,6 +15,10 @@ import tal.com.d_stack.node.DNodeResponse;
 import tal.com.d_stack.node.constants.DNodeActionType;
 import tal.com.d_stack.node.constants.DNodePageType;
 import tal.com.d_stack.observer.DStackActivityManager;
+import tal.com.d_stack.result.DResultManager;
+import tal.com.d_stack.result.DStackResult;
+import tal.com.d_stack.router.INativeResultRouter;
+import tal.com.d_stack.router.INativeRouter;
 import tal.com.d_stack.utils.DStackUtils;
 
 /**
@@ -26,7 +30,7 @@ public class DActionManager {
      * 打开页面
      */
     public static void push(DNode node) {
-        enterPageWithNode(node, DNodeActionType.DNodeActionTypePush, node.isAnimated());
+        enterPageWithNode(node, DNodeActionType.PUSH, node.isAnimated());
         DOperationManager.operation(node);
     }
 
@@ -34,7 +38,7 @@ public class DActionManager {
      * 返回当前页面
      */
     public static void pop(DNode node) {
-        closePageWithNode(node, DNodeActionType.DNodeActionTypePop, node.isAnimated());
+        closePageWithNode(node, DNodeActionType.POP, node.isAnimated());
         DOperationManager.operation(node);
     }
 
@@ -42,7 +46,7 @@ public class DActionManager {
      * 返回指定页面
      */
     public static void popTo(DNode node, List<DNode> removeNodes) {
-        closePageWithNodes(removeNodes, DNodeActionType.DNodeActionTypePopTo, node.isAnimated());
+        closePageWithNodes(removeNodes, DNodeActionType.POP_TO, node.isAnimated());
         DOperationManager.operation(node);
     }
 
@@ -50,7 +54,7 @@ public class DActionManager {
      * 返回根页面
      */
     public static void popToRoot(DNode node, List<DNode> removeNodes) {
-        closePageWithNodes(removeNodes, DNodeActionType.DNodeActionTypePopToRoot, node.isAnimated());
+        closePageWithNodes(removeNodes, DNodeActionType.POP_TO_ROOT, node.isAnimated());
         DOperationManager.operation(node);
     }
 
@@ -58,7 +62,7 @@ public class DActionManager {
      * 返回指定模块页面
      */
     public static void popSkip(DNode node, List<DNode> removeNodes) {
-        closePageWithNodes(removeNodes, DNodeActionType.DNodeActionTypePopSkip, node.isAnimated());
+        closePageWithNodes(removeNodes, DNodeActionType.POP_SKIP, node.isAnimated());
         DOperationManager.operation(node);
     }
 
@@ -76,28 +80,152 @@ public class DActionManager {
         DOperationManager.operation(node);
     }
 
+    /**
+     * 执行多步导航事务的净变化
+     * 被移除的flutter页面和新增的flutter页面合并成一条消息发给flutter
+     * 只关闭保留节点之上的activity，栈顶临界flutter页面被替换时复用原来的flutter容器
+     *
+     * @param keepNode    事务后保留的最上面的节点，可能为null
+     * @param removeNodes 被移除的节点，从栈底到栈顶
+     * @param addNodes    新增的节点，从栈底到栈顶
+     * @return 是否需要打开新的flutter容器
+     */
+    public static boolean transaction(DNode keepNode, List<DNode> removeNodes, List<DNode> addNodes, final boolean animated) {
+        final List<Map<String, Object>> flutterNodes = new ArrayList<>();
+        for (DNode node : removeNodes) {
+            if (node.isFlutter() && !node.isHomePage()) {
+                DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
+                nodeResponse.action = DNodeActionType.DNodeActionTypePop;
+                flutterNodes.add(nodeResponse.toMap());
+            }
+        }
+        DNode firstRemoveNode = removeNodes.isEmpty() ? null : removeNodes.get(0);
+        DNode firstAddNode = addNodes.isEmpty() ? null : addNodes.get(0);
+        //被移除的第一个节点和新增的第一个节点都是临界flutter节点，说明flutter容器可以复用
+        boolean reuseContainer = firstRemoveNode != null && firstAddNode != null
+                && firstRemoveNode.isFlutter() && firstRemoveNode.isBoundary()
+                && firstAddNode.isBoundary();
+        DNode anchorNode = reuseContainer ? firstRemoveNode : keepNode;
+        boolean needContainer = firstAddNode != null && firstAddNode.isBoundary() && !reuseContainer;
+        for (DNode node : addNodes) {
+            if (!needContainer && anchorNode != null) {
+                //新增页面直接放在已有的flutter容器里
+                node.setActivity(anchorNode.getActivity());
+            }
+            DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
+            nodeResponse.action = DNodeActionType.DNodeActionTypePush;
+            flutterNodes.add(nodeResponse.toMap());
+            DOperationManager.operation(node);
+        }
+        if (removeNodes.isEmpty()) {
+            DStackMethodHandler.sendNode(flutterNodes, DNodeActionType.TRANSACTION, animated);
+            return needContainer;
+        }
+        //只关闭锚点节点对应activity之上的activity
+        DStackActivityManager.getInstance().closeActivityWithNode(anchorNode);
+        if (flutterNodes.isEmpty()) {
+            return needContainer;
+        }
+        //和closePageWithNodes一样，延迟给flutter发消息，保证native侧页面顺利关闭
+        new Handler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                DStackMethodHandler.sendNode(flutterNodes,
+                        DNodeActionType.TRANSACTION,
+                        animated);
+            }
+        }, 150);
+        return needContainer;
+    }
+
+    /**
+     * 进程恢复后重新打开flutter页面
+     * 所有flutter页面合并成一条消息，不开启转场动画，flutter根页面本身就存在，不需要打开
+     */
+    public static void restore(List<DNode> nodes) {
+        List<Map<String, Object>> flutterNodes = new ArrayList<>();
+        for (DNode node : nodes) {
+            if (node.isFlutter() && !node.isRootPage()) {
+                DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
+                nodeResponse.action = DNodeActionType.DNodeActionTypePush;
+                flutterNodes.add(nodeResponse.toMap());
+            }
+        }
+        if (!flutterNodes.isEmpty()) {
+            DStackMethodHandler.sendNode(flutterNodes, DNodeActionType.TRANSACTION, false);
+        }
+    }
+
+    /**
+     * 通知flutter侧让页面休眠，释放页面内容，路由本身保留在Navigator里
+     */
+    public static void evict(List<DNode> nodes) {
+        List<Map<String, Object>> flutterNodes = new ArrayList<>();
+        for (DNode node : nodes) {
+            DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
+            nodeResponse.action = DNodeActionType.DNodeActionTypeEvict;
+            flutterNodes.add(nodeResponse.toMap());
+        }
+        DStackMethodHandler.sendNode(flutterNodes, DNodeActionType.EVICT, false);
+    }
+
+    /**
+     * 节点随着不在栈顶的activity一起移除，通知flutter侧按标识移除其中的flutter页面
+     * 这些页面不一定在Navigator栈顶，不能用pop，activity已经销毁，不需要再关闭activity
+     */
+    public static void removeNodes(List<DNode> nodes) {
+        List<Map<String, Object>> flutterNodes = new ArrayList<>();
+        for (DNode node : nodes) {
+            if (node.isFlutter() && !node.isHomePage()) {
+                DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
+                nodeResponse.action = DNodeActionType.DNodeActionTypeRemove;
+                flutterNodes.add(nodeResponse.toMap());
+            }
+        }
+        if (!flutterNodes.isEmpty()) {
+            DStackMethodHandler.sendNode(flutterNodes, DNodeActionType.REMOVE, false);
+        }
+    }
+
     /**
      * 打开页面，根据页面类型做不同处理
      */
-    private static void enterPageWithNode(DNode node, String action, boolean animated) {
+    private static void enterPageWithNode(DNode node, int action, boolean animated) {
         if (node.isFromFlutter()) {
             // 来自flutter消息通道的node
-            if (node.getPageType().equals(DNodePageType.DNodePageTypeNative)) {
+            if (node.isNative()) {
                 // 打开native页面
                 // flutter打开native页面，回传给用户侧处理
-                DStack.getInstance().getNativeRouter().openContainer(
-                        node.getTarget(),
-                        node.getParams()
-                );
-            } else if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+                INativeRouter nativeRouter = DStack.getInstance().getNativeRouter();
+                DStackResult result = DResultManager.getInstance().peekNativeResult();
+                if (result != null && nativeRouter instanceof INativeResultRouter) {
+                    ((INativeResultRouter) nativeRouter).openContainer(
+                            node.getTarget(),
+                            node.getParams(),
+                            result
+                    );
+                } else {
+                    nativeRouter.openContainer(
+                            node.getTarget(),
+                            node.getParams()
+                    );
+                }
+            } else if (node.isFlutter()) {
                 // 打开flutter页面
                 // 给当前flutter节点设置对应的activity
+                // 优先使用打开它的flutter页面所在的容器，有多个task时当前task的栈顶不一定是这个容器
                 DNode currentNode = DNodeManager.getInstance().getCurrentNode();
-                currentNode.setActivity(new WeakReference(DStackActivityManager.getInstance().getTopActivity()));
+                DNode lastNode = DNodeManager.getInstance().getLastNode();
+                if (lastNode != null && lastNode.isFlutter()
+                        && lastNode.getActivity() != null && lastNode.getActivity().get() != null) {
+                    currentNode.setActivity(lastNode.getActivity());
+                } else {
+                    currentNode.setActivity(new WeakReference(DStackActivityManager.getInstance().getTopActivity()));
+                }
             }
         } else {
             // 只是来自native的node，并且是需要打开Flutter页面的，发消息至flutter，打开页面
-            if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+            if (node.isFlutter()) {
                 if (node.isRootPage()) {
                     //flutter根节点，不发通知给flutter
                     return;
@@ -111,8 +239,8 @@ public class DActionManager {
     /**
      * 关闭页面
      */
-    private static void closePageWithNode(DNode node, String action, boolean animated) {
-        if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+    private static void closePageWithNode(DNode node, int action, boolean animated) {
+        if (node.isFlutter()) {
             if (node.isRootPage() || node.isHomePage()) {
                 //根节点不移除栈，去判断临界状态
                 DNodeManager.getInstance().handleNeedRemoveFlutterNode(node);
@@ -127,13 +255,13 @@ public class DActionManager {
     /**
      * 关闭已移除节点集合的所有页面，包括native和flutter
      */
-    private static void closePageWithNodes(List<DNode> nodes, final String action, final boolean animated) {
+    private static void closePageWithNodes(List<DNode> nodes, final int action, final boolean animated) {
         final List<Map<String, Object>> flutterNodes = new ArrayList<>();
         List<String> nativeNodes = new ArrayList<>();
         int size = nodes.size();
         for (int i = 0; i < size; i++) {
             DNode loopNode = nodes.get(i);
-            if (loopNode.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+            if (loopNode.isFlutter()) {
                 if (!loopNode.isHomePage()) {
                     DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(loopNode);
                     flutterNodes.add(nodeResponse.toMap());
@@ -161,9 +289,9 @@ public class DActionManager {
     /**
      * 替换当前页面
      */
-    public static void replace(DNode node, String action, boolean animated) {
+    public static void replace(DNode node, int action, boolean animated) {
         if (node.isFromFlutter()) {
-            if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+            if (node.isFlutter()) {
                 DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
                 DStackMethodHandler.sendNode(nodeResponse, action, animated);
             }
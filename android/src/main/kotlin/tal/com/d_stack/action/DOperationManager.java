@@ -5,6 +5,7 @@ import java.util.Map;
 
 import tal.com.d_stack.DStack;
 import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.lifecycle.LifecycleSubscription;
 import tal.com.d_stack.node.DNode;
 import tal.com.d_stack.node.DNodeManager;
 import tal.com.d_stack.node.DNodeResponse;
@@ -18,53 +19,73 @@ import tal.com.d_stack.utils.DLog;
  */
 public class DOperationManager {
 
-    private static Map<String, Map<String, Object>> popParams = new HashMap<>();
+    //只发给flutter侧时复用的节点信息，sendNodeOperation会把内容复制到消息里，只在主线程使用
+    private static final DNodeResponse SHARED_RESPONSE = new DNodeResponse();
 
     public static void operation(DNode node) {
         if (!DStack.getInstance().isOpenNodeOperation()) {
             return;
         }
-        if (node.getAction().equals(DNodeActionType.DNodeActionTypePush)) {
+        if (node.getActionCode() == DNodeActionType.PUSH) {
             //页面如果是push行为
             if (node.isFromFlutter()) {
                 //如果是来自flutter的消息
-                if (node.getPageType().equals(DNodePageType.DNodePageTypeNative)) {
+                if (node.isNative()) {
                     //如果是打开一个native页面，不记录操作，等activity的onCreate方法
                     return;
                 }
 
             }
         }
-        if (node.getAction().equals(DNodeActionType.DNodeActionTypePop)) {
+        if (node.getActionCode() == DNodeActionType.POP) {
             //页面如果是pop行为
             if (!node.isBoundary()) {
                 //不是临界页面
-                if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+                if (node.isFlutter()) {
                     //操作一个flutter页面，不记录操作，等didPop消息
                     //如果返回待参数，需要保留
                     if (node.getParams() != null && !node.getParams().isEmpty()) {
-                        popParams.put(node.getIdentifier(), node.getParams());
+                        DNodeManager.getInstance().getParamStore().putResult(node.getId(), node.getParams());
                     }
                     return;
                 }
             }
         }
-        DNodeResponse nodeResponse = DNodeManager.getInstance().createNodeResponse(node);
-        DLog.logE("$$$$$节点操作$$$$$");
-        DLog.logE(nodeResponse.action + "-----" + nodeResponse.target);
-        DLog.logE("$$$$$节点操作$$$$$");
-        if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
+        INodeOperation nodeOperation = DStack.getInstance().getNodeOperation();
+        boolean sendToFlutter = LifecycleSubscription.getInstance().acceptNodeOperation(node.getTarget());
+        if (!sendToFlutter && nodeOperation == null) {
+            //flutter侧没有订阅，native侧也没有监听，不创建消息，只释放返回参数
+            if (node.isFlutter()) {
+                DNodeManager.getInstance().getParamStore().takeResult(node.getId());
+            }
+            return;
+        }
+        //native侧监听可能持有DNodeResponse，每次创建新的对象，只发给flutter侧时复用
+        DNodeResponse nodeResponse = nodeOperation == null
+                ? DNodeManager.getInstance().fillNodeResponse(node, SHARED_RESPONSE)
+                : DNodeManager.getInstance().createNodeResponse(node);
+        if (DLog.isDebug()) {
+            DLog.logE("$$$$$节点操作$$$$$");
+            DLog.logE(nodeResponse.action + "-----" + nodeResponse.target);
+            DLog.logE("$$$$$节点操作$$$$$");
+        }
+        if (node.isFlutter()) {
             if (nodeResponse.params == null || nodeResponse.params.isEmpty()) {
-                if (popParams.containsKey(nodeResponse.identifier)) {
-                    nodeResponse.params = popParams.get(nodeResponse.identifier);
-                    popParams.clear();
+                Map<String, Object> params = DNodeManager.getInstance().getParamStore().takeResult(node.getId());
+                if (params != null) {
+                    nodeResponse.params = params;
                 }
             }
         }
 
-        DStackMethodHandler.sendNodeOperation(nodeResponse);
-        INodeOperation nodeOperation = DStack.getInstance().getNodeOperation();
+        if (sendToFlutter) {
+            DStackMethodHandler.sendNodeOperation(nodeResponse);
+        }
         if (nodeOperation != null) {
+            //传进来的节点可能是复用的出栈节点，参数也复制一份，之后节点被修改不会影响监听方
+            if (nodeResponse.params != null) {
+                nodeResponse.params = new HashMap<>(nodeResponse.params);
+            }
             nodeOperation.operationNode(nodeResponse);
         }
     }
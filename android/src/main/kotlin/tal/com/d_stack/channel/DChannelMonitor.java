@@ -0,0 +1,355 @@
+package tal.com.d_stack.channel;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.plugin.common.MethodChannel;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 消息通道健康监控
+ * 开启后native发给flutter的每条消息带一个序号，flutter侧处理完回复时按序号统计往返耗时，
+ * 按消息类型记录耗时分布、错误和notImplemented回复
+ * 最早一条没有回复的消息等待超过阈值时认为flutter isolate卡住，连续收到错误回复时认为通道异常
+ * 默认关闭，监控方法可以在任意线程调用
+ */
+public class DChannelMonitor {
+
+    //健康状态
+    public static final int STATE_DISABLED = 0;
+    public static final int STATE_HEALTHY = 1;
+    public static final int STATE_FAILING = 2;
+    public static final int STATE_STALLED = 3;
+
+    //默认等待回复的超时时间
+    private static final long DEFAULT_STALL_TIMEOUT = 3000;
+    //连续多少次错误回复认为通道异常
+    private static final int FAILING_ERROR_COUNT = 3;
+    //最多等待回复的消息，超出后最早的消息算丢失
+    private static final int MAX_PENDING = 256;
+    //耗时分布每一格的上限，单位微秒，最后一格记录所有更慢的回复
+    //一次正常的往返通常在1毫秒以内，所以毫秒以下也要分格
+    private static final int[] BUCKET_BOUNDS = {
+            50, 100, 250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 1024000};
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final static AtomicReference<DChannelMonitor> INSTANCE = new AtomicReference<>();
+
+    public static DChannelMonitor getInstance() {
+        for (; ; ) {
+            DChannelMonitor factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DChannelMonitor();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    private volatile boolean enabled;
+    private long stallTimeout = DEFAULT_STALL_TIMEOUT;
+    private long nextSequence;
+    //等待回复的消息，key是序号，按发送顺序排列
+    private final LinkedHashMap<Long, Pending> pendingMap = new LinkedHashMap<>();
+    private final Map<String, Latency> latencies = new HashMap<>();
+    private int consecutiveErrors;
+    private int lostCount;
+    private int state = STATE_DISABLED;
+
+    private DChannelMonitor() {
+    }
+
+    /**
+     * 开启或关闭监控，关闭时清空等待回复的消息
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            pendingMap.clear();
+            consecutiveErrors = 0;
+            state = STATE_DISABLED;
+        } else if (state == STATE_DISABLED) {
+            state = STATE_HEALTHY;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置等待回复的超时时间，单位毫秒
+     */
+    public synchronized void setStallTimeout(long stallTimeout) {
+        this.stallTimeout = stallTimeout;
+    }
+
+    /**
+     * 获取发送消息时使用的回调，没有开启监控时返回传入的回调
+     */
+    MethodChannel.Result track(String method, MethodChannel.Result result) {
+        if (!enabled) {
+            return result;
+        }
+        return new AckResult(begin(method), result);
+    }
+
+    /**
+     * 当前的健康状态，看门狗可以定时读取
+     */
+    public synchronized int getState() {
+        updateState();
+        return state;
+    }
+
+    /**
+     * 最早一条没有回复的消息已经等待的时间，单位毫秒，没有时返回0
+     */
+    public synchronized long getOldestPendingTime() {
+        if (pendingMap.isEmpty()) {
+            return 0;
+        }
+        return (SystemClock.elapsedRealtimeNanos() - pendingMap.values().iterator().next().sendTime) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * 等待回复的消息数量
+     */
+    public synchronized int getPendingCount() {
+        return pendingMap.size();
+    }
+
+    /**
+     * 等待回复太多被丢弃的消息数量
+     */
+    public synchronized int getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * 有统计的消息类型
+     */
+    public synchronized List<String> getMethods() {
+        return new ArrayList<>(latencies.keySet());
+    }
+
+    /**
+     * 获取消息类型的往返耗时统计，没有记录时返回null
+     */
+    public synchronized Latency getLatency(String method) {
+        Latency latency = latencies.get(method);
+        return latency == null ? null : latency.copy();
+    }
+
+    /**
+     * 清空统计
+     */
+    public synchronized void reset() {
+        latencies.clear();
+        lostCount = 0;
+    }
+
+    private synchronized long begin(String method) {
+        long sequence = ++nextSequence;
+        if (pendingMap.size() >= MAX_PENDING) {
+            Long oldest = pendingMap.keySet().iterator().next();
+            pendingMap.remove(oldest);
+            lostCount++;
+        }
+        pendingMap.put(sequence, new Pending(method, SystemClock.elapsedRealtimeNanos()));
+        return sequence;
+    }
+
+    /**
+     * 收到回复
+     *
+     * @param type 0成功，1错误，2notImplemented
+     */
+    private synchronized void end(long sequence, int type) {
+        Pending pending = pendingMap.remove(sequence);
+        if (pending == null) {
+            return;
+        }
+        Latency latency = latencies.get(pending.method);
+        if (latency == null) {
+            latency = new Latency();
+            latencies.put(pending.method, latency);
+        }
+        latency.add((SystemClock.elapsedRealtimeNanos() - pending.sendTime) / NANOS_PER_MICRO, type);
+        if (type == 0) {
+            consecutiveErrors = 0;
+        } else {
+            consecutiveErrors++;
+        }
+        updateState();
+    }
+
+    private void updateState() {
+        if (!enabled) {
+            return;
+        }
+        int newState;
+        if (!pendingMap.isEmpty()
+                && SystemClock.elapsedRealtimeNanos() - pendingMap.values().iterator().next().sendTime
+                > stallTimeout * NANOS_PER_MILLI) {
+            newState = STATE_STALLED;
+        } else if (consecutiveErrors >= FAILING_ERROR_COUNT) {
+            newState = STATE_FAILING;
+        } else {
+            newState = STATE_HEALTHY;
+        }
+        if (newState != state) {
+            DLog.logE("消息通道状态变化：" + state + " -> " + newState);
+            state = newState;
+        }
+    }
+
+    /**
+     * 等待回复的消息
+     */
+    private static class Pending {
+        final String method;
+        //发送时间，单位纳秒
+        final long sendTime;
+
+        Pending(String method, long sendTime) {
+            this.method = method;
+            this.sendTime = sendTime;
+        }
+    }
+
+    /**
+     * 记录回复并转发给原来的回调
+     */
+    private class AckResult implements MethodChannel.Result {
+        private final long sequence;
+        private final MethodChannel.Result result;
+
+        AckResult(long sequence, MethodChannel.Result result) {
+            this.sequence = sequence;
+            this.result = result;
+        }
+
+        @Override
+        public void success(Object o) {
+            end(sequence, 0);
+            result.success(o);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            end(sequence, 1);
+            DLog.logE("flutter侧处理消息出错：" + errorCode + "，" + errorMessage);
+            result.error(errorCode, errorMessage, errorDetails);
+        }
+
+        @Override
+        public void notImplemented() {
+            end(sequence, 2);
+            result.notImplemented();
+        }
+    }
+
+    /**
+     * 单个消息类型的往返耗时统计，耗时的单位都是微秒
+     */
+    public static class Latency {
+        private final int[] buckets = new int[BUCKET_BOUNDS.length + 1];
+        private long count;
+        private long totalTime;
+        private long maxTime;
+        private int errorCount;
+        private int notImplementedCount;
+
+        void add(long time, int type) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && time >= BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            if (type == 1) {
+                errorCount++;
+            } else if (type == 2) {
+                notImplementedCount++;
+            }
+        }
+
+        Latency copy() {
+            Latency latency = new Latency();
+            System.arraycopy(buckets, 0, latency.buckets, 0, buckets.length);
+            latency.count = count;
+            latency.totalTime = totalTime;
+            latency.maxTime = maxTime;
+            latency.errorCount = errorCount;
+            latency.notImplementedCount = notImplementedCount;
+            return latency;
+        }
+
+        /**
+         * 耗时分布，第i格是耗时小于getBucketBounds()[i]微秒的回复数量，最后一格是更慢的回复
+         */
+        public int[] getBuckets() {
+            return buckets.clone();
+        }
+
+        public static int[] getBucketBounds() {
+            return BUCKET_BOUNDS.clone();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public int getNotImplementedCount() {
+            return notImplementedCount;
+        }
+
+        /**
+         * 平均往返耗时，单位微秒
+         */
+        public float getAverageTime() {
+            return count == 0 ? 0 : (float) totalTime / count;
+        }
+
+        /**
+         * 最大往返耗时，单位微秒
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * 往返耗时的百分位数，单位微秒，取所在格的上限，落在最后一格时返回最大耗时
+         */
+        public long getPercentile(int percent) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(count * Math.max(0, Math.min(100, percent)) / 100.0));
+            long sum = 0;
+            for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+                sum += buckets[i];
+                if (sum >= target) {
+                    return BUCKET_BOUNDS[i];
+                }
+            }
+            return maxTime;
+        }
+    }
+}
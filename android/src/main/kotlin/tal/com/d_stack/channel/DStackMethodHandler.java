@@ -13,10 +13,17 @@ import java.util.Map;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import tal.com.d_stack.DStack;
+import tal.com.d_stack.jank.DJankMonitor;
+import tal.com.d_stack.lifecycle.EngineIdleManager;
+import tal.com.d_stack.lifecycle.LifecycleSubscription;
 import tal.com.d_stack.lifecycle.PageModel;
 import tal.com.d_stack.node.DNode;
 import tal.com.d_stack.node.DNodeManager;
 import tal.com.d_stack.node.DNodeResponse;
+import tal.com.d_stack.node.constants.DNodeActionType;
+import tal.com.d_stack.node.constants.DNodePageType;
+import tal.com.d_stack.result.DResultManager;
+import tal.com.d_stack.result.DStackResult;
 import tal.com.d_stack.utils.DLog;
 
 /**
@@ -24,6 +31,36 @@ import tal.com.d_stack.utils.DLog;
  */
 public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
 
+    //共享的空回调，native发给flutter的消息不关心返回值
+    private static final MethodChannel.Result EMPTY_RESULT = new MethodChannel.Result() {
+        @Override
+        public void success(Object result) {
+
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+
+        }
+
+        @Override
+        public void notImplemented() {
+
+        }
+    };
+
+    //生命周期消息复用的消息体，invokeMethod会立即编码，只在主线程使用
+    //页面和应用的消息体分开，每次只覆盖已有的key，不会重新分配HashMap的节点
+    private static final Map<String, Object> PAGE_INFO = new HashMap<>(8);
+    private static final Map<String, Object> APP_INFO = new HashMap<>(4);
+    private static final Map<String, Object> PAGE_MESSAGE = new HashMap<>(2);
+    private static final Map<String, Object> APP_MESSAGE = new HashMap<>(2);
+
+    static {
+        PAGE_MESSAGE.put("page", PAGE_INFO);
+        APP_MESSAGE.put("application", APP_INFO);
+    }
+
     /**
      * native侧接受flutter侧发来的消息
      */
@@ -41,12 +78,25 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
                 result.success("节点移除完成");
                 break;
             case "sendNodeList":
-                handleSendNodeList(result);
+                //只读消息，优先走后台线程的d_stack_query通道，这里保留给旧版本flutter侧
+                DStackQueryHandler.handleSendNodeList(args, result);
                 break;
             case "sendUpdateBoundaryNode":
                 handleSendUpdateBoundaryNode(args);
                 result.success("节点操作完成");
                 break;
+            case "sendSubscription":
+                LifecycleSubscription.getInstance().update(args);
+                if (DJankMonitor.getInstance().isEnabled()) {
+                    //flutter侧已经可以接收消息，重新通知上报帧耗时
+                    sendFrameTiming(true);
+                }
+                result.success("订阅完成");
+                break;
+            case "sendFrameTimings":
+                DJankMonitor.getInstance().onFlutterFrames((long[]) args.get("timings"));
+                result.success(null);
+                break;
             default:
                 result.success("节点操作完成");
                 break;
@@ -59,13 +109,49 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
     private static void handleSendNodeToNative(Map<String, Object> args) {
         DNode node = createNodeFromFlutter(args);
         if (node != null) {
-            DLog.logD("----------接收handleSendNodeToNative消息----------");
-            DLog.logD(node.toString());
-            DLog.logD("----------接收handleSendNodeToNative消息----------");
+            if (DLog.isDebug()) {
+                DLog.logD("----------接收handleSendNodeToNative消息----------");
+                DLog.logD(node.toString());
+                DLog.logD("----------接收handleSendNodeToNative消息----------");
+            }
+            if (DNodeManager.getInstance().getPushThrottle().shouldDrop(node)) {
+                //连续点击产生的重复操作，直接丢弃，等待结果的flutter侧立即返回
+                if (args.get("requestId") != null) {
+                    sendResult(((Number) args.get("requestId")).intValue(), null);
+                }
+                return;
+            }
+            if (args.get("requestId") != null && node.isNative()
+                    && node.getActionCode() == DNodeActionType.PUSH) {
+                //flutter打开native页面并等待返回结果
+                expectNativeResult(((Number) args.get("requestId")).intValue());
+            }
             DNodeManager.getInstance().checkNode(node);
         }
     }
 
+    /**
+     * flutter打开native页面时创建返回结果，页面关闭时把结果发回flutter侧
+     */
+    private static void expectNativeResult(final int requestId) {
+        DResultManager.getInstance().expectNativeResult().then(new DStackResult.Callback() {
+            @Override
+            public void onResult(Map<String, Object> result) {
+                sendResult(requestId, result);
+            }
+        });
+    }
+
+    /**
+     * native侧发送native页面的返回结果给flutter侧
+     */
+    public static void sendResult(int requestId, Map<String, Object> result) {
+        Map<String, Object> resultMap = new HashMap<>(2);
+        resultMap.put("requestId", requestId);
+        resultMap.put("result", result);
+        DStack.getInstance().getMethodChannel().invokeMethod("sendResultToFlutter", resultMap, ack("sendResultToFlutter"));
+    }
+
     /**
      * flutter侧发来的要移除的节点信息
      */
@@ -79,30 +165,20 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
         }
     }
 
-    /**
-     * flutter侧发来的获取节点列表
-     */
-    private void handleSendNodeList(MethodChannel.Result result) {
-        List<DNode> nodeList = DNodeManager.getInstance().getNodeList();
-        List<Map<String, Object>> resultList = new ArrayList<>();
-        for (DNode node : nodeList) {
-            Map<String, Object> tempMap = new HashMap<>();
-            tempMap.put("route", node.getTarget());
-            tempMap.put("pageType", node.getPageType());
-            resultList.add(tempMap);
-        }
-        result.success(resultList);
-    }
-
     /**
      * flutter侧发来的更新边界节点位移id
+     * native发过去的节点带有节点id，按id查找，恢复的节点集合里有相同路由的页面时也不会绑错
      */
     private static void handleSendUpdateBoundaryNode(Map<String, Object> args) {
         DNode node = createNodeFromFlutter(args);
         if (node != null) {
-            DNode targetNode = DNodeManager.getInstance().findNodeByRouter(node.getTarget());
+            Object id = args.get("id");
+            DNode targetNode = id instanceof Number
+                    ? DNodeManager.getInstance().findNodeById(((Number) id).longValue())
+                    : DNodeManager.getInstance().findNodeByRouter(node.getTarget());
             if (targetNode != null) {
                 targetNode.setIdentifier(node.getIdentifier());
+                DNodeManager.getInstance().onNodeChanged(targetNode);
             }
         }
     }
@@ -110,65 +186,39 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
     /**
      * native侧发送单个节点给flutter侧
      */
-    public static void sendNode(DNodeResponse nodeResponse, String action, boolean animated) {
+    public static void sendNode(DNodeResponse nodeResponse, int action, boolean animated) {
         Map<String, Object> resultMap = new HashMap();
         List<Map<String, Object>> nodes = new ArrayList<>();
         nodes.add(nodeResponse.toMap());
         resultMap.put("nodes", nodes);
-        resultMap.put("action", action);
+        resultMap.put("action", DNodeActionType.toName(action));
         resultMap.put("animated", animated);
-        DStack.getInstance().getMethodChannel().invokeMethod("sendActionToFlutter", resultMap, new MethodChannel.Result() {
-            @Override
-            public void success(Object result) {
-
-            }
-
-            @Override
-            public void error(String errorCode, String errorMessage, Object errorDetails) {
-
-            }
-
-            @Override
-            public void notImplemented() {
-
-            }
-        });
-        DLog.logD("----------发送sendNode消息----------");
-        JSONObject jsonObject = new JSONObject(resultMap);
-        DLog.logD(jsonObject.toString());
-        DLog.logD("----------发送sendNode消息----------");
+        DStack.getInstance().getMethodChannel().invokeMethod("sendActionToFlutter", resultMap, ack("sendActionToFlutter"));
+        if (DLog.isDebug()) {
+            DLog.logD("----------发送sendNode消息----------");
+            JSONObject jsonObject = new JSONObject(resultMap);
+            DLog.logD(jsonObject.toString());
+            DLog.logD("----------发送sendNode消息----------");
+        }
     }
 
     /**
      * native侧发送节点集合给flutter侧
      */
-    public static void sendNode(List<Map<String, Object>> flutterNodes, String action, boolean animated) {
+    public static void sendNode(List<Map<String, Object>> flutterNodes, int action, boolean animated) {
         Map<String, Object> resultMap = new HashMap();
         List<Map<String, Object>> nodes = new ArrayList<>();
         nodes.addAll(flutterNodes);
         resultMap.put("nodes", nodes);
-        resultMap.put("action", action);
+        resultMap.put("action", DNodeActionType.toName(action));
         resultMap.put("animated", animated);
-        DStack.getInstance().getMethodChannel().invokeMethod("sendActionToFlutter", resultMap, new MethodChannel.Result() {
-            @Override
-            public void success(Object result) {
-
-            }
-
-            @Override
-            public void error(String errorCode, String errorMessage, Object errorDetails) {
-
-            }
-
-            @Override
-            public void notImplemented() {
-
-            }
-        });
-        DLog.logD("----------发送sendNode消息----------");
-        JSONObject jsonObject = new JSONObject(resultMap);
-        DLog.logD(jsonObject.toString());
-        DLog.logD("----------发送sendNode消息----------");
+        DStack.getInstance().getMethodChannel().invokeMethod("sendActionToFlutter", resultMap, ack("sendActionToFlutter"));
+        if (DLog.isDebug()) {
+            DLog.logD("----------发送sendNode消息----------");
+            JSONObject jsonObject = new JSONObject(resultMap);
+            DLog.logD(jsonObject.toString());
+            DLog.logD("----------发送sendNode消息----------");
+        }
     }
 
 
@@ -176,58 +226,22 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
      * native侧发送页面的生命周期
      */
     public static void sendPageLifeCircle(PageModel pageModel) {
-        Map<String, Object> resultMap = new HashMap();
-        Map<String, Object> pageInfo = new HashMap();
-        pageInfo.put("appearRoute", pageModel.getCurrentPageRoute());
-        pageInfo.put("appearPageType", pageModel.getCurrentPageType());
-        pageInfo.put("disappearRoute", pageModel.getPrePageRoute());
-        pageInfo.put("disappearPageType", pageModel.getPrePageType());
-        pageInfo.put("actionType", pageModel.getActionType());
-        resultMap.put("page", pageInfo);
-        DStack.getInstance().getMethodChannel().invokeMethod("sendLifeCycle", resultMap, new MethodChannel.Result() {
-            @Override
-            public void success(Object result) {
-
-            }
-
-            @Override
-            public void error(String errorCode, String errorMessage, Object errorDetails) {
-
-            }
-
-            @Override
-            public void notImplemented() {
-
-            }
-        });
+        PAGE_INFO.put("appearRoute", pageModel.getCurrentPageRoute());
+        PAGE_INFO.put("appearPageType", DNodePageType.toName(pageModel.getCurrentPageType()));
+        PAGE_INFO.put("disappearRoute", pageModel.getPrePageRoute());
+        PAGE_INFO.put("disappearPageType", DNodePageType.toName(pageModel.getPrePageType()));
+        PAGE_INFO.put("actionType", DNodeActionType.toName(pageModel.getActionType()));
+        invokeNonEssential("sendLifeCycle", PAGE_MESSAGE);
     }
 
     /**
      * native侧发送应用的生命周期
      */
     public static void sendAppLifeCircle(PageModel pageModel) {
-        Map<String, Object> resultMap = new HashMap();
-        Map<String, Object> appInfo = new HashMap();
-        appInfo.put("currentRoute", pageModel.getCurrentPageRoute());
-        appInfo.put("pageType", pageModel.getCurrentPageType());
-        appInfo.put("state", pageModel.getState());
-        resultMap.put("application", appInfo);
-        DStack.getInstance().getMethodChannel().invokeMethod("sendLifeCycle", resultMap, new MethodChannel.Result() {
-            @Override
-            public void success(Object result) {
-
-            }
-
-            @Override
-            public void error(String errorCode, String errorMessage, Object errorDetails) {
-
-            }
-
-            @Override
-            public void notImplemented() {
-
-            }
-        });
+        APP_INFO.put("currentRoute", pageModel.getCurrentPageRoute());
+        APP_INFO.put("pageType", DNodePageType.toName(pageModel.getCurrentPageType()));
+        APP_INFO.put("state", pageModel.getState());
+        DStack.getInstance().getMethodChannel().invokeMethod("sendLifeCycle", APP_MESSAGE, ack("sendLifeCycle"));
     }
 
     /**
@@ -243,22 +257,80 @@ public class DStackMethodHandler implements MethodChannel.MethodCallHandler {
         resultMap.put("boundary", nodeResponse.boundary);
         resultMap.put("animated", nodeResponse.animated);
         resultMap.put("identifier", nodeResponse.identifier);
-        DStack.getInstance().getMethodChannel().invokeMethod("sendOperationNodeToFlutter", resultMap, new MethodChannel.Result() {
-            @Override
-            public void success(Object result) {
+        invokeNonEssential("sendOperationNodeToFlutter", resultMap);
+    }
 
-            }
+    /**
+     * native侧通知flutter侧预热或取消预热页面
+     */
+    public static void sendPrewarm(String route, boolean cancel) {
+        Map<String, Object> resultMap = new HashMap<>(2);
+        resultMap.put("route", route);
+        resultMap.put("cancel", cancel);
+        invokeNonEssential("sendPrewarmToFlutter", resultMap);
+    }
 
-            @Override
-            public void error(String errorCode, String errorMessage, Object errorDetails) {
+    /**
+     * native侧通知flutter侧按级别回收内存，flutter侧回复释放的字节数
+     */
+    public static void sendMemoryTrim(int tier, MethodChannel.Result callback) {
+        Map<String, Object> resultMap = new HashMap<>(1);
+        resultMap.put("tier", tier);
+        DStack.getInstance().getMethodChannel().invokeMethod("sendMemoryTrimToFlutter", resultMap,
+                DChannelMonitor.getInstance().track("sendMemoryTrimToFlutter", callback));
+    }
 
-            }
+    /**
+     * native侧通知flutter侧引擎进入或退出空闲状态
+     */
+    public static void sendIdle(boolean idle) {
+        if (DStack.getInstance().getMethodChannel() == null) {
+            //引擎还没有创建，flutter侧启动时默认不是空闲状态
+            return;
+        }
+        Map<String, Object> resultMap = new HashMap<>(1);
+        resultMap.put("idle", idle);
+        DStack.getInstance().getMethodChannel().invokeMethod("sendIdleToFlutter", resultMap, ack("sendIdleToFlutter"));
+    }
 
-            @Override
-            public void notImplemented() {
+    /**
+     * native侧通知flutter侧开始或停止上报帧耗时
+     */
+    public static void sendFrameTiming(boolean enabled) {
+        if (DStack.getInstance().getMethodChannel() == null) {
+            //引擎还没有创建，flutter侧发来订阅时再通知
+            return;
+        }
+        Map<String, Object> resultMap = new HashMap<>(1);
+        resultMap.put("enabled", enabled);
+        DStack.getInstance().getMethodChannel().invokeMethod("sendFrameTimingToFlutter", resultMap, ack("sendFrameTimingToFlutter"));
+    }
 
-            }
-        });
+    /**
+     * 发送引擎空闲时缓存的消息
+     */
+    public static void sendHeldMessage(String method, Map<String, Object> arguments) {
+        if (DStack.getInstance().getMethodChannel() == null) {
+            return;
+        }
+        DStack.getInstance().getMethodChannel().invokeMethod(method, arguments, ack(method));
+    }
+
+    /**
+     * 发送非必要消息，引擎空闲时先缓存，退出空闲后再发送
+     */
+    private static void invokeNonEssential(String method, Map<String, Object> arguments) {
+        if (EngineIdleManager.getInstance().hold(method, arguments)) {
+            return;
+        }
+        DStack.getInstance().getMethodChannel().invokeMethod(method, arguments, ack(method));
+    }
+
+    /**
+     * 发送消息使用的回调，开启通道监控时记录回复
+     */
+    private static MethodChannel.Result ack(String method) {
+        return DChannelMonitor.getInstance().track(method, EMPTY_RESULT);
     }
 
     /**
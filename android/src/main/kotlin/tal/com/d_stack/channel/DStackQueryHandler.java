@@ -0,0 +1,67 @@
+package tal.com.d_stack.channel;
+
+import java.util.Map;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMethodCodec;
+import tal.com.d_stack.node.DNodeChangeLog;
+import tal.com.d_stack.node.DNodeManager;
+
+/**
+ * 框架查询消息通道
+ * 运行在后台TaskQueue上，只处理不修改节点栈的只读消息，避免和主线程的输入、布局抢占时间
+ * 可以在后台处理的消息：
+ * sendNodeList 获取节点列表，读取的是DNodeChangeLog里加锁维护的节点栈快照
+ * 必须在主线程处理的消息仍然走d_stack通道：
+ * sendNodeToNative、sendRemoveFlutterPageNode、sendUpdateBoundaryNode会修改节点栈、打开或关闭activity
+ */
+public class DStackQueryHandler implements MethodChannel.MethodCallHandler {
+
+    public static final String CHANNEL_ID = "d_stack_query";
+
+    /**
+     * 在后台TaskQueue上注册查询通道
+     * makeBackgroundTaskQueue和带TaskQueue的MethodChannel构造方法需要flutter 2.5及以上，pubspec里已经限制了最低版本
+     */
+    public static MethodChannel register(BinaryMessenger messenger) {
+        BinaryMessenger.TaskQueue taskQueue = messenger.makeBackgroundTaskQueue();
+        MethodChannel channel = new MethodChannel(messenger, CHANNEL_ID,
+                StandardMethodCodec.INSTANCE, taskQueue);
+        channel.setMethodCallHandler(new DStackQueryHandler());
+        return channel;
+    }
+
+    /**
+     * native侧在后台线程接受flutter侧发来的查询消息
+     */
+    @Override
+    public void onMethodCall(MethodCall methodCall, MethodChannel.Result result) {
+        Map<String, Object> args = (Map<String, Object>) methodCall.arguments;
+        switch (methodCall.method) {
+            case "sendNodeList":
+                handleSendNodeList(args, result);
+                break;
+            default:
+                result.notImplemented();
+                break;
+        }
+    }
+
+    /**
+     * flutter侧发来的获取节点列表
+     * 带有version参数时，返回该版本之后的节点变更，变更记录已被裁剪时返回全量节点列表
+     * 不带version参数时，直接返回全量节点列表
+     * 只读取DNodeChangeLog，可以在任意线程调用
+     */
+    static void handleSendNodeList(Map<String, Object> args, MethodChannel.Result result) {
+        DNodeChangeLog changeLog = DNodeManager.getInstance().getChangeLog();
+        if (args == null || args.get("version") == null) {
+            result.success(changeLog.snapshot());
+            return;
+        }
+        long sinceVersion = ((Number) args.get("version")).longValue();
+        result.success(changeLog.syncSince(sinceVersion));
+    }
+}
@@ -0,0 +1,133 @@
+package tal.com.d_stack.jank;
+
+/**
+ * 帧耗时统计
+ * 用1毫秒一格的直方图记录帧耗时，内存占用固定，百分位数精确到毫秒
+ * 慢帧和冻结帧按Android vitals的定义：超过16ms是慢帧，超过700ms是冻结帧
+ */
+public class DFrameStats {
+
+    //直方图格数，最后一格记录所有超过范围的帧
+    private static final int BUCKET_COUNT = 128;
+    private static final long SLOW_FRAME_TIME = 16 * 1000;
+    private static final long FROZEN_FRAME_TIME = 700 * 1000;
+
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private long frameCount;
+    private long slowCount;
+    private long frozenCount;
+    //单位微秒
+    private long totalTime;
+    private long maxTime;
+
+    DFrameStats() {
+    }
+
+    /**
+     * 记录一帧
+     *
+     * @param frameTime 帧耗时，单位微秒
+     */
+    void add(long frameTime) {
+        if (frameTime < 0) {
+            return;
+        }
+        int bucket = (int) Math.min(frameTime / 1000, BUCKET_COUNT - 1);
+        buckets[bucket]++;
+        frameCount++;
+        totalTime += frameTime;
+        maxTime = Math.max(maxTime, frameTime);
+        if (frameTime > FROZEN_FRAME_TIME) {
+            frozenCount++;
+        } else if (frameTime > SLOW_FRAME_TIME) {
+            slowCount++;
+        }
+    }
+
+    /**
+     * 拷贝当前统计，调用方拿到的统计不再变化
+     */
+    DFrameStats copy() {
+        DFrameStats stats = new DFrameStats();
+        System.arraycopy(buckets, 0, stats.buckets, 0, BUCKET_COUNT);
+        stats.frameCount = frameCount;
+        stats.slowCount = slowCount;
+        stats.frozenCount = frozenCount;
+        stats.totalTime = totalTime;
+        stats.maxTime = maxTime;
+        return stats;
+    }
+
+    /**
+     * 帧数
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 慢帧数量，不包括冻结帧
+     */
+    public long getSlowCount() {
+        return slowCount;
+    }
+
+    /**
+     * 冻结帧数量
+     */
+    public long getFrozenCount() {
+        return frozenCount;
+    }
+
+    /**
+     * 平均帧耗时，单位毫秒
+     */
+    public float getAverageTime() {
+        return frameCount == 0 ? 0 : totalTime / 1000f / frameCount;
+    }
+
+    /**
+     * 最大帧耗时，单位毫秒
+     */
+    public float getMaxTime() {
+        return maxTime / 1000f;
+    }
+
+    public int getP50() {
+        return getPercentile(50);
+    }
+
+    public int getP90() {
+        return getPercentile(90);
+    }
+
+    public int getP99() {
+        return getPercentile(99);
+    }
+
+    /**
+     * 帧耗时的百分位数，单位毫秒，取所在格的上限，超出直方图范围时返回最大帧耗时
+     *
+     * @param percent 0到100
+     */
+    public int getPercentile(int percent) {
+        if (frameCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(frameCount * Math.max(0, Math.min(100, percent)) / 100.0);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            count += buckets[i];
+            if (count >= Math.max(1, target)) {
+                return i + 1;
+            }
+        }
+        return (int) Math.ceil(maxTime / 1000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + frameCount + ", p50=" + getP50() + "ms, p90=" + getP90()
+                + "ms, p99=" + getP99() + "ms, slow=" + slowCount + ", frozen=" + frozenCount;
+    }
+}
@@ -0,0 +1,278 @@
+package tal.com.d_stack.jank;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.node.DNodeIdService;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 按页面统计掉帧
+ * native窗口的帧耗时来自每个activity的FrameMetrics，flutter的帧耗时来自flutter侧上报的FrameTiming
+ * 两种帧都按帧开始的时间戳归属到当时栈顶的节点，页面切换后一段时间内的帧同时归属到这次转场
+ * 统计按路由和转场分别保存，各自最多保留固定数量，超出时丢弃最久没有更新的，内存占用有上限
+ * 默认关闭，需要Android 7.0及以上
+ */
+public class DJankMonitor {
+
+    //帧来源
+    public static final int SOURCE_NATIVE = 0;
+    public static final int SOURCE_FLUTTER = 1;
+
+    //最多保留的路由和转场统计
+    private static final int MAX_ROUTES = 64;
+    private static final int MAX_TRANSITIONS = 64;
+    //记录最近的页面切换，用来按时间戳归属帧
+    private static final int MAX_CHANGES = 16;
+    //页面切换后多长时间内的帧算转场，单位纳秒
+    private static final long TRANSITION_WINDOW = 600 * 1000 * 1000L;
+
+    private final static AtomicReference<DJankMonitor> INSTANCE = new AtomicReference<>();
+
+    public static DJankMonitor getInstance() {
+        for (; ; ) {
+            DJankMonitor factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DJankMonitor();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    private boolean enabled;
+    private Handler metricsHandler;
+    //每个activity的帧监听，只在主线程使用
+    private final Map<Activity, Window.OnFrameMetricsAvailableListener> listeners = new WeakHashMap<>();
+
+    //最近的页面切换，环形数组，按时间顺序，下面的字段都用this加锁
+    private final long[] changeTimes = new long[MAX_CHANGES];
+    private final String[] changeRoutes = new String[MAX_CHANGES];
+    private final String[] changeTransitions = new String[MAX_CHANGES];
+    private int changeCount;
+    private long currentNodeId = DNodeIdService.NO_ID;
+    private String currentRoute;
+    //按访问顺序排列，超出上限时移除最久没有更新的统计
+    private final Map<String, DFrameStats[]> routeStats = new BoundedMap(MAX_ROUTES);
+    private final Map<String, DFrameStats[]> transitionStats = new BoundedMap(MAX_TRANSITIONS);
+
+    private DJankMonitor() {
+    }
+
+    /**
+     * 开启或关闭统计，开启时监听已经打开的activity，并通知flutter侧上报帧耗时
+     * 只在主线程调用
+     */
+    public void setEnabled(boolean enabled, List<Activity> activities) {
+        if (this.enabled == enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        this.enabled = enabled;
+        if (enabled) {
+            if (metricsHandler == null) {
+                HandlerThread thread = new HandlerThread("d_stack_frame_metrics");
+                thread.start();
+                metricsHandler = new Handler(thread.getLooper());
+            }
+            for (Activity activity : activities) {
+                track(activity);
+            }
+        } else {
+            for (Activity activity : new ArrayList<>(listeners.keySet())) {
+                untrack(activity);
+            }
+        }
+        DStackMethodHandler.sendFrameTiming(enabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 监听activity窗口的帧耗时，activity创建时调用
+     */
+    public void track(Activity activity) {
+        if (!enabled || activity == null || activity.getWindow() == null || listeners.containsKey(activity)) {
+            return;
+        }
+        Window.OnFrameMetricsAvailableListener listener = new Window.OnFrameMetricsAvailableListener() {
+            @Override
+            public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics, int dropCount) {
+                onNativeFrame(frameMetrics);
+            }
+        };
+        activity.getWindow().addOnFrameMetricsAvailableListener(listener, metricsHandler);
+        listeners.put(activity, listener);
+    }
+
+    /**
+     * 停止监听activity，activity销毁时调用
+     */
+    public void untrack(Activity activity) {
+        Window.OnFrameMetricsAvailableListener listener = listeners.remove(activity);
+        if (listener == null || activity.getWindow() == null) {
+            return;
+        }
+        try {
+            activity.getWindow().removeOnFrameMetricsAvailableListener(listener);
+        } catch (IllegalArgumentException e) {
+            //窗口已经移除了监听
+            DLog.logE(e.getMessage());
+        }
+    }
+
+    /**
+     * 栈顶节点变化，记录一次页面切换
+     */
+    public synchronized void onCurrentNodeChanged(DNode node) {
+        long nodeId = node == null ? DNodeIdService.NO_ID : node.getId();
+        if (!enabled || nodeId == currentNodeId) {
+            return;
+        }
+        currentNodeId = nodeId;
+        String route = node == null ? null : node.getTarget();
+        int index = changeCount % MAX_CHANGES;
+        changeTimes[index] = System.nanoTime();
+        changeRoutes[index] = route;
+        changeTransitions[index] = currentRoute + " -> " + route;
+        changeCount++;
+        currentRoute = route;
+    }
+
+    /**
+     * flutter侧上报的帧耗时，每两个数是一帧：vsync开始的时间戳和帧总耗时，单位微秒
+     */
+    public void onFlutterFrames(long[] timings) {
+        if (!enabled || timings == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < timings.length; i += 2) {
+            record(SOURCE_FLUTTER, timings[i] * 1000, timings[i + 1]);
+        }
+    }
+
+    /**
+     * 获取路由的帧耗时统计，没有记录时返回null
+     *
+     * @param source SOURCE_NATIVE或SOURCE_FLUTTER
+     */
+    public synchronized DFrameStats getRouteStats(String route, int source) {
+        DFrameStats[] stats = routeStats.get(route);
+        return stats == null ? null : stats[source].copy();
+    }
+
+    /**
+     * 获取转场的帧耗时统计，转场的格式是"来源路由 -> 目标路由"，没有记录时返回null
+     *
+     * @param source SOURCE_NATIVE或SOURCE_FLUTTER
+     */
+    public synchronized DFrameStats getTransitionStats(String transition, int source) {
+        DFrameStats[] stats = transitionStats.get(transition);
+        return stats == null ? null : stats[source].copy();
+    }
+
+    /**
+     * 有统计的路由
+     */
+    public synchronized List<String> getRoutes() {
+        return new ArrayList<>(routeStats.keySet());
+    }
+
+    /**
+     * 有统计的转场
+     */
+    public synchronized List<String> getTransitions() {
+        return new ArrayList<>(transitionStats.keySet());
+    }
+
+    /**
+     * 清空统计
+     */
+    public synchronized void reset() {
+        routeStats.clear();
+        transitionStats.clear();
+    }
+
+    /**
+     * 帧监听线程收到native窗口的帧，第一帧包含布局和初始化耗时，不计入统计
+     */
+    private void onNativeFrame(FrameMetrics frameMetrics) {
+        if (frameMetrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 1) {
+            return;
+        }
+        long totalDuration = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        long frameTime;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            frameTime = frameMetrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+        } else {
+            frameTime = System.nanoTime() - totalDuration;
+        }
+        record(SOURCE_NATIVE, frameTime, totalDuration / 1000);
+    }
+
+    /**
+     * 按帧开始的时间找到当时的栈顶路由和转场，记录帧耗时
+     *
+     * @param frameTime 帧开始的时间，System.nanoTime的时间基准
+     * @param duration  帧耗时，单位微秒
+     */
+    private synchronized void record(int source, long frameTime, long duration) {
+        int available = Math.min(changeCount, MAX_CHANGES);
+        for (int i = 1; i <= available; i++) {
+            int index = (changeCount - i) % MAX_CHANGES;
+            if (changeTimes[index] > frameTime) {
+                continue;
+            }
+            if (changeRoutes[index] != null) {
+                obtain(routeStats, changeRoutes[index])[source].add(duration);
+            }
+            if (frameTime - changeTimes[index] < TRANSITION_WINDOW) {
+                obtain(transitionStats, changeTransitions[index])[source].add(duration);
+            }
+            return;
+        }
+        //帧早于记录的所有页面切换，无法归属
+    }
+
+    private static DFrameStats[] obtain(Map<String, DFrameStats[]> map, String key) {
+        DFrameStats[] stats = map.get(key);
+        if (stats == null) {
+            stats = new DFrameStats[]{new DFrameStats(), new DFrameStats()};
+            map.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * 按访问顺序排列，超出上限时移除最久没有访问的统计
+     */
+    private static class BoundedMap extends LinkedHashMap<String, DFrameStats[]> {
+        private final int maxSize;
+
+        BoundedMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DFrameStats[]> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package tal.com.d_stack.lifecycle;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 应用前后台状态机
+ * 按进程内已经start的activity数量判断前后台，和ProcessLifecycleOwner的规则一致：
+ * 第一个activity start时进入前台，最后一个activity stop后等待一段时间仍然没有activity start才进入后台
+ * activity切换、配置变化重建、先stop再start的跳转都在等待时间内完成，不会发出多余的后台和前台通知
+ * 状态没有变化时不重复通知，每次真正的变化只通知flutter侧一次
+ * 只在主线程使用
+ */
+public class AppStateMachine {
+
+    public static final int STATE_FOREGROUND = 0;
+    //最后一个activity已经stop，等待确认进入后台
+    public static final int STATE_PENDING_BACKGROUND = 1;
+    public static final int STATE_BACKGROUND = 2;
+
+    //默认等待时间，和ProcessLifecycleOwner相同
+    private static final long DEFAULT_DEBOUNCE_TIME = 700;
+
+    private final static AtomicReference<AppStateMachine> INSTANCE = new AtomicReference<>();
+
+    public static AppStateMachine getInstance() {
+        for (; ; ) {
+            AppStateMachine factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new AppStateMachine();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable backgroundRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchBackground();
+        }
+    };
+    //应用启动时第一个activity创建之前就算在前台，启动时发送的是appCreate，不再发送appForeground
+    private int state = STATE_FOREGROUND;
+    private int startedCount;
+    private long debounceTime = DEFAULT_DEBOUNCE_TIME;
+    //真正发出的前后台通知次数
+    private int foregroundCount;
+    private int backgroundCount;
+    //等待时间内恢复前台，没有发出的后台和前台通知对数
+    private int suppressedCount;
+
+    AppStateMachine() {
+    }
+
+    /**
+     * activity onStart
+     */
+    public void onActivityStarted() {
+        startedCount++;
+        if (startedCount != 1) {
+            return;
+        }
+        if (state == STATE_PENDING_BACKGROUND) {
+            //等待时间内有activity start，是一次页面切换，不通知
+            cancelBackground();
+            state = STATE_FOREGROUND;
+            suppressedCount++;
+            DLog.logD("activity切换，不发送前后台通知");
+        } else if (state == STATE_BACKGROUND) {
+            state = STATE_FOREGROUND;
+            foregroundCount++;
+            notifyForeground();
+        }
+    }
+
+    /**
+     * activity onStop，最后一个activity stop后开始等待
+     */
+    public void onActivityStopped() {
+        if (startedCount > 0) {
+            startedCount--;
+        }
+        if (startedCount == 0 && state == STATE_FOREGROUND) {
+            state = STATE_PENDING_BACKGROUND;
+            scheduleBackground(debounceTime);
+        }
+    }
+
+    /**
+     * 等待时间到了，仍然没有activity start才进入后台
+     */
+    void dispatchBackground() {
+        if (state != STATE_PENDING_BACKGROUND || startedCount > 0) {
+            return;
+        }
+        state = STATE_BACKGROUND;
+        backgroundCount++;
+        notifyBackground();
+    }
+
+    //以下方法在单元测试中替换，不依赖主线程Handler和消息通道
+
+    void scheduleBackground(long delay) {
+        handler.postDelayed(backgroundRunnable, delay);
+    }
+
+    void cancelBackground() {
+        handler.removeCallbacks(backgroundRunnable);
+    }
+
+    void notifyForeground() {
+        PageLifecycleManager.appForeground();
+    }
+
+    void notifyBackground() {
+        PageLifecycleManager.appBackground();
+    }
+
+    /**
+     * 设置进入后台前的等待时间，单位毫秒，默认700
+     */
+    public void setDebounceTime(long debounceTime) {
+        this.debounceTime = Math.max(0, debounceTime);
+    }
+
+    /**
+     * 当前状态，等待确认进入后台时仍然算在前台
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * 应用是否在前台
+     */
+    public boolean isForeground() {
+        return state != STATE_BACKGROUND;
+    }
+
+    public int getForegroundCount() {
+        return foregroundCount;
+    }
+
+    public int getBackgroundCount() {
+        return backgroundCount;
+    }
+
+    /**
+     * 等待时间内恢复前台，省掉的后台和前台通知对数
+     */
+    public int getSuppressedCount() {
+        return suppressedCount;
+    }
+}
@@ -0,0 +1,224 @@
+package tal.com.d_stack.lifecycle;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.embedding.engine.FlutterEngine;
+import tal.com.d_stack.DStack;
+import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 引擎空闲管理
+ * 当前节点是native页面或者节点集合为空，并且没有可见的flutter容器时进入空闲状态：
+ * 通知引擎暂停，停止帧调度；通知flutter侧停止ticker；生命周期、节点操作等非必要消息先缓存，
+ * 等flutter页面重新回到栈顶或者flutter容器重新可见时按顺序发出，应用在前台时同时通知引擎恢复
+ * 分别统计活跃和空闲状态下的时长和进程CPU时间，用来对比两种状态的耗电
+ * 只在主线程使用
+ */
+public class EngineIdleManager {
+
+    //最多缓存的消息数量，超出后丢弃最早的消息
+    private static final int MAX_HELD_MESSAGES = 64;
+
+    private final static AtomicReference<EngineIdleManager> INSTANCE = new AtomicReference<>();
+
+    private boolean idle;
+    //可见的flutter容器数量，容器onStart时加一，onStop时减一
+    private int visibleHostCount;
+    //空闲时缓存的消息，按发送顺序
+    private final List<HeldMessage> heldMessages = new ArrayList<>();
+    private int droppedMessageCount;
+
+    //当前状态开始的时间和进程CPU时间
+    private long stateStartTime = SystemClock.elapsedRealtime();
+    private long stateStartCpuTime = Process.getElapsedCpuTime();
+    private long activeTime;
+    private long activeCpuTime;
+    private long idleTime;
+    private long idleCpuTime;
+
+    public static EngineIdleManager getInstance() {
+        for (; ; ) {
+            EngineIdleManager factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new EngineIdleManager();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    /**
+     * flutter容器可见
+     */
+    public void onHostStarted() {
+        visibleHostCount++;
+        update();
+    }
+
+    /**
+     * flutter容器不可见
+     */
+    public void onHostStopped() {
+        if (visibleHostCount > 0) {
+            visibleHostCount--;
+        }
+        update();
+    }
+
+    /**
+     * 当前节点或者容器可见状态变化后，重新判断是否空闲
+     */
+    public void update() {
+        DNode currentNode = DNodeManager.getInstance().getCurrentNode();
+        boolean shouldIdle = (currentNode == null || currentNode.isNative()) && visibleHostCount == 0;
+        if (shouldIdle == idle) {
+            return;
+        }
+        recordState();
+        idle = shouldIdle;
+        if (idle) {
+            enterIdle();
+        } else {
+            exitIdle();
+        }
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * 空闲时缓存非必要消息
+     *
+     * @return 是否已经缓存，没有缓存时调用方直接发送
+     */
+    public boolean hold(String method, Map<String, Object> arguments) {
+        if (!idle) {
+            return false;
+        }
+        if (heldMessages.size() >= MAX_HELD_MESSAGES) {
+            heldMessages.remove(0);
+            droppedMessageCount++;
+        }
+        heldMessages.add(new HeldMessage(method, copy(arguments)));
+        return true;
+    }
+
+    /**
+     * 活跃状态累计时长，单位毫秒
+     */
+    public long getActiveTime() {
+        return activeTime + (idle ? 0 : SystemClock.elapsedRealtime() - stateStartTime);
+    }
+
+    /**
+     * 活跃状态累计的进程CPU时间，单位毫秒
+     */
+    public long getActiveCpuTime() {
+        return activeCpuTime + (idle ? 0 : Process.getElapsedCpuTime() - stateStartCpuTime);
+    }
+
+    /**
+     * 空闲状态累计时长，单位毫秒
+     */
+    public long getIdleTime() {
+        return idleTime + (idle ? SystemClock.elapsedRealtime() - stateStartTime : 0);
+    }
+
+    /**
+     * 空闲状态累计的进程CPU时间，单位毫秒
+     */
+    public long getIdleCpuTime() {
+        return idleCpuTime + (idle ? Process.getElapsedCpuTime() - stateStartCpuTime : 0);
+    }
+
+    /**
+     * 缓存超出上限被丢弃的消息数量
+     */
+    public int getDroppedMessageCount() {
+        return droppedMessageCount;
+    }
+
+    private void enterIdle() {
+        DLog.logD("引擎进入空闲状态");
+        FlutterEngine engine = DStack.getInstance().getFlutterEngine();
+        if (engine != null) {
+            //被盖住的容器可能还没有走到onStop，主动通知引擎暂停，停止帧调度
+            engine.getLifecycleChannel().appIsPaused();
+        }
+        DStackMethodHandler.sendIdle(true);
+    }
+
+    private void exitIdle() {
+        DLog.logD("引擎退出空闲状态，缓存消息数量：" + heldMessages.size());
+        FlutterEngine engine = DStack.getInstance().getFlutterEngine();
+        if (engine != null && AppStateMachine.getInstance().isForeground()) {
+            //和进入空闲时的appIsPaused对应，容器可能已经走过onResume，主动通知引擎恢复帧调度
+            //应用在后台时不恢复，等容器onResume时由引擎自己恢复
+            engine.getLifecycleChannel().appIsResumed();
+        }
+        DStackMethodHandler.sendIdle(false);
+        List<HeldMessage> messages = new ArrayList<>(heldMessages);
+        heldMessages.clear();
+        for (HeldMessage message : messages) {
+            DStackMethodHandler.sendHeldMessage(message.method, message.arguments);
+        }
+    }
+
+    /**
+     * 把当前状态的时长和CPU时间计入累计值
+     */
+    private void recordState() {
+        long now = SystemClock.elapsedRealtime();
+        long cpuNow = Process.getElapsedCpuTime();
+        if (idle) {
+            idleTime += now - stateStartTime;
+            idleCpuTime += cpuNow - stateStartCpuTime;
+        } else {
+            activeTime += now - stateStartTime;
+            activeCpuTime += cpuNow - stateStartCpuTime;
+        }
+        stateStartTime = now;
+        stateStartCpuTime = cpuNow;
+    }
+
+    /**
+     * 复用的消息体发送后会被修改，缓存时需要拷贝
+     */
+    private static Map<String, Object> copy(Map<String, Object> arguments) {
+        Map<String, Object> result = new HashMap<>(arguments.size());
+        for (Map.Entry<String, Object> entry : arguments.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                value = copy((Map<String, Object>) value);
+            }
+            result.put(entry.getKey(), value);
+        }
+        return result;
+    }
+
+    /**
+     * 空闲时缓存的消息
+     */
+    private static class HeldMessage {
+        final String method;
+        final Map<String, Object> arguments;
+
+        HeldMessage(String method, Map<String, Object> arguments) {
+            this.method = method;
+            this.arguments = arguments;
+        }
+    }
+}
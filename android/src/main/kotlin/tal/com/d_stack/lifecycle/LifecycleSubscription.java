@@ -0,0 +1,145 @@
+package tal.com.d_stack.lifecycle;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * flutter侧订阅的消息
+ * flutter侧注册时声明需要的消息类型：应用生命周期、页面生命周期、节点操作，以及关心的页面路由
+ * 没有订阅的消息在native侧创建消息体之前直接丢弃，并统计省下的消息数量和估算的字节数
+ * flutter侧发来订阅之前全部发送，兼容没有订阅的旧版本flutter侧
+ * 只在主线程使用
+ */
+public class LifecycleSubscription {
+
+    //消息的估算大小，按StandardMethodCodec编码方法名、key和页面类型等固定内容计算，不含路由
+    private static final int APP_MESSAGE_SIZE = 80;
+    private static final int PAGE_MESSAGE_SIZE = 130;
+    //节点操作还带有页面参数，这里不计算参数
+    private static final int OPERATION_MESSAGE_SIZE = 180;
+
+    private final static AtomicReference<LifecycleSubscription> INSTANCE = new AtomicReference<>();
+
+    private boolean appEvents = true;
+    private boolean pageEvents = true;
+    private boolean nodeOperations = true;
+    //关心的页面路由，null表示所有路由
+    private Set<String> pageRoutes;
+
+    private int suppressedAppCount;
+    private int suppressedPageCount;
+    private int suppressedOperationCount;
+    private long suppressedBytes;
+
+    public static LifecycleSubscription getInstance() {
+        for (; ; ) {
+            LifecycleSubscription factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new LifecycleSubscription();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    /**
+     * 更新flutter侧的订阅
+     */
+    public void update(Map<String, Object> args) {
+        if (args == null) {
+            return;
+        }
+        appEvents = !Boolean.FALSE.equals(args.get("app"));
+        pageEvents = !Boolean.FALSE.equals(args.get("page"));
+        nodeOperations = !Boolean.FALSE.equals(args.get("nodeOperation"));
+        Object routes = args.get("routes");
+        if (routes instanceof List) {
+            pageRoutes = new HashSet<>();
+            for (Object route : (List<?>) routes) {
+                if (route instanceof String) {
+                    pageRoutes.add((String) route);
+                }
+            }
+        } else {
+            pageRoutes = null;
+        }
+        DLog.logD("flutter侧订阅，应用生命周期：" + appEvents + "，页面生命周期：" + pageEvents
+                + "，节点操作：" + nodeOperations + "，路由：" + pageRoutes);
+    }
+
+    /**
+     * 是否发送应用生命周期，不发送时计入统计
+     */
+    boolean acceptApp(String currentRoute) {
+        if (appEvents) {
+            return true;
+        }
+        suppressedAppCount++;
+        suppressedBytes += APP_MESSAGE_SIZE + routeSize(currentRoute);
+        return false;
+    }
+
+    /**
+     * 是否发送页面生命周期，出现或消失的页面有一个是关心的路由就发送，不发送时计入统计
+     */
+    boolean acceptPage(String appearRoute, String disappearRoute) {
+        if (pageEvents && (pageRoutes == null
+                || pageRoutes.contains(appearRoute) || pageRoutes.contains(disappearRoute))) {
+            return true;
+        }
+        suppressedPageCount++;
+        suppressedBytes += PAGE_MESSAGE_SIZE + routeSize(appearRoute) + routeSize(disappearRoute);
+        return false;
+    }
+
+    /**
+     * 是否发送节点操作，不发送时计入统计
+     */
+    public boolean acceptNodeOperation(String target) {
+        if (nodeOperations) {
+            return true;
+        }
+        suppressedOperationCount++;
+        suppressedBytes += OPERATION_MESSAGE_SIZE + routeSize(target);
+        return false;
+    }
+
+    /**
+     * 没有发送的应用生命周期消息数量
+     */
+    public int getSuppressedAppCount() {
+        return suppressedAppCount;
+    }
+
+    /**
+     * 没有发送的页面生命周期消息数量
+     */
+    public int getSuppressedPageCount() {
+        return suppressedPageCount;
+    }
+
+    /**
+     * 没有发送的节点操作消息数量
+     */
+    public int getSuppressedOperationCount() {
+        return suppressedOperationCount;
+    }
+
+    /**
+     * 没有发送的消息估算的字节数
+     */
+    public long getSuppressedBytes() {
+        return suppressedBytes;
+    }
+
+    private static int routeSize(String route) {
+        return route == null ? 0 : route.length();
+    }
+}
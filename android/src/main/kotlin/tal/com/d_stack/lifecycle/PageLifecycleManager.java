@@ -15,20 +15,34 @@ import tal.com.d_stack.utils.DLog;
  */
 public class PageLifecycleManager {
 
+    //复用的页面状态信息，生命周期只在主线程分发，消息发送时会立即编码，发送后即可复用
+    private static final PageModel PAGE_MODEL = new PageModel();
+
+    /**
+     * 获取清空后的页面状态信息
+     */
+    private static PageModel obtainPageModel() {
+        PAGE_MODEL.reset();
+        return PAGE_MODEL;
+    }
+
     /**
      * app启动
      */
     public static void appCreate() {
         DLog.logD("appCreate");
-        PageModel pageModel = new PageModel();
-        pageModel.setState(PageState.APP_CREATE);
         DNode node = DNodeManager.getInstance().getCurrentNode();
+        if (!LifecycleSubscription.getInstance().acceptApp(node == null ? "/" : node.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setState(PageState.APP_CREATE);
         if (node == null) {
             pageModel.setCurrentPageRoute("/");
-            pageModel.setCurrentPageType(DNodePageType.DNodePageTypeFlutter);
+            pageModel.setCurrentPageType(DNodePageType.FLUTTER);
         } else {
             pageModel.setCurrentPageRoute(node.getTarget());
-            pageModel.setCurrentPageType(DNodePageType.DNodePageTypeNative);
+            pageModel.setCurrentPageType(DNodePageType.NATIVE);
         }
         DStackMethodHandler.sendAppLifeCircle(pageModel);
     }
@@ -38,15 +52,18 @@ public class PageLifecycleManager {
      */
     public static void appForeground() {
         DLog.logD("appForeground");
-        PageModel pageModel = new PageModel();
-        pageModel.setState(PageState.APP_FOREGROUND);
         DNode node = DNodeManager.getInstance().getCurrentNode();
+        if (!LifecycleSubscription.getInstance().acceptApp(node == null ? "/" : node.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setState(PageState.APP_FOREGROUND);
         if (node == null) {
             pageModel.setCurrentPageRoute("/");
-            pageModel.setCurrentPageType(DNodePageType.DNodePageTypeFlutter);
+            pageModel.setCurrentPageType(DNodePageType.FLUTTER);
         } else {
             pageModel.setCurrentPageRoute(node.getTarget());
-            pageModel.setCurrentPageType(node.getPageType());
+            pageModel.setCurrentPageType(node.getPageTypeCode());
         }
         DStackMethodHandler.sendAppLifeCircle(pageModel);
     }
@@ -56,15 +73,18 @@ public class PageLifecycleManager {
      */
     public static void appBackground() {
         DLog.logD("appBackground");
-        PageModel pageModel = new PageModel();
-        pageModel.setState(PageState.APP_BACKGROUND);
         DNode node = DNodeManager.getInstance().getCurrentNode();
+        if (!LifecycleSubscription.getInstance().acceptApp(node == null ? "/" : node.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setState(PageState.APP_BACKGROUND);
         if (node == null) {
             pageModel.setCurrentPageRoute("/");
-            pageModel.setCurrentPageType(DNodePageType.DNodePageTypeFlutter);
+            pageModel.setCurrentPageType(DNodePageType.FLUTTER);
         } else {
             pageModel.setCurrentPageRoute(node.getTarget());
-            pageModel.setCurrentPageType(node.getPageType());
+            pageModel.setCurrentPageType(node.getPageTypeCode());
         }
         DStackMethodHandler.sendAppLifeCircle(pageModel);
     }
@@ -77,20 +97,24 @@ public class PageLifecycleManager {
         if (node == null) {
             return;
         }
-        PageModel pageModel = new PageModel();
-        pageModel.setActionType(DNodeActionType.DNodeActionTypePush);
-        pageModel.setCurrentPageType(node.getPageType());
-        pageModel.setCurrentPageRoute(node.getTarget());
         List<DNode> nodeList = DNodeManager.getInstance().getNodeList();
         DNode secondLastNode = null;
         if (nodeList.size() >= 2) {
             secondLastNode = nodeList.get(nodeList.size() - 2);
         }
+        if (!LifecycleSubscription.getInstance().acceptPage(node.getTarget(),
+                secondLastNode == null ? "/" : secondLastNode.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setActionType(DNodeActionType.PUSH);
+        pageModel.setCurrentPageType(node.getPageTypeCode());
+        pageModel.setCurrentPageRoute(node.getTarget());
         if (secondLastNode == null) {
-            pageModel.setPrePageType(DNodePageType.DNodePageTypeFlutter);
+            pageModel.setPrePageType(DNodePageType.FLUTTER);
             pageModel.setPrePageRoute("/");
         } else {
-            pageModel.setPrePageType(secondLastNode.getPageType());
+            pageModel.setPrePageType(secondLastNode.getPageTypeCode());
             pageModel.setPrePageRoute(secondLastNode.getTarget());
         }
 
@@ -105,20 +129,24 @@ public class PageLifecycleManager {
         if (node == null) {
             return;
         }
-        PageModel pageModel = new PageModel();
-        pageModel.setActionType(DNodeActionType.DNodeActionTypePop);
-        pageModel.setPrePageType(node.getPageType());
-        pageModel.setPrePageRoute(node.getTarget());
         List<DNode> nodeList = DNodeManager.getInstance().getNodeList();
         DNode currentNode = null;
         if (nodeList.size() > 0) {
             currentNode = nodeList.get(nodeList.size() - 1);
         }
+        if (!LifecycleSubscription.getInstance().acceptPage(
+                currentNode == null ? "/" : currentNode.getTarget(), node.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setActionType(DNodeActionType.POP);
+        pageModel.setPrePageType(node.getPageTypeCode());
+        pageModel.setPrePageRoute(node.getTarget());
         if (currentNode == null) {
-            pageModel.setCurrentPageType(DNodePageType.DNodePageTypeFlutter);
+            pageModel.setCurrentPageType(DNodePageType.FLUTTER);
             pageModel.setCurrentPageRoute("/");
         } else {
-            pageModel.setCurrentPageType(currentNode.getPageType());
+            pageModel.setCurrentPageType(currentNode.getPageTypeCode());
             pageModel.setCurrentPageRoute(currentNode.getTarget());
         }
         DStackMethodHandler.sendPageLifeCircle(pageModel);
@@ -132,11 +160,14 @@ public class PageLifecycleManager {
         if (preNode == null || currentNode == null) {
             return;
         }
-        PageModel pageModel = new PageModel();
-        pageModel.setActionType(DNodeActionType.DNodeActionTypePush);
-        pageModel.setCurrentPageType(currentNode.getPageType());
+        if (!LifecycleSubscription.getInstance().acceptPage(currentNode.getTarget(), preNode.getTarget())) {
+            return;
+        }
+        PageModel pageModel = obtainPageModel();
+        pageModel.setActionType(DNodeActionType.PUSH);
+        pageModel.setCurrentPageType(currentNode.getPageTypeCode());
         pageModel.setCurrentPageRoute(currentNode.getTarget());
-        pageModel.setPrePageType(preNode.getPageType());
+        pageModel.setPrePageType(preNode.getPageTypeCode());
         pageModel.setPrePageRoute(preNode.getTarget());
         DStackMethodHandler.sendPageLifeCircle(pageModel);
     }
@@ -1,5 +1,7 @@
 package tal.com.d_stack.lifecycle;
 
+import tal.com.d_stack.node.constants.DNodeActionType;
+import tal.com.d_stack.node.constants.DNodePageType;
 
 /**
  * 页面状态信息
@@ -10,15 +12,27 @@ public class PageModel {
     private String currentPageRoute;
     // 前一个展示的页面路由，可能为null
     private String prePageRoute;
-    // 页面类型：Flutter/Native
-    private String currentPageType;
-    // 页面类型：Flutter/Native
-    private String prePageType;
-    // 操作类型：push/pop
-    private String actionType;
+    // 页面类型：DNodePageType中的int类型
+    private int currentPageType;
+    // 页面类型：DNodePageType中的int类型
+    private int prePageType;
+    // 操作类型：DNodeActionType中的int类型
+    private int actionType;
     // 应用状态 0:应用启动 1:前台 2:后台 3:应用杀死
     private int state = 0;
 
+    /**
+     * 清空页面状态信息，PageModel会被复用
+     */
+    public void reset() {
+        currentPageRoute = null;
+        prePageRoute = null;
+        currentPageType = DNodePageType.UNKNOWN;
+        prePageType = DNodePageType.UNKNOWN;
+        actionType = DNodeActionType.UNKNOWN;
+        state = 0;
+    }
+
     public String getCurrentPageRoute() {
         return currentPageRoute;
     }
@@ -35,27 +49,27 @@ public class PageModel {
         this.prePageRoute = prePageRoute;
     }
 
-    public String getCurrentPageType() {
+    public int getCurrentPageType() {
         return currentPageType;
     }
 
-    public void setCurrentPageType(String currentPageType) {
+    public void setCurrentPageType(int currentPageType) {
         this.currentPageType = currentPageType;
     }
 
-    public String getPrePageType() {
+    public int getPrePageType() {
         return prePageType;
     }
 
-    public void setPrePageType(String prePageType) {
+    public void setPrePageType(int prePageType) {
         this.prePageType = prePageType;
     }
 
-    public String getActionType() {
+    public int getActionType() {
         return actionType;
     }
 
-    public void setActionType(String actionType) {
+    public void setActionType(int actionType) {
         this.actionType = actionType;
     }
 
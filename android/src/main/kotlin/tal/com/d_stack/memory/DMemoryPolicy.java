@@ -0,0 +1,156 @@
+package tal.com.d_stack.memory;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.embedding.android.DFlutterPageDelegate;
+import io.flutter.plugin.common.MethodChannel;
+import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.node.DNodeSnapshotCache;
+import tal.com.d_stack.observer.DStackActivityManager;
+import tal.com.d_stack.router.IMemoryTrimListener;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 内存分级回收
+ * 根据onTrimMemory的级别，结合节点栈里哪些flutter页面被native页面盖住、哪些容器已经解绑引擎，分级释放内存
+ * TIER_LIGHT：清理flutter侧图片缓存中没有在使用的图片
+ * TIER_MEDIUM：被native页面盖住的flutter页面休眠，释放已解绑容器的渲染surface和预测性返回的页面截图，清理所有图片缓存
+ * TIER_HEAVY：当前页面以外的flutter页面全部休眠
+ * 每级回收的字节数累计记录，并通过监听回调，flutter侧的字节数在flutter回复后计入
+ * 只在主线程使用
+ */
+public class DMemoryPolicy {
+
+    public static final int TIER_NONE = 0;
+    public static final int TIER_LIGHT = 1;
+    public static final int TIER_MEDIUM = 2;
+    public static final int TIER_HEAVY = 3;
+
+    private final static AtomicReference<DMemoryPolicy> INSTANCE = new AtomicReference<>();
+
+    //每级累计回收的字节数，下标是级别
+    private final long[] reclaimedBytes = new long[TIER_HEAVY + 1];
+    private IMemoryTrimListener trimListener;
+
+    public static DMemoryPolicy getInstance() {
+        for (; ; ) {
+            DMemoryPolicy factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DMemoryPolicy();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    /**
+     * 由绑定引擎的flutter容器在onTrimMemory时调用
+     */
+    public void onTrimMemory(int level) {
+        int tier = tierOf(level);
+        if (tier == TIER_NONE) {
+            return;
+        }
+        DLog.logD("内存分级回收，level：" + level + "，tier：" + tier);
+        long nativeBytes = 0;
+        if (tier >= TIER_MEDIUM) {
+            DNodeManager.getInstance().trimFlutterNodes(tier == TIER_MEDIUM);
+            nativeBytes += releaseDetachedSurfaces();
+            nativeBytes += releaseSnapshots();
+        }
+        trimFlutter(tier, nativeBytes);
+    }
+
+    /**
+     * 每级累计回收的字节数
+     */
+    public long getReclaimedBytes(int tier) {
+        if (tier < TIER_LIGHT || tier > TIER_HEAVY) {
+            return 0;
+        }
+        return reclaimedBytes[tier];
+    }
+
+    public void setTrimListener(IMemoryTrimListener trimListener) {
+        this.trimListener = trimListener;
+    }
+
+    /**
+     * trim级别对应的回收级别
+     */
+    static int tierOf(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return TIER_HEAVY;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_MEDIUM;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_LIGHT;
+        }
+        return TIER_NONE;
+    }
+
+    /**
+     * 释放已解绑引擎的容器的渲染surface
+     */
+    private long releaseDetachedSurfaces() {
+        List<DFlutterPageDelegate.Host> hosts = DStackActivityManager.getInstance().getHosts();
+        long bytes = 0;
+        if (hosts == null) {
+            return bytes;
+        }
+        for (DFlutterPageDelegate.Host host : hosts) {
+            bytes += host.releaseDetachedSurface();
+        }
+        return bytes;
+    }
+
+    /**
+     * 释放预测性返回的页面截图，截图释放后返回手势不显示预览
+     */
+    private long releaseSnapshots() {
+        DNodeSnapshotCache snapshotCache = DNodeManager.getInstance().getSnapshotCache();
+        long bytes = snapshotCache.getBytes();
+        snapshotCache.clear();
+        return bytes;
+    }
+
+    /**
+     * 通知flutter侧清理图片缓存，flutter侧回复释放的字节数后一起记录
+     */
+    private void trimFlutter(final int tier, final long nativeBytes) {
+        DStackMethodHandler.sendMemoryTrim(tier, new MethodChannel.Result() {
+            @Override
+            public void success(Object result) {
+                long flutterBytes = result instanceof Number ? ((Number) result).longValue() : 0;
+                report(tier, nativeBytes + flutterBytes);
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                report(tier, nativeBytes);
+            }
+
+            @Override
+            public void notImplemented() {
+                report(tier, nativeBytes);
+            }
+        });
+    }
+
+    private void report(int tier, long bytes) {
+        reclaimedBytes[tier] += bytes;
+        DLog.logD("内存分级回收完成，tier：" + tier + "，回收字节数：" + bytes);
+        if (trimListener != null) {
+            trimListener.onMemoryTrimmed(tier, bytes);
+        }
+    }
+}
@@ -3,9 +3,9 @@ package tal.com.d_stack.node;
 import android.app.Activity;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 import java.util.Map;
 
+import tal.com.d_stack.node.constants.DNodeActionType;
 import tal.com.d_stack.node.constants.DNodePageType;
 
 /**
@@ -13,25 +13,34 @@ import tal.com.d_stack.node.constants.DNodePageType;
  */
 public class DNode {
 
-    // 页面跳转类型
-    private String action;
+    //还没有绑定activity时的task id
+    public static final int NO_TASK = -1;
 
-    // 页面类型
-    private String pageType;
+    // 页面跳转类型，DNodeActionType中的int类型
+    private int action;
+
+    // 页面类型，DNodePageType中的int类型
+    private int pageType;
 
     // 页面唯一标识
     // flutter页面时，是route，native唯一id
     private String target;
 
-    // 附带参数
+    // 附带参数，节点在节点集合中时保存在paramStore里，这里为null
     private Map<String, Object> params;
 
+    // 节点在节点集合中时，参数所在的存储
+    private DNodeParamStore paramStore;
+
     // 是否来自flutter消息通道的node
     private boolean fromFlutter;
 
     // 节点对应的activity
     private WeakReference<Activity> activity;
 
+    // 节点所在的task，绑定activity时记录，activity被回收后仍然保留
+    private int taskId = NO_TASK;
+
     // 是否正在执行popTo，popToRoot，popToSkip方法
     private boolean popTo;
 
@@ -47,10 +56,17 @@ public class DNode {
     //是否开启转场动画
     private boolean animated;
 
-    //页面唯一标识
+    //页面唯一标识，为null时使用id的字符串形式，第一次读取时生成
     private String identifier;
 
+    //节点id，进程内单调递增，用于节点索引
+    private long id;
+
+    //flutter页面是否休眠，休眠的页面在flutter侧释放了页面内容，节点仍然正常保留
+    private boolean dormant;
+
     public DNode(Builder builder) {
+        this.id = DNodeIdService.nextId();
         this.action = builder.action;
         this.pageType = builder.pageType;
         this.target = builder.target;
@@ -59,26 +75,56 @@ public class DNode {
         this.boundary = builder.boundary;
         this.animated = builder.animated;
         this.fromFlutter = builder.fromFlutter;
-        this.activity = builder.activity;
+        setActivity(builder.activity);
         this.popTo = builder.popTo;
         this.rootPage = builder.rootPage;
         this.identifier = builder.identifier;
     }
 
     public String getIdentifier() {
+        if (identifier == null) {
+            identifier = DNodeIdService.toIdentifier(id);
+        }
         return identifier;
     }
 
+    /**
+     * 原始页面唯一标识，使用id作为标识且还没有生成字符串时为null
+     */
+    String rawIdentifier() {
+        return identifier;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 消息节点指向节点集合中的节点时，复制其id
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public void setIdentifier(String identifier) {
         this.identifier = identifier;
     }
 
+    /**
+     * 复制另一个节点的id和标识，标识还没有生成字符串时也不在这里生成
+     */
+    public void copyIdentity(DNode node) {
+        this.id = node.id;
+        this.identifier = node.identifier;
+    }
+
 
     public static class Builder {
-        private String action = "";
-        private String pageType = "";
+        private int action = DNodeActionType.UNKNOWN;
+        private int pageType = DNodePageType.UNKNOWN;
         private String target = "";
-        private Map<String, Object> params = new HashMap<>();
+        //默认没有参数，不为每个节点分配空的HashMap
+        private Map<String, Object> params = null;
         private boolean homePage = false;
         private boolean boundary = false;
         private boolean animated = false;
@@ -88,16 +134,26 @@ public class DNode {
         private boolean rootPage = false;
         private String identifier = "";
 
-        public Builder action(String action) {
+        public Builder action(int action) {
             this.action = action;
             return this;
         }
 
-        public Builder pageType(String pageType) {
+        public Builder action(String action) {
+            this.action = DNodeActionType.toCode(action);
+            return this;
+        }
+
+        public Builder pageType(int pageType) {
             this.pageType = pageType;
             return this;
         }
 
+        public Builder pageType(String pageType) {
+            this.pageType = DNodePageType.toCode(pageType);
+            return this;
+        }
+
         public Builder target(String target) {
             this.target = target;
             return this;
@@ -148,6 +204,14 @@ public class DNode {
             return this;
         }
 
+        /**
+         * 使用节点id作为页面唯一标识，native页面使用
+         */
+        public Builder idAsIdentifier() {
+            this.identifier = null;
+            return this;
+        }
+
         public DNode build() {
             return new DNode(this);
         }
@@ -170,27 +234,94 @@ public class DNode {
         this.fromFlutter = fromFlutter;
     }
 
+    /**
+     * 获取参数
+     * 节点在节点集合中时返回参数存储里的当前快照：参数可能被转存再解码成新的对象，
+     * 不要持有返回的map并在之后修改，修改参数使用setParams
+     */
     public Map<String, Object> getParams() {
+        if (paramStore != null) {
+            return paramStore.get(id);
+        }
+        return params;
+    }
+
+    /**
+     * 只读参数，已转存的参数不会解码回参数存储，也不影响参数的冷热
+     */
+    Map<String, Object> peekParams() {
+        if (paramStore != null) {
+            return paramStore.peek(id);
+        }
         return params;
     }
 
     public void setParams(Map<String, Object> params) {
+        if (paramStore != null) {
+            paramStore.put(id, params);
+            return;
+        }
         this.params = params;
     }
 
+    /**
+     * 节点入栈时把参数移到参数存储
+     */
+    void attachParamStore(DNodeParamStore store) {
+        if (paramStore != null) {
+            return;
+        }
+        store.put(id, params);
+        params = null;
+        paramStore = store;
+    }
+
+    /**
+     * 节点出栈时从参数存储取回参数，存储里的记录立即释放
+     */
+    void detachParamStore() {
+        if (paramStore == null) {
+            return;
+        }
+        params = paramStore.remove(id);
+        paramStore = null;
+    }
+
+    /**
+     * 获取字符串类型的跳转类型，用于消息通道和对外接口
+     */
     public String getAction() {
-        return action;
+        return DNodeActionType.toName(action);
     }
 
     public void setAction(String action) {
+        this.action = DNodeActionType.toCode(action);
+    }
+
+    public int getActionCode() {
+        return action;
+    }
+
+    public void setAction(int action) {
         this.action = action;
     }
 
+    /**
+     * 获取字符串类型的页面类型，用于消息通道和对外接口
+     */
     public String getPageType() {
-        return pageType;
+        return DNodePageType.toName(pageType);
     }
 
     public void setPageType(String pageType) {
+        this.pageType = DNodePageType.toCode(pageType);
+    }
+
+    public int getPageTypeCode() {
+        return pageType;
+    }
+
+    public void setPageType(int pageType) {
         this.pageType = pageType;
     }
 
@@ -200,6 +331,14 @@ public class DNode {
 
     public void setActivity(WeakReference<Activity> activity) {
         this.activity = activity;
+        Activity taskActivity = activity == null ? null : activity.get();
+        if (taskActivity != null) {
+            taskId = taskActivity.getTaskId();
+        }
+    }
+
+    public int getTaskId() {
+        return taskId;
     }
 
     public boolean isPopTo() {
@@ -242,29 +381,39 @@ public class DNode {
         this.animated = animated;
     }
 
+    public boolean isDormant() {
+        return dormant;
+    }
+
+    public void setDormant(boolean dormant) {
+        this.dormant = dormant;
+    }
+
     public boolean isNative() {
-        return getPageType().equals(DNodePageType.DNodePageTypeNative);
+        return pageType == DNodePageType.NATIVE;
     }
 
     public boolean isFlutter() {
-        return getPageType().equals(DNodePageType.DNodePageTypeFlutter);
+        return pageType == DNodePageType.FLUTTER;
     }
 
     @Override
     public String toString() {
         return "DNode{" +
-                "action='" + action + '\'' +
-                ", pageType='" + pageType + '\'' +
+                "action='" + getAction() + '\'' +
+                ", pageType='" + getPageType() + '\'' +
                 ", target='" + target + '\'' +
-                ", params=" + params + '\'' +
+                ", params=" + getParams() + '\'' +
                 ", fromFlutter=" + fromFlutter + '\'' +
                 ", activity=" + activity + '\'' +
+                ", taskId=" + taskId + '\'' +
                 ", popTo=" + popTo + '\'' +
                 ", homePage=" + homePage + '\'' +
                 ", rootPage=" + rootPage + '\'' +
                 ", boundary=" + boundary + '\'' +
                 ", animated=" + animated + '\'' +
-                ", identifier='" + identifier + '\'' +
+                ", identifier='" + getIdentifier() + '\'' +
+                ", id=" + id +
                 '}';
     }
 }
\ No newline at end of file
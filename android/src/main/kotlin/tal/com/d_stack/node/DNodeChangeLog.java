@@ -0,0 +1,194 @@
+package tal.com.d_stack.node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 节点栈变更记录
+ * 节点集合每变化一次，版本号加一并记录一条变更
+ * flutter侧带上已同步的版本号，只需要拉取该版本之后的变更
+ * 写入只发生在主线程，读取可以在后台线程，所有方法都加锁
+ * 变更记录是预先分配的环形数组，记录变更时不分配对象，只在查询时生成消息
+ */
+public class DNodeChangeLog {
+
+    // 节点入栈
+    public static final String CHANGE_ADD = "add";
+    // 节点出栈
+    public static final String CHANGE_REMOVE = "remove";
+    // 节点信息更新
+    public static final String CHANGE_UPDATE = "update";
+    // 节点集合清空
+    public static final String CHANGE_CLEAR = "clear";
+
+    //最多保留的变更条数，超出后被裁剪的版本只能全量同步
+    private static final int MAX_CHANGE_SIZE = 64;
+
+    //当前节点栈版本号
+    private long version = 0;
+    //变更记录环形数组，版本号为v的变更保存在v % MAX_CHANGE_SIZE位置
+    private final Change[] changes = new Change[MAX_CHANGE_SIZE];
+    //环形数组中保存的变更条数
+    private int changeCount = 0;
+    //节点栈快照，只保存route和pageType，供后台线程读取
+    private final List<String> snapshotRoutes = new ArrayList<>();
+    private final List<String> snapshotPageTypes = new ArrayList<>();
+
+    public DNodeChangeLog() {
+        for (int i = 0; i < MAX_CHANGE_SIZE; i++) {
+            changes[i] = new Change();
+        }
+    }
+
+    /**
+     * 获取当前节点栈版本号
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * 记录节点入栈
+     */
+    public synchronized void add(int index, DNode node) {
+        record(CHANGE_ADD, index, node);
+    }
+
+    /**
+     * 记录节点出栈
+     */
+    public synchronized void remove(int index) {
+        record(CHANGE_REMOVE, index, null);
+    }
+
+    /**
+     * 记录节点信息更新，比如replace
+     */
+    public synchronized void update(int index, DNode node) {
+        record(CHANGE_UPDATE, index, node);
+    }
+
+    /**
+     * 记录节点集合清空
+     */
+    public synchronized void clear() {
+        record(CHANGE_CLEAR, -1, null);
+    }
+
+    /**
+     * 获取指定版本之后的所有变更
+     * 如果该版本之后的变更已经被裁剪，或者版本号未知，返回null，需要全量同步
+     */
+    public synchronized List<Map<String, Object>> changesSince(long sinceVersion) {
+        if (sinceVersion < 0 || sinceVersion > version) {
+            return null;
+        }
+        int count = (int) (version - sinceVersion);
+        if (count > changeCount) {
+            return null;
+        }
+        List<Map<String, Object>> result = new ArrayList<>(count);
+        for (long v = sinceVersion + 1; v <= version; v++) {
+            result.add(changes[(int) (v % MAX_CHANGE_SIZE)].toMap());
+        }
+        return result;
+    }
+
+    /**
+     * 获取全量节点列表的拷贝
+     */
+    public synchronized List<Map<String, Object>> snapshot() {
+        int size = snapshotRoutes.size();
+        List<Map<String, Object>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> map = new HashMap<>(4);
+            map.put("route", snapshotRoutes.get(i));
+            map.put("pageType", snapshotPageTypes.get(i));
+            result.add(map);
+        }
+        return result;
+    }
+
+    /**
+     * 生成给flutter侧的同步结果，版本号和变更在同一把锁内读取，保证一致
+     * 变更记录已被裁剪时返回全量节点列表
+     */
+    public synchronized Map<String, Object> syncSince(long sinceVersion) {
+        Map<String, Object> result = new HashMap<>();
+        List<Map<String, Object>> newChanges = changesSince(sinceVersion);
+        result.put("version", version);
+        if (newChanges == null) {
+            result.put("full", true);
+            result.put("nodes", snapshot());
+        } else {
+            result.put("full", false);
+            result.put("changes", newChanges);
+        }
+        return result;
+    }
+
+    private void record(String type, int index, DNode node) {
+        version++;
+        Change change = changes[(int) (version % MAX_CHANGE_SIZE)];
+        change.version = version;
+        change.type = type;
+        change.index = index;
+        change.route = node != null ? node.getTarget() : null;
+        change.pageType = node != null ? node.getPageType() : null;
+        if (changeCount < MAX_CHANGE_SIZE) {
+            changeCount++;
+        }
+        applyToSnapshot(change);
+    }
+
+    /**
+     * 把变更同步到节点栈快照
+     */
+    private void applyToSnapshot(Change change) {
+        switch (change.type) {
+            case CHANGE_ADD:
+                snapshotRoutes.add(change.index, change.route);
+                snapshotPageTypes.add(change.index, change.pageType);
+                break;
+            case CHANGE_REMOVE:
+                snapshotRoutes.remove(change.index);
+                snapshotPageTypes.remove(change.index);
+                break;
+            case CHANGE_UPDATE:
+                snapshotRoutes.set(change.index, change.route);
+                snapshotPageTypes.set(change.index, change.pageType);
+                break;
+            case CHANGE_CLEAR:
+                snapshotRoutes.clear();
+                snapshotPageTypes.clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 单条变更信息
+     */
+    private static class Change {
+        long version;
+        String type;
+        int index;
+        String route;
+        String pageType;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("version", version);
+            map.put("type", type);
+            map.put("index", index);
+            if (route != null) {
+                map.put("route", route);
+                map.put("pageType", pageType);
+            }
+            return map;
+        }
+    }
+}
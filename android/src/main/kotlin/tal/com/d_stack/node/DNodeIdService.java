@@ -0,0 +1,69 @@
+package tal.com.d_stack.node;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点id服务
+ * 分配单调递增的long类型id，进程内不会重复
+ * native页面的唯一标识就是id的字符串形式，只在第一次发给flutter或者对外暴露时才生成字符串
+ */
+public class DNodeIdService {
+
+    //无效id，索引中用来表示空位
+    public static final long NO_ID = 0;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(NO_ID);
+
+    /**
+     * 获取一个新的节点id
+     */
+    public static long nextId() {
+        return NEXT_ID.incrementAndGet();
+    }
+
+    /**
+     * 恢复节点后调用，保证之后分配的id比恢复的id大
+     */
+    public static void ensureAbove(long id) {
+        for (; ; ) {
+            long current = NEXT_ID.get();
+            if (current >= id || NEXT_ID.compareAndSet(current, id)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * id转换为页面唯一标识
+     */
+    public static String toIdentifier(long id) {
+        return Long.toString(id);
+    }
+
+    /**
+     * 页面唯一标识转换为id
+     * 只有native分配的标识可以转换，flutter侧生成的标识返回NO_ID
+     */
+    public static long parseId(String identifier) {
+        if (identifier == null) {
+            return NO_ID;
+        }
+        int length = identifier.length();
+        //long最多19位，第一位不能是0
+        if (length == 0 || length > 19 || identifier.charAt(0) == '0') {
+            return NO_ID;
+        }
+        long id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = identifier.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_ID;
+            }
+            id = id * 10 + (c - '0');
+            if (id < 0) {
+                return NO_ID;
+            }
+        }
+        return id <= NEXT_ID.get() ? id : NO_ID;
+    }
+}
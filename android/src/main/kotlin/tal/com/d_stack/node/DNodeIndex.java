@@ -0,0 +1,131 @@
+package tal.com.d_stack.node;
+
+/**
+ * 节点id到节点的索引
+ * 开放寻址、线性探测的哈希表，key是long类型，查找时没有装箱和字符串比较
+ * 只在主线程使用
+ */
+class DNodeIndex {
+
+    //初始容量，必须是2的幂
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private long[] keys = new long[DEFAULT_CAPACITY];
+    private DNode[] values = new DNode[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    /**
+     * 添加节点，id已存在时覆盖
+     */
+    void put(long id, DNode node) {
+        if (id == DNodeIdService.NO_ID) {
+            return;
+        }
+        //负载超过一半时扩容
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int index = hash(id) & mask;
+        while (keys[index] != DNodeIdService.NO_ID) {
+            if (keys[index] == id) {
+                values[index] = node;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = id;
+        values[index] = node;
+        size++;
+    }
+
+    /**
+     * 根据id查找节点，找不到时返回null
+     */
+    DNode get(long id) {
+        if (id == DNodeIdService.NO_ID) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int index = hash(id) & mask;
+        while (keys[index] != DNodeIdService.NO_ID) {
+            if (keys[index] == id) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * 移除节点
+     * 移除后把同一探测链上后面的元素往前移，不需要墓碑标记
+     */
+    void remove(long id) {
+        if (id == DNodeIdService.NO_ID) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int index = hash(id) & mask;
+        while (keys[index] != id) {
+            if (keys[index] == DNodeIdService.NO_ID) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        int next = (index + 1) & mask;
+        while (keys[next] != DNodeIdService.NO_ID) {
+            int home = hash(keys[next]) & mask;
+            //next的理想位置不在(index, next]区间内，说明可以移到index位置
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[index] = DNodeIdService.NO_ID;
+        values[index] = null;
+        size--;
+    }
+
+    void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DNodeIdService.NO_ID;
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 哈希表容量，测试探测链时使用
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        DNode[] oldValues = values;
+        keys = new long[capacity];
+        values = new DNode[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != DNodeIdService.NO_ID) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * 打散连续的id，避免线性探测时聚集
+     */
+    static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,713 @@
+package tal.com.d_stack.node;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 节点栈日志
+ * 节点集合的每一次变化都追加写入内存映射的日志文件，日志写满或者条数过多时合并成快照
+ * 进程在后台被系统杀死后，根据快照和日志恢复节点集合
+ * 记录在主线程生成，编码和写文件都在日志线程，不阻塞页面跳转
+ * 记录对象从对象池取出，日志线程用完后放回，节点变化时主线程不创建记录和Runnable
+ * 进程被杀死时内存映射的内容仍由系统写回文件，不需要每次都刷盘
+ */
+public class DNodeJournal {
+
+    static final String DIR_NAME = "d_stack";
+    private static final String JOURNAL_NAME = "node_journal";
+    private static final String SNAPSHOT_NAME = "node_snapshot";
+
+    private static final int MAGIC = 0x44534A31;
+    //日志文件大小
+    private static final int JOURNAL_SIZE = 256 * 1024;
+    //日志头：magic + generation
+    private static final int HEADER_SIZE = 12;
+    //超过这个条数就合并成快照
+    private static final int MAX_RECORD_COUNT = 512;
+    //参数序列化后超过这个长度就不保存
+    private static final int MAX_PARAMS_LENGTH = 16 * 1024;
+    //对象池最多保留的空闲记录数
+    private static final int MAX_POOL_SIZE = 32;
+
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final byte TYPE_UPDATE = 3;
+    private static final byte TYPE_CLEAR = 4;
+
+    private static final int FLAG_HOME_PAGE = 1;
+    private static final int FLAG_ROOT_PAGE = 1 << 1;
+    private static final int FLAG_BOUNDARY = 1 << 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File journalFile;
+    private File snapshotFile;
+    private Handler handler;
+    //上次进程保存的节点记录，日志线程和主线程谁先用到谁读取，读取时加锁
+    private List<Record> lastRecords;
+    private long lastGeneration;
+    //是否还可以恢复上次的记录，开始新会话或者恢复过一次之后为false，只在主线程访问
+    private boolean restorable = true;
+
+    //空闲记录对象池，主线程取出，日志线程放回，访问时对pool加锁
+    private final ArrayDeque<Record> pool = new ArrayDeque<>(MAX_POOL_SIZE);
+    //等待日志线程写入的记录，访问时对pending加锁
+    private final ArrayDeque<Record> pending = new ArrayDeque<>();
+    //是否已经post了drainRunnable，访问时对pending加锁
+    private boolean drainPosted;
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    //以下字段只在日志线程访问
+    private MappedByteBuffer journal;
+    private long generation;
+    private int recordCount;
+    //和节点集合同步的记录，用于合并快照
+    private final List<Record> records = new ArrayList<>();
+
+    /**
+     * 打开日志，启动日志线程
+     */
+    public void open(Context context) {
+        if (handler != null || context == null) {
+            return;
+        }
+        File dir = new File(context.getFilesDir(), DIR_NAME);
+        if (!dir.exists() && !dir.mkdirs()) {
+            DLog.logE("节点日志目录创建失败");
+            return;
+        }
+        journalFile = new File(dir, JOURNAL_NAME);
+        snapshotFile = new File(dir, SNAPSHOT_NAME);
+        HandlerThread thread = new HandlerThread("d_stack_journal", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                mapJournal();
+            }
+        });
+    }
+
+    /**
+     * 记录节点入栈
+     */
+    void add(int index, DNode node) {
+        post(TYPE_ADD, index, node);
+    }
+
+    /**
+     * 记录节点出栈
+     */
+    void remove(int index) {
+        post(TYPE_REMOVE, index, null);
+    }
+
+    /**
+     * 记录节点信息更新
+     */
+    void update(int index, DNode node) {
+        post(TYPE_UPDATE, index, node);
+    }
+
+    /**
+     * 记录节点集合清空
+     */
+    void clear() {
+        post(TYPE_CLEAR, -1, null);
+    }
+
+    /**
+     * 开始新的会话，丢弃上次的快照和日志
+     * 冷启动时调用，只有进程被杀死后恢复才读取上次的记录
+     */
+    void reset() {
+        restorable = false;
+        if (handler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                recycleAll(records);
+                records.clear();
+                compact();
+            }
+        });
+    }
+
+    /**
+     * 获取上次进程保存的节点集合
+     * 只在进程恢复时有效，并且只能读取一次，在主线程同步返回，保证第一帧之前节点集合已经恢复
+     * 不等待日志线程，日志线程还没有读取时直接在当前线程读取，快照和日志都有大小上限
+     */
+    List<DNode> load() {
+        List<DNode> nodes = new ArrayList<>();
+        if (handler == null || !restorable) {
+            return nodes;
+        }
+        restorable = false;
+        for (Record record : readLastRecords()) {
+            nodes.add(record.toNode());
+        }
+        return nodes;
+    }
+
+    /**
+     * 在日志线程执行其他的文件读写，日志没有打开时返回false
+     */
+    boolean postBackground(Runnable runnable) {
+        if (handler == null) {
+            return false;
+        }
+        return handler.post(runnable);
+    }
+
+    /**
+     * 在主线程从对象池取出记录并复制节点信息，加入待写入队列
+     * 队列里已经有记录时日志线程一定会继续处理，不需要再post
+     */
+    private void post(byte type, int index, DNode node) {
+        if (handler == null) {
+            return;
+        }
+        Record record;
+        synchronized (pool) {
+            record = pool.pollLast();
+        }
+        if (record == null) {
+            record = new Record();
+        }
+        record.set(type, index, node);
+        synchronized (pending) {
+            pending.addLast(record);
+            if (drainPosted) {
+                return;
+            }
+            drainPosted = true;
+        }
+        handler.post(drainRunnable);
+    }
+
+    /**
+     * 在日志线程写入队列里所有的记录
+     */
+    private void drain() {
+        for (; ; ) {
+            Record record;
+            synchronized (pending) {
+                record = pending.pollFirst();
+                if (record == null) {
+                    drainPosted = false;
+                    return;
+                }
+            }
+            write(record);
+        }
+    }
+
+    /**
+     * 把不再使用的记录放回对象池，恢复时从文件读取的记录不放回
+     */
+    private void recycle(Record record) {
+        if (record == null || !record.pooled) {
+            return;
+        }
+        record.reset();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOL_SIZE) {
+                pool.addLast(record);
+            }
+        }
+    }
+
+    private void recycleAll(List<Record> list) {
+        for (int i = 0, size = list.size(); i < size; i++) {
+            recycle(list.get(i));
+        }
+    }
+
+    /**
+     * 读取上次进程保存的记录，只读取一次
+     * 日志线程在这之后才会合并快照，所以读取时文件不会被改写
+     */
+    private synchronized List<Record> readLastRecords() {
+        if (lastRecords == null) {
+            List<Record> loadRecords = new ArrayList<>();
+            lastGeneration = readSnapshot(loadRecords);
+            readJournal(lastGeneration, loadRecords);
+            lastRecords = loadRecords;
+        }
+        return lastRecords;
+    }
+
+    /**
+     * 在日志线程映射日志文件，并读取上次的记录作为合并快照的基础
+     */
+    private void mapJournal() {
+        records.clear();
+        synchronized (this) {
+            records.addAll(readLastRecords());
+            generation = lastGeneration;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            FileChannel channel = file.getChannel();
+            journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            DLog.logE("节点日志映射失败：" + e.getMessage());
+            journal = null;
+            return;
+        }
+        //把读取到的状态合并成新的快照，日志从头开始写
+        compact();
+    }
+
+    /**
+     * 在日志线程写入一条记录
+     */
+    private void write(Record record) {
+        //被移除和被替换的记录不再出现在快照里，可以放回对象池
+        if (record.type == TYPE_REMOVE || record.type == TYPE_UPDATE) {
+            if (record.index >= 0 && record.index < records.size()) {
+                recycle(records.get(record.index));
+            }
+        } else if (record.type == TYPE_CLEAR) {
+            recycleAll(records);
+        }
+        record.apply(records);
+        //出栈和清空记录只写日志，不保存在records里
+        boolean transientRecord = record.type == TYPE_REMOVE || record.type == TYPE_CLEAR;
+        writeJournal(record);
+        if (transientRecord) {
+            recycle(record);
+        }
+    }
+
+    private void writeJournal(Record record) {
+        if (journal == null) {
+            return;
+        }
+        byte[] body;
+        try {
+            body = record.encode();
+        } catch (RuntimeException e) {
+            //参数里有不能编码的内容，编码时已经丢弃了参数，这条记录按不带参数写入
+            DLog.logE("节点参数编码失败：" + e.getMessage());
+            body = record.encode();
+        }
+        if (recordCount >= MAX_RECORD_COUNT || journal.position() + 4 + body.length + 4 > JOURNAL_SIZE) {
+            //日志写满，当前状态已经在records里，直接合并成快照
+            compact();
+            return;
+        }
+        int start = journal.position();
+        //先写内容和下一条记录位置的结束标记，最后写长度，写到一半被杀死时这条记录的长度仍然是0，读取时会被忽略
+        //结束标记覆盖了旧generation留下的内容，合并快照时不需要清空整个日志
+        journal.position(start + 4);
+        journal.put(body);
+        journal.putInt(journal.position(), 0);
+        journal.putInt(start, body.length);
+        recordCount++;
+    }
+
+    /**
+     * 把当前状态写成新的快照，然后清空日志
+     * 快照和日志都带有generation，日志的generation和快照不一致时不会被读取
+     * 所以快照写完、日志还没清空时被杀死，也不会重复应用旧日志
+     */
+    private void compact() {
+        generation++;
+        if (!writeSnapshot()) {
+            return;
+        }
+        if (journal == null) {
+            return;
+        }
+        journal.clear();
+        journal.putInt(MAGIC);
+        journal.putLong(generation);
+        //只清空第一条记录的长度，读取时遇到0就结束，之后的旧内容由每次写入的结束标记覆盖
+        journal.putInt(HEADER_SIZE, 0);
+        journal.position(HEADER_SIZE);
+        recordCount = 0;
+    }
+
+    private boolean writeSnapshot() {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tempFile));
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(records.size());
+            for (Record record : records) {
+                byte[] body = record.encodeNode();
+                out.writeInt(body.length);
+                out.write(body);
+            }
+            out.flush();
+            out.close();
+            out = null;
+            return tempFile.renameTo(snapshotFile);
+        } catch (IOException e) {
+            DLog.logE("节点快照写入失败：" + e.getMessage());
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取快照，返回快照的generation
+     */
+    private long readSnapshot(List<Record> out) {
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(snapshotFile));
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            long snapshotGeneration = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                Record record = new Record(TYPE_ADD, i);
+                record.decodeNode(ByteBuffer.wrap(body));
+                out.add(record);
+            }
+            return snapshotGeneration;
+        } catch (Exception e) {
+            DLog.logE("节点快照读取失败：" + e.getMessage());
+            out.clear();
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取日志并应用到快照上，日志的generation必须和快照一致
+     */
+    private void readJournal(long snapshotGeneration, List<Record> out) {
+        if (!journalFile.exists() || journalFile.length() < HEADER_SIZE) {
+            return;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(journalFile, "r");
+            byte[] data = new byte[(int) Math.min(file.length(), JOURNAL_SIZE)];
+            file.readFully(data);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.getInt() != MAGIC || buffer.getLong() != snapshotGeneration) {
+                return;
+            }
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.wrap(data, buffer.position(), length).slice();
+                buffer.position(buffer.position() + length);
+                Record.decode(body).apply(out);
+            }
+        } catch (Exception e) {
+            DLog.logE("节点日志读取失败：" + e.getMessage());
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 单条日志记录，在主线程从对象池取出时复制节点信息和参数，之后只在日志线程使用
+     */
+    private static class Record {
+        byte type;
+        int index;
+        long id;
+        int pageType;
+        int flags;
+        String route;
+        String identifier;
+        //复用的参数副本，编码后清空
+        Map<String, Object> params;
+        String paramsJson;
+        //是否来自对象池，只有对象池里的记录会被放回
+        final boolean pooled;
+
+        Record() {
+            pooled = true;
+        }
+
+        Record(byte type, int index) {
+            this.type = type;
+            this.index = index;
+            pooled = false;
+        }
+
+        void set(byte type, int index, DNode node) {
+            this.type = type;
+            this.index = index;
+            if (node == null) {
+                return;
+            }
+            id = node.getId();
+            pageType = node.getPageTypeCode();
+            route = node.getTarget();
+            identifier = node.rawIdentifier();
+            //节点参数之后还会在主线程被修改，在这里复制一份再交给日志线程编码，有参数时才复制
+            //只读参数，记录日志不能把已转存的参数解码回内存
+            Map<String, Object> nodeParams = node.peekParams();
+            if (nodeParams != null && !nodeParams.isEmpty()) {
+                if (params == null) {
+                    params = new HashMap<>();
+                }
+                params.putAll(nodeParams);
+            }
+            if (node.isHomePage()) {
+                flags |= FLAG_HOME_PAGE;
+            }
+            if (node.isRootPage()) {
+                flags |= FLAG_ROOT_PAGE;
+            }
+            if (node.isBoundary()) {
+                flags |= FLAG_BOUNDARY;
+            }
+        }
+
+        void reset() {
+            id = 0;
+            pageType = 0;
+            flags = 0;
+            route = null;
+            identifier = null;
+            paramsJson = null;
+            if (params != null) {
+                params.clear();
+            }
+        }
+
+        /**
+         * 把记录应用到记录集合上，索引越界的记录直接忽略
+         */
+        void apply(List<Record> list) {
+            switch (type) {
+                case TYPE_ADD:
+                    if (index >= 0 && index <= list.size()) {
+                        list.add(index, this);
+                    }
+                    break;
+                case TYPE_REMOVE:
+                    if (index >= 0 && index < list.size()) {
+                        list.remove(index);
+                    }
+                    break;
+                case TYPE_UPDATE:
+                    if (index >= 0 && index < list.size()) {
+                        list.set(index, this);
+                    }
+                    break;
+                case TYPE_CLEAR:
+                    list.clear();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        byte[] encode() {
+            byte[] node = type == TYPE_ADD || type == TYPE_UPDATE ? encodeNode() : new byte[0];
+            ByteBuffer buffer = ByteBuffer.allocate(5 + node.length);
+            buffer.put(type);
+            buffer.putInt(index);
+            buffer.put(node);
+            return buffer.array();
+        }
+
+        static Record decode(ByteBuffer buffer) {
+            byte type = buffer.get();
+            Record record = new Record(type, buffer.getInt());
+            if (type == TYPE_ADD || type == TYPE_UPDATE) {
+                record.decodeNode(buffer);
+            }
+            return record;
+        }
+
+        byte[] encodeNode() {
+            byte[] routeBytes = toBytes(route);
+            byte[] identifierBytes = toBytes(identifier);
+            byte[] paramsBytes = toBytes(paramsJson());
+            ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 4 + 12
+                    + length(routeBytes) + length(identifierBytes) + length(paramsBytes));
+            buffer.putLong(id);
+            buffer.putInt(pageType);
+            buffer.putInt(flags);
+            putBytes(buffer, routeBytes);
+            putBytes(buffer, identifierBytes);
+            putBytes(buffer, paramsBytes);
+            return buffer.array();
+        }
+
+        void decodeNode(ByteBuffer buffer) {
+            id = buffer.getLong();
+            pageType = buffer.getInt();
+            flags = buffer.getInt();
+            route = getString(buffer);
+            identifier = getString(buffer);
+            paramsJson = getString(buffer);
+        }
+
+        DNode toNode() {
+            DNode.Builder builder = new DNode.Builder()
+                    .target(route)
+                    .pageType(pageType)
+                    .isHomePage((flags & FLAG_HOME_PAGE) != 0)
+                    .isRootPage((flags & FLAG_ROOT_PAGE) != 0)
+                    .boundary((flags & FLAG_BOUNDARY) != 0)
+                    .params(paramsFromJson(paramsJson));
+            if (identifier == null) {
+                builder.idAsIdentifier();
+            } else {
+                builder.identifier(identifier);
+            }
+            DNode node = builder.build();
+            node.setId(id);
+            return node;
+        }
+
+        /**
+         * 参数只保存能转换成json的内容，第一次编码后缓存
+         */
+        private String paramsJson() {
+            if (paramsJson == null && params != null && !params.isEmpty()) {
+                try {
+                    String json = new JSONObject(params).toString();
+                    if (json.length() <= MAX_PARAMS_LENGTH) {
+                        paramsJson = json;
+                    }
+                } finally {
+                    //编码失败时也清空，重新编码时按不带参数处理
+                    params.clear();
+                }
+            }
+            return paramsJson;
+        }
+
+        private static Map<String, Object> paramsFromJson(String json) {
+            if (json == null) {
+                return new HashMap<>();
+            }
+            try {
+                return toMap(new JSONObject(json));
+            } catch (Exception e) {
+                return new HashMap<>();
+            }
+        }
+
+        private static Map<String, Object> toMap(JSONObject object) {
+            Map<String, Object> map = new HashMap<>();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                map.put(key, fromJson(object.opt(key)));
+            }
+            return map;
+        }
+
+        private static Object fromJson(Object value) {
+            if (value instanceof JSONObject) {
+                return toMap((JSONObject) value);
+            }
+            if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                List<Object> list = new ArrayList<>(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    list.add(fromJson(array.opt(i)));
+                }
+                return list;
+            }
+            if (value == JSONObject.NULL) {
+                return null;
+            }
+            return value;
+        }
+
+        private static byte[] toBytes(String value) {
+            return value == null ? null : value.getBytes(UTF_8);
+        }
+
+        private static int length(byte[] bytes) {
+            return bytes == null ? 0 : bytes.length;
+        }
+
+        private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private static String getString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package tal.com.d_stack.node;
 
+import android.app.Activity;
+import android.content.Context;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
@@ -9,12 +11,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
+import tal.com.d_stack.DStack;
 import tal.com.d_stack.action.DActionManager;
 import tal.com.d_stack.action.DOperationManager;
+import tal.com.d_stack.jank.DJankMonitor;
+import tal.com.d_stack.lifecycle.EngineIdleManager;
 import tal.com.d_stack.lifecycle.PageLifecycleManager;
 import tal.com.d_stack.node.constants.DNodeActionType;
 import tal.com.d_stack.node.constants.DNodePageType;
 import tal.com.d_stack.observer.DStackActivityManager;
+import tal.com.d_stack.plugin.DPluginRegistry;
+import tal.com.d_stack.result.DResultManager;
 import tal.com.d_stack.utils.DLog;
 
 /**
@@ -30,10 +37,26 @@ public class DNodeManager {
     List<Integer> needRemoveNodesIndex = new ArrayList<>();
     //需要移除的节点集合
     List<DNode> needRemoveNodes = new ArrayList<>();
+    //activity销毁时复用的节点集合，避免每次销毁都创建新的集合
+    private final List<DNode> activityNodes = new ArrayList<>();
     //当前节点
     DNode currentNode;
     //节点动作类型
-    String actionType;
+    int actionType;
+    //节点栈变更记录，用于flutter侧增量同步节点列表
+    DNodeChangeLog changeLog = new DNodeChangeLog();
+    //节点id索引，和节点集合同步维护
+    DNodeIndex nodeIndex = new DNodeIndex();
+    //节点栈日志，用于进程被杀死后恢复节点集合
+    DNodeJournal journal = new DNodeJournal();
+    //节点参数存储，节点集合中的节点参数都保存在这里
+    DNodeParamStore paramStore = new DNodeParamStore();
+    //打开页面的去重和限流
+    DNodePushThrottle pushThrottle = new DNodePushThrottle();
+    //下一个页面预测，默认关闭
+    DNodePredictor predictor = new DNodePredictor();
+    //被覆盖页面的截图，用于预测性返回的预览，默认关闭
+    DNodeSnapshotCache snapshotCache = new DNodeSnapshotCache();
 
     public static DNodeManager getInstance() {
         for (; ; ) {
@@ -70,36 +93,47 @@ public class DNodeManager {
         if (node == null) {
             return;
         }
-        actionType = node.getAction();
+        actionType = node.getActionCode();
         switch (actionType) {
-            case DNodeActionType.DNodeActionTypePush:
-            case DNodeActionType.DNodeActionTypePresent:
+            case DNodeActionType.PUSH:
+            case DNodeActionType.PRESENT:
                 //打开新页面
                 //入栈管理
                 //去重逻辑
                 DLog.logD("----------push方法开始----------");
+                DNode fromNode = currentNode;
                 handlePush(node);
                 updateNodes();
+                if (currentNode == node) {
+                    predictor.onPush(fromNode, node);
+                    //新页面显示之前截取被覆盖的页面
+                    snapshotCache.onNodeCovered(fromNode);
+                }
                 DActionManager.push(node);
                 PageLifecycleManager.pageAppear(node);
+                evictFlutterNodes();
                 DLog.logD("----------push方法结束----------");
                 break;
-            case DNodeActionType.DNodeActionTypePop:
-            case DNodeActionType.DNodeActionTypeDissmiss:
+            case DNodeActionType.POP:
+            case DNodeActionType.DISSMISS:
                 //返回上一个页面
                 //出栈管理
                 //移除最后一个节点即可
                 DLog.logD("----------pop方法开始----------");
-                DLog.logD("node出栈，target：" + node.getTarget());
+                if (DLog.isDebug()) {
+                    DLog.logD("node出栈，target：" + node.getTarget());
+                }
                 if (node.isFromFlutter()) {
                     //此处是flutter侧点击左上角返回键的逻辑
                     //flutter页面触发的pop有可能不带target信息，需要手动添加
                     //所有flutter侧页面关闭删除节点的逻辑都在handleNeedRemoveNode实现
                     node.setTarget(currentNode.getTarget());
-                    node.setPageType(currentNode.getPageType());
+                    node.setPageType(currentNode.getPageTypeCode());
                     node.setHomePage(currentNode.isHomePage());
                     node.setRootPage(currentNode.isRootPage());
                     node.setIdentifier(currentNode.getIdentifier());
+                    node.setId(currentNode.getId());
+                    setPendingResultFromFlutter(currentNode, node.getParams());
                     DActionManager.pop(node);
                     updateNodes();
                 } else {
@@ -108,7 +142,7 @@ public class DNodeManager {
                 }
                 DLog.logD("----------pop方法结束----------");
                 break;
-            case DNodeActionType.DNodeActionTypePopTo:
+            case DNodeActionType.POP_TO:
                 //返回指定页面
                 DLog.logD("----------popTo方法开始----------");
                 needRemoveNodes.clear();
@@ -121,7 +155,7 @@ public class DNodeManager {
                 PageLifecycleManager.pageDisappear(popToNode);
                 DLog.logD("----------popTo方法结束----------");
                 break;
-            case DNodeActionType.DNodeActionTypePopToRoot:
+            case DNodeActionType.POP_TO_ROOT:
                 //返回最根节点
                 DLog.logD("----------popToRoot方法开始----------");
                 needRemoveNodes.clear();
@@ -134,7 +168,7 @@ public class DNodeManager {
                 PageLifecycleManager.pageDisappear(popToRootNode);
                 DLog.logD("----------popToRoot方法结束----------");
                 break;
-            case DNodeActionType.DNodeActionTypePopSkip:
+            case DNodeActionType.POP_SKIP:
                 DLog.logD("----------popSkip方法开始----------");
                 needRemoveNodes.clear();
                 needRemoveNodesIndex.clear();
@@ -146,24 +180,25 @@ public class DNodeManager {
                 PageLifecycleManager.pageDisappear(popSkipNode);
                 DLog.logD("----------popSkip方法结束----------");
                 break;
-            case DNodeActionType.DNodeActionTypeGesture:
+            case DNodeActionType.GESTURE:
                 DLog.logD("----------gesture方法开始----------");
-                nodeList.remove(nodeList.size() - 1);
+                removeNodeAt(nodeList.size() - 1);
                 DLog.logD("----------gesture方法结束----------");
                 updateNodes();
                 DActionManager.gesture(node);
                 break;
-            case DNodeActionType.DNodeActionTypeReplace:
+            case DNodeActionType.REPLACE:
                 DLog.logD("----------replace方法开始----------");
                  DNode preNode = new DNode(new DNode.Builder()
-                    .pageType(DNodePageType.DNodePageTypeFlutter)
+                    .pageType(DNodePageType.FLUTTER)
                     .target(currentNode.getTarget()));
                 if (node.isFromFlutter()) {
                     currentNode.setTarget(node.getTarget());
-                    currentNode.setPageType(DNodePageType.DNodePageTypeFlutter);
+                    currentNode.setPageType(DNodePageType.FLUTTER);
                     currentNode.setParams(node.getParams());
                     currentNode.setIdentifier(node.getIdentifier());
-
+                    changeLog.update(nodeList.size() - 1, currentNode);
+                    journal.update(nodeList.size() - 1, currentNode);
                 }
                 updateNodes();
                 PageLifecycleManager.pageAppearWithReplace(preNode, currentNode);
@@ -171,11 +206,11 @@ public class DNodeManager {
                 DLog.logD("----------replace方法结束----------");
                 break;
 
-            case DNodeActionType.DNodeActionPushAndRemoveUntil:
+            case DNodeActionType.PUSH_AND_REMOVE_UNTIL:
                 DLog.logD("----------pushAndRemoveUntil方法开始----------");
                 DNode pageNode = currentNode;
-                clearNodes();
-                nodeList.add(node);
+                clearNodeList();
+                addNode(node);
                 updateNodes();
                 PageLifecycleManager.pageAppearWithReplace(pageNode, currentNode);
                 DLog.logD("----------pushAndRemoveUntil方法结束----------");
@@ -185,14 +220,131 @@ public class DNodeManager {
         }
     }
 
+    /**
+     * 提交多步导航事务，把节点集合一次性更新为事务计算出的节点集合
+     * 只处理新旧集合不同的部分，节点只更新一次，只发送一次生命周期
+     *
+     * @return 是否需要打开新的flutter容器
+     */
+    public boolean commitTransaction(List<DNode> targetNodes, boolean animated) {
+        int keepSize = 0;
+        int minSize = Math.min(nodeList.size(), targetNodes.size());
+        while (keepSize < minSize && nodeList.get(keepSize) == targetNodes.get(keepSize)) {
+            keepSize++;
+        }
+        if (keepSize == nodeList.size() && keepSize == targetNodes.size()) {
+            DLog.logD("事务没有改变节点");
+            return false;
+        }
+        DLog.logD("----------transaction方法开始----------");
+        DNode preNode = currentNode;
+        DNode keepNode = keepSize > 0 ? nodeList.get(keepSize - 1) : null;
+        List<DNode> removeNodes = new ArrayList<>(nodeList.subList(keepSize, nodeList.size()));
+        List<DNode> addNodes = new ArrayList<>(targetNodes.subList(keepSize, targetNodes.size()));
+        for (int i = nodeList.size() - 1; i >= keepSize; i--) {
+            removeNodeAt(i);
+        }
+        for (DNode node : addNodes) {
+            addNode(node);
+        }
+        updateNodes();
+        boolean needContainer = DActionManager.transaction(keepNode, removeNodes, addNodes, animated);
+        if (addNodes.isEmpty()) {
+            PageLifecycleManager.pageDisappear(preNode);
+        } else {
+            PageLifecycleManager.pageAppearWithReplace(preNode, currentNode);
+        }
+        evictFlutterNodes();
+        DLog.logD("----------transaction方法结束----------");
+        return needContainer;
+    }
+
+    /**
+     * 活跃的flutter页面超出限制时，从栈底开始让非临界的flutter页面休眠
+     * 栈顶的两个页面不休眠，返回时露出的页面始终是活跃的
+     */
+    private void evictFlutterNodes() {
+        int maxLive = DStack.getInstance().getMaxLiveFlutterRoutes();
+        if (maxLive <= 0) {
+            return;
+        }
+        int liveCount = 0;
+        for (DNode node : nodeList) {
+            if (node.isFlutter() && !node.isDormant()) {
+                liveCount++;
+            }
+        }
+        if (liveCount <= maxLive) {
+            return;
+        }
+        List<DNode> evictNodes = new ArrayList<>();
+        int end = nodeList.size() - 2;
+        for (int i = 0; i < end && liveCount > maxLive; i++) {
+            DNode node = nodeList.get(i);
+            if (!canEvict(node)) {
+                continue;
+            }
+            node.setDormant(true);
+            evictNodes.add(node);
+            liveCount--;
+        }
+        if (!evictNodes.isEmpty()) {
+            DLog.logD("flutter页面休眠数量：" + evictNodes.size());
+            DActionManager.evict(evictNodes);
+        }
+    }
+
+    /**
+     * 内存不足时让flutter页面休眠
+     *
+     * @param hiddenOnly 为true时只处理被native页面盖住的flutter页面，为false时处理当前页面以外的所有flutter页面
+     * @return 休眠的页面数量
+     */
+    public int trimFlutterNodes(boolean hiddenOnly) {
+        int end = nodeList.size() - 1;
+        if (hiddenOnly) {
+            end = 0;
+            for (int i = nodeList.size() - 1; i >= 0; i--) {
+                if (nodeList.get(i).isNative()) {
+                    end = i;
+                    break;
+                }
+            }
+        }
+        List<DNode> evictNodes = new ArrayList<>();
+        for (int i = 0; i < end; i++) {
+            DNode node = nodeList.get(i);
+            if (canEvict(node)) {
+                node.setDormant(true);
+                evictNodes.add(node);
+            }
+        }
+        if (!evictNodes.isEmpty()) {
+            DLog.logD("内存不足，flutter页面休眠数量：" + evictNodes.size());
+            DActionManager.evict(evictNodes);
+        }
+        return evictNodes.size();
+    }
+
+    /**
+     * 节点是否可以休眠，临界页面、首页、根页面和没有flutter路由标识的页面不休眠
+     */
+    private boolean canEvict(DNode node) {
+        return node.isFlutter() && !node.isDormant() && !node.isBoundary()
+                && !node.isHomePage() && !node.isRootPage()
+                && !TextUtils.isEmpty(node.getIdentifier());
+    }
+
     /**
      * 处理push过来的节点
      */
     private void handlePush(DNode node) {
         boolean repeat = repeatNode(node);
         if (!repeat) {
-            nodeList.add(node);
-            DLog.logD("node入栈，target：" + node.getTarget());
+            addNode(node);
+            if (DLog.isDebug()) {
+                DLog.logD("node入栈，target：" + node.getTarget());
+            }
         } else {
             DLog.logD("node入栈被去重");
         }
@@ -202,19 +354,21 @@ public class DNodeManager {
      * 如果node信息来自flutter并且页面类型是native，那么不记录节点，由页面拦截触发
      */
     private boolean repeatNode(DNode node) {
-        return node.isFromFlutter() && node.getPageType().equals(DNodePageType.DNodePageTypeNative);
+        return node.isFromFlutter() && node.isNative();
     }
 
     /**
      * 把要返回的目标页节点后面的所有节点按顺序添加到一个集合中
+     * 只在当前节点所在的task里查找和移除，其他task的节点保留
      */
     private List<DNode> needRemoveNodes(DNode node) {
         List<DNode> removeNodeList = new ArrayList<>();
         boolean startAddRemoveList = true;
         boolean existNode = false;
         int size = nodeList.size();
+        int taskId = currentTaskId();
         for (DNode tempNode : nodeList) {
-            if (tempNode.getTarget().equals(node.getTarget())) {
+            if (inTask(tempNode, taskId) && tempNode.getTarget().equals(node.getTarget())) {
                 existNode = true;
                 break;
             }
@@ -222,6 +376,9 @@ public class DNodeManager {
         if (existNode) {
             for (int i = size - 1; i >= 0; i--) {
                 DNode currentNode = nodeList.get(i);
+                if (!inTask(currentNode, taskId)) {
+                    continue;
+                }
                 if (currentNode.getTarget().equals(node.getTarget())) {
                     startAddRemoveList = false;
                 }
@@ -237,14 +394,26 @@ public class DNodeManager {
 
     /**
      * native工程返回根节点，节点集合只需要保存一个元素
+     * 有多个task时返回当前task的栈底节点，其他task的节点保留
      */
     private List<DNode> popToRootNeedRemoveNodes() {
         List<DNode> removeNodeList = new ArrayList<>();
         boolean startAddRemoveList = true;
         int size = nodeList.size();
+        int taskId = currentTaskId();
+        int rootIndex = 0;
+        for (int i = 0; i < size; i++) {
+            if (inTask(nodeList.get(i), taskId)) {
+                rootIndex = i;
+                break;
+            }
+        }
         for (int i = size - 1; i >= 0; i--) {
             DNode tempNode = nodeList.get(i);
-            if (i == 0) {
+            if (!inTask(tempNode, taskId)) {
+                continue;
+            }
+            if (i <= rootIndex) {
                 startAddRemoveList = false;
             }
             if (startAddRemoveList) {
@@ -260,9 +429,11 @@ public class DNodeManager {
      * 从节点列表中删除指定节点集合
      */
     private void deleteNodes() {
-        DLog.logD("从节点中删除指定元素索引: " + needRemoveNodesIndex.toString());
+        if (DLog.isDebug()) {
+            DLog.logD("从节点中删除指定元素索引: " + needRemoveNodesIndex.toString());
+        }
         for (int i : needRemoveNodesIndex) {
-            nodeList.remove(i);
+            removeNodeAt(i);
         }
     }
 
@@ -280,13 +451,46 @@ public class DNodeManager {
         for (int i = size - 1; i >= 0; i--) {
             DNode currentNode = nodeList.get(i);
             if (currentNode.getTarget().equals(pageRouter)) {
-                DLog.logD("findNodeByRouter：" + pageRouter);
+                if (DLog.isDebug()) {
+                    DLog.logD("findNodeByRouter：" + pageRouter);
+                }
                 return nodeList.get(i);
             }
         }
         return null;
     }
 
+    /**
+     * 根据节点id查找节点
+     */
+    public DNode findNodeById(long id) {
+        return nodeIndex.get(id);
+    }
+
+    /**
+     * 根据页面唯一标识查找节点
+     * native分配的标识直接走id索引，flutter侧生成的标识反向遍历节点集合
+     */
+    public DNode findNodeByIdentifier(String identifier) {
+        if (TextUtils.isEmpty(identifier)) {
+            return null;
+        }
+        long id = DNodeIdService.parseId(identifier);
+        if (id != DNodeIdService.NO_ID) {
+            DNode node = nodeIndex.get(id);
+            if (node != null && identifier.equals(node.getIdentifier())) {
+                return node;
+            }
+        }
+        for (int i = nodeList.size() - 1; i >= 0; i--) {
+            DNode node = nodeList.get(i);
+            if (identifier.equals(node.getIdentifier())) {
+                return node;
+            }
+        }
+        return null;
+    }
+
     /**
      * 需要移除的节点索引
      */
@@ -294,8 +498,12 @@ public class DNodeManager {
         List<DNode> removeNodeList = new ArrayList<>();
         boolean startAddRemoveList;
         int size = nodeList.size();
+        int taskId = currentTaskId();
         for (int i = size - 1; i >= 0; i--) {
             DNode currentNode = nodeList.get(i);
+            if (!inTask(currentNode, taskId)) {
+                continue;
+            }
             //如果当前节点路由包含要skip的模块路由，则添加
             startAddRemoveList = currentNode.getTarget().contains(node.getTarget());
             if (startAddRemoveList) {
@@ -309,6 +517,58 @@ public class DNodeManager {
         return removeNodeList;
     }
 
+    /**
+     * 当前节点所在的task
+     */
+    private int currentTaskId() {
+        return currentNode == null ? DNode.NO_TASK : currentNode.getTaskId();
+    }
+
+    /**
+     * 节点是否在指定的task里，还没有绑定activity的节点算在任意task里
+     */
+    private static boolean inTask(DNode node, int taskId) {
+        return taskId == DNode.NO_TASK || node.getTaskId() == DNode.NO_TASK || node.getTaskId() == taskId;
+    }
+
+    /**
+     * 获取task里的节点，从栈底到栈顶
+     * 所有task共用一个flutter Navigator，节点集合仍然是一个，这里按节点绑定的task筛选
+     */
+    public List<DNode> getTaskNodes(int taskId) {
+        List<DNode> nodes = new ArrayList<>();
+        for (DNode node : nodeList) {
+            if (node.getTaskId() == taskId) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 移除绑定在activity上的节点，用于销毁的activity不是栈顶节点的activity，比如另一个task里的页面
+     * 只移除这些节点，其他节点不受影响，其中的flutter页面合并成一条消息通知flutter侧
+     *
+     * @return 是否移除了节点
+     */
+    public boolean removeNodesWithActivity(Activity activity) {
+        List<DNode> removeNodes = activityNodes;
+        removeNodes.clear();
+        findNodesByActivity(activity, removeNodes);
+        if (removeNodes.isEmpty()) {
+            return false;
+        }
+        DLog.logD("----------removeNodesWithActivity方法开始----------");
+        for (DNode node : removeNodes) {
+            removeNode(node);
+        }
+        updateNodes();
+        DActionManager.removeNodes(removeNodes);
+        removeNodes.clear();
+        DLog.logD("----------removeNodesWithActivity方法结束----------");
+        return true;
+    }
+
     /**
      * 每次操作后，更新节点信息
      */
@@ -317,13 +577,26 @@ public class DNodeManager {
         int size = nodeList.size();
         if (size == 0) {
             currentNode = null;
+            predictor.onCurrentNodeChanged(null);
+            DJankMonitor.getInstance().onCurrentNodeChanged(null);
+            //节点集合清空时没有可见的flutter页面，也需要重新判断引擎是否空闲
+            EngineIdleManager.getInstance().update();
             DLog.logE("当前栈的currentNode为null");
             return;
         }
         currentNode = nodeList.get(size - 1);
-        DLog.logE("当前栈的currentNode：" + currentNode.getTarget());
-        for (DNode node : nodeList) {
-            DLog.logE(node.getPageType() + "--" + node.getTarget());
+        predictor.onCurrentNodeChanged(currentNode);
+        DJankMonitor.getInstance().onCurrentNodeChanged(currentNode);
+        EngineIdleManager.getInstance().update();
+        if (currentNode.isDormant()) {
+            //返回到休眠的页面，flutter侧在didPop时重新创建页面内容
+            currentNode.setDormant(false);
+        }
+        if (DLog.isDebug()) {
+            DLog.logE("当前栈的currentNode：" + currentNode.getTarget());
+            for (DNode node : nodeList) {
+                DLog.logE(node.getPageType() + "--" + node.getTarget());
+            }
         }
         DLog.logE("-----更新节点结束-----");
     }
@@ -337,8 +610,9 @@ public class DNodeManager {
         if (nodeList.size() == 0 || currentNode == null) {
             return;
         }
+        DNode removedNode = findRemovedFlutterNode(node);
         //判断是否临界状态
-        boolean isCritical = isCritical(node);
+        boolean isCritical = isCritical(node, removedNode);
         if (isCritical) {
             //临界状态，当前清除节点flutter，上一个节点native
             if (DStackActivityManager.getInstance().isExecuteStack()) {
@@ -348,19 +622,36 @@ public class DNodeManager {
             //关闭栈顶flutter控制器
             DStackActivityManager.getInstance().closeTopFlutterActivity();
         } else {
-            //如果当前节点的target和已经关闭的flutter页面的节点target相同，则把当前节点数据清除
-            if (currentNode.getPageType().equals(DNodePageType.DNodePageTypeFlutter)) {
-                if (currentNode.getTarget().equals(node.getTarget())) {
-                    nodeList.remove(currentNode);
-                    updateNodes();
+            if (removedNode != null) {
+                boolean isCurrent = removedNode == currentNode;
+                node.setId(removedNode.getId());
+                removeNode(removedNode);
+                updateNodes();
+                if (isCurrent) {
                     PageLifecycleManager.pageDisappear(node);
-                    DOperationManager.operation(node);
                 }
+                DOperationManager.operation(node);
             }
         }
         DLog.logD("----------handleNeedRemoveFlutterNode方法结束----------");
     }
 
+    /**
+     * flutter侧关闭页面时对应的flutter节点，找不到时返回null
+     * 按页面唯一标识查找，flutter侧没有带标识时才按target和当前节点比较
+     */
+    private DNode findRemovedFlutterNode(DNode node) {
+        String identifier = node.getIdentifier();
+        if (!TextUtils.isEmpty(identifier)) {
+            DNode removedNode = findNodeByIdentifier(identifier);
+            return removedNode != null && removedNode.isFlutter() ? removedNode : null;
+        }
+        if (currentNode.isFlutter() && currentNode.getTarget().equals(node.getTarget())) {
+            return currentNode;
+        }
+        return null;
+    }
+
     /**
      * 当activity执行了onDestroyed()之后
      * 把当前的native节点删除
@@ -370,10 +661,10 @@ public class DNodeManager {
         if (node.isPopTo() || nodeList == null) {
             return;
         }
-        //从节点集合反向遍历第一个匹配的节点信息并移除
-        DNode needRemoveNode = findNodeByRouter(node.getTarget());
+        //出栈节点复制了当前节点的id，直接从索引查找
+        DNode needRemoveNode = findNodeById(node.getId());
         if (needRemoveNode != null) {
-            nodeList.remove(needRemoveNode);
+            removeNode(needRemoveNode);
             PageLifecycleManager.pageDisappear(node);
             node.setBoundary(needRemoveNode.isBoundary());
             DOperationManager.operation(node);
@@ -389,12 +680,177 @@ public class DNodeManager {
         return nodeList;
     }
 
+    /**
+     * 获取节点栈变更记录
+     */
+    public DNodeChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * 获取节点参数存储
+     */
+    public DNodeParamStore getParamStore() {
+        return paramStore;
+    }
+
+    /**
+     * 获取打开页面的去重和限流
+     */
+    public DNodePushThrottle getPushThrottle() {
+        return pushThrottle;
+    }
+
+    /**
+     * 获取下一个页面预测
+     */
+    public DNodePredictor getPredictor() {
+        return predictor;
+    }
+
+    /**
+     * 获取被覆盖页面的截图缓存
+     */
+    public DNodeSnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    /**
+     * 开启或关闭下一个页面预测，开启时读取上次保存的页面转移表
+     */
+    public void setPredictionEnabled(Context context, boolean enabled) {
+        if (enabled) {
+            predictor.open(context, journal);
+        } else {
+            predictor.close();
+        }
+    }
+
+    /**
+     * 获取节点栈日志
+     */
+    public DNodeJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 冷启动时开始新的节点日志，丢弃上次进程的记录
+     */
+    public void startJournalSession() {
+        journal.reset();
+    }
+
+    /**
+     * 进程被杀死后恢复时，根据节点栈日志重建节点集合
+     * 恢复的节点还没有对应的activity，activity重建时再绑定
+     *
+     * @return 是否恢复了节点
+     */
+    public boolean restoreNodes() {
+        List<DNode> nodes = journal.load();
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        DLog.logD("----------restoreNodes方法开始----------");
+        //日志里已经是这些节点，直接重建集合，不再重复写日志
+        for (DNode node : nodeList) {
+            node.detachParamStore();
+        }
+        nodeList.clear();
+        nodeIndex.clear();
+        changeLog.clear();
+        long maxId = DNodeIdService.NO_ID;
+        for (DNode node : nodes) {
+            nodeList.add(node);
+            nodeIndex.put(node.getId(), node);
+            changeLog.add(nodeList.size() - 1, node);
+            node.attachParamStore(paramStore);
+            maxId = Math.max(maxId, node.getId());
+        }
+        DNodeIdService.ensureAbove(maxId);
+        updateNodes();
+        DActionManager.restore(nodeList);
+        evictFlutterNodes();
+        DLog.logD("----------restoreNodes方法结束----------");
+        return true;
+    }
+
+    /**
+     * 冷启动时一次性写入整个节点集合，比如deep link
+     * 所有flutter页面合并成一条消息发给flutter侧，不开启转场动画，只通知一次页面生命周期
+     */
+    public void seedNodes(List<DNode> nodes) {
+        if (nodes == null || nodes.isEmpty()) {
+            return;
+        }
+        DLog.logD("----------seedNodes方法开始----------");
+        clearNodeList();
+        for (DNode node : nodes) {
+            addNode(node);
+        }
+        updateNodes();
+        DActionManager.restore(nodeList);
+        PageLifecycleManager.pageAppear(currentNode);
+        evictFlutterNodes();
+        DLog.logD("----------seedNodes方法结束----------");
+    }
+
+    /**
+     * 节点集合中的节点信息被修改后调用，记录到节点栈日志
+     */
+    public void onNodeChanged(DNode node) {
+        int index = nodeList.indexOf(node);
+        if (index >= 0) {
+            journal.update(index, node);
+        }
+    }
+
+    /**
+     * 查找activity对应的节点
+     * flutter容器里有多个节点时，返回最下面的临界节点
+     */
+    public DNode findNodeByActivity(Activity activity) {
+        if (activity == null) {
+            return null;
+        }
+        for (DNode node : nodeList) {
+            if (node.getActivity() != null && node.getActivity().get() == activity) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取绑定该activity的所有节点，flutter容器里的多个页面绑定同一个activity
+     */
+    public List<DNode> findNodesByActivity(Activity activity) {
+        List<DNode> nodes = new ArrayList<>();
+        findNodesByActivity(activity, nodes);
+        return nodes;
+    }
+
+    /**
+     * 把绑定该activity的所有节点加入out，不分配新的集合
+     */
+    private void findNodesByActivity(Activity activity, List<DNode> out) {
+        if (activity == null) {
+            return;
+        }
+        for (int i = 0, size = nodeList.size(); i < size; i++) {
+            DNode node = nodeList.get(i);
+            if (node.getActivity() != null && node.getActivity().get() == activity) {
+                out.add(node);
+            }
+        }
+    }
+
     /**
      * 移除最后一个节点
      */
     public void deleteLastNode() {
         if (nodeList != null && nodeList.size() > 0) {
-            nodeList.remove(nodeList.size() - 1);
+            removeNodeAt(nodeList.size() - 1);
             updateNodes();
         }
     }
@@ -404,7 +860,7 @@ public class DNodeManager {
      */
     public void addLastNode(DNode node) {
         if (nodeList != null) {
-            nodeList.add(node);
+            addNode(node);
             updateNodes();
         }
     }
@@ -416,24 +872,103 @@ public class DNodeManager {
         if (nodeList == null) {
             return;
         }
-        nodeList.clear();
+        clearNodeList();
         updateNodes();
     }
 
+    /**
+     * 节点入栈，所有对节点集合的修改都要经过以下方法，保证变更记录完整
+     */
+    private void addNode(DNode node) {
+        nodeList.add(node);
+        nodeIndex.put(node.getId(), node);
+        changeLog.add(nodeList.size() - 1, node);
+        journal.add(nodeList.size() - 1, node);
+        node.attachParamStore(paramStore);
+        DPluginRegistry pluginRegistry = DStack.getInstance().getPluginRegistry();
+        if (pluginRegistry != null) {
+            //按需注册插件时，在通知flutter打开页面之前注册该路由的插件
+            pluginRegistry.onNodePush(node);
+        }
+    }
+
+    /**
+     * 按索引移除节点
+     */
+    private void removeNodeAt(int index) {
+        DNode node = nodeList.remove(index);
+        node.detachParamStore();
+        nodeIndex.remove(node.getId());
+        changeLog.remove(index);
+        journal.remove(index);
+        snapshotCache.remove(node.getId());
+        DResultManager.getInstance().onNodeRemoved(node.getId());
+    }
+
+    /**
+     * 移除指定节点
+     */
+    private void removeNode(DNode node) {
+        int index = nodeList.indexOf(node);
+        if (index >= 0) {
+            removeNodeAt(index);
+        }
+    }
+
+    /**
+     * 清空节点集合
+     */
+    private void clearNodeList() {
+        List<DNode> removedNodes = new ArrayList<>(nodeList);
+        for (DNode node : nodeList) {
+            node.detachParamStore();
+        }
+        nodeList.clear();
+        nodeIndex.clear();
+        changeLog.clear();
+        journal.clear();
+        snapshotCache.clear();
+        for (DNode node : removedNodes) {
+            DResultManager.getInstance().onNodeRemoved(node.getId());
+        }
+    }
+
+    /**
+     * flutter页面pop时带的返回值，作为该页面返回结果的参数
+     * flutter侧只有可以通过消息通道编码的返回值才会放在result里
+     */
+    private void setPendingResultFromFlutter(DNode node, Map<String, Object> params) {
+        if (params == null) {
+            return;
+        }
+        Object result = params.get("result");
+        if (result instanceof Map) {
+            DResultManager.getInstance().setPendingResult(node.getId(), (Map<String, Object>) result);
+        }
+    }
+
     /**
      * 节点是否处在临界状态
      */
     public boolean isCritical(DNode node) {
+        if (currentNode == null) {
+            return nodeList != null && nodeList.size() == 0;
+        }
+        return isCritical(node, findRemovedFlutterNode(node));
+    }
+
+    /**
+     * 被关闭的是栈顶flutter节点，并且下面是native节点
+     */
+    private boolean isCritical(DNode node, DNode removedNode) {
         if (nodeList != null) {
             if (nodeList.size() == 0) {
                 return true;
             }
-            if (node.getPageType().equals(DNodePageType.DNodePageTypeFlutter)
-                    && currentNode.getPageType().equals(DNodePageType.DNodePageTypeFlutter)
-                    && node.getTarget().equals(currentNode.getTarget())) {
+            if (node.isFlutter() && removedNode != null && removedNode == currentNode) {
                 if (nodeList.size() >= 2) {
                     DNode lastSecondNode = nodeList.get(nodeList.size() - 2);
-                    if (lastSecondNode.getPageType().equals(DNodePageType.DNodePageTypeNative)) {
+                    if (lastSecondNode.isNative()) {
                         return true;
                     }
                 }
@@ -444,7 +979,13 @@ public class DNodeManager {
 
 
     public DNodeResponse createNodeResponse(DNode node) {
-        DNodeResponse nodeResponse = new DNodeResponse();
+        return fillNodeResponse(node, new DNodeResponse());
+    }
+
+    /**
+     * 把节点信息写入已有的DNodeResponse，用于只在当前调用内使用、可以复用的场景
+     */
+    public DNodeResponse fillNodeResponse(DNode node, DNodeResponse nodeResponse) {
         nodeResponse.target = node.getTarget();
         nodeResponse.pageType = node.getPageType();
         nodeResponse.action = node.getAction();
@@ -453,6 +994,7 @@ public class DNodeManager {
         nodeResponse.animated = node.isAnimated();
         nodeResponse.boundary = node.isBoundary();
         nodeResponse.identifier = node.getIdentifier();
+        nodeResponse.id = node.getId();
         return nodeResponse;
     }
 
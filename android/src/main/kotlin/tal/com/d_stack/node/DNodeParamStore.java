@@ -0,0 +1,296 @@
+package tal.com.d_stack.node;
+
+import androidx.collection.LongSparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 节点参数存储
+ * 节点集合中的节点不再直接持有参数，参数按节点id保存在这里，节点出栈时立即释放
+ * 每条参数记录估算占用的字节数，内存占用超过预算时，把较大且最久没有访问的参数
+ * 用StandardMessageCodec编码到堆外的direct buffer中，再次访问时解码回内存
+ * 只在主线程使用
+ */
+public class DNodeParamStore {
+
+    //默认内存预算
+    private static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+    //小于这个大小的参数不转存，编码收益太小
+    private static final int MIN_SPILL_SIZE = 8 * 1024;
+    //对象头和引用的估算大小
+    private static final int OBJECT_OVERHEAD = 16;
+
+    private final LongSparseArray<Entry> entries = new LongSparseArray<>();
+    //flutter页面返回时带的参数，key是节点id
+    private final LongSparseArray<Entry> results = new LongSparseArray<>();
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    //内存中参数的估算大小
+    private long memoryBytes;
+    //转存到direct buffer的参数大小
+    private long spilledBytes;
+    private int spilledCount;
+    //访问计数，用来判断参数的冷热
+    private long accessClock;
+
+    /**
+     * 保存节点参数，已存在时覆盖
+     */
+    void put(long id, Map<String, Object> params) {
+        remove(id);
+        if (params == null) {
+            return;
+        }
+        Entry entry = new Entry(params);
+        entry.lastAccess = ++accessClock;
+        entries.put(id, entry);
+        memoryBytes += entry.size;
+        trimToBudget(id);
+    }
+
+    /**
+     * 读取节点参数，已转存的参数会解码回内存
+     */
+    Map<String, Object> get(long id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = ++accessClock;
+        if (entry.spilled != null) {
+            restore(entry);
+            trimToBudget(id);
+        }
+        return entry.params;
+    }
+
+    /**
+     * 只读节点参数，不更新访问时间，已转存的参数解码出一份副本返回，存储里仍然保持转存
+     * 用于节点栈日志这类后台记录，避免记录一次就把冷参数解码回内存
+     */
+    Map<String, Object> peek(long id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.spilled != null) {
+            return decode(entry.spilled);
+        }
+        return entry.params;
+    }
+
+    /**
+     * 释放节点参数，返回参数本身，节点出栈后仍然可以使用
+     */
+    Map<String, Object> remove(long id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        entries.remove(id);
+        if (entry.spilled != null) {
+            restore(entry);
+        }
+        memoryBytes -= entry.size;
+        return entry.params;
+    }
+
+    /**
+     * 释放所有节点参数
+     */
+    void clear() {
+        entries.clear();
+        results.clear();
+        memoryBytes = 0;
+        spilledBytes = 0;
+        spilledCount = 0;
+    }
+
+    /**
+     * 保存flutter页面返回时带的参数
+     * 返回参数也计入内存预算，超出时转存节点参数
+     */
+    public void putResult(long id, Map<String, Object> params) {
+        Entry old = results.get(id);
+        if (old != null) {
+            memoryBytes -= old.size;
+        }
+        Entry entry = new Entry(params);
+        results.put(id, entry);
+        memoryBytes += entry.size;
+        trimToBudget(DNodeIdService.NO_ID);
+    }
+
+    /**
+     * 取出flutter页面返回时带的参数
+     * 返回参数只会被下一次flutter页面操作使用一次，不管有没有这个节点的返回参数，都清空所有返回参数
+     */
+    public Map<String, Object> takeResult(long id) {
+        Entry entry = results.get(id);
+        for (int i = 0; i < results.size(); i++) {
+            memoryBytes -= results.valueAt(i).size;
+        }
+        results.clear();
+        return entry == null ? null : entry.params;
+    }
+
+    /**
+     * 设置内存预算，超出后转存较大的参数
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trimToBudget(DNodeIdService.NO_ID);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * 保存参数的节点数量
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * 内存中参数的估算字节数，包括返回参数
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * 转存到direct buffer的参数数量
+     */
+    public int getSpilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * 转存到direct buffer的字节数
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * 内存占用超过预算时，反复转存最久没有访问的大参数
+     *
+     * @param keepId 正在访问的节点，不转存
+     */
+    private void trimToBudget(long keepId) {
+        while (memoryBytes > memoryBudget) {
+            Entry coldest = null;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.valueAt(i);
+                if (entries.keyAt(i) == keepId || entry.spilled != null
+                        || entry.unspillable || entry.size < MIN_SPILL_SIZE) {
+                    continue;
+                }
+                if (coldest == null || entry.lastAccess < coldest.lastAccess) {
+                    coldest = entry;
+                }
+            }
+            if (coldest == null) {
+                return;
+            }
+            spill(coldest);
+        }
+    }
+
+    private void spill(Entry entry) {
+        ByteBuffer buffer;
+        try {
+            buffer = StandardMessageCodec.INSTANCE.encodeMessage(entry.params);
+        } catch (RuntimeException e) {
+            //参数里有消息通道不支持的类型，或者编码时参数被修改，只能保留在内存
+            entry.unspillable = true;
+            return;
+        }
+        if (buffer == null) {
+            entry.unspillable = true;
+            return;
+        }
+        entry.spilled = buffer;
+        entry.params = null;
+        memoryBytes -= entry.size;
+        spilledBytes += buffer.capacity();
+        spilledCount++;
+        DLog.logD("节点参数转存，大小：" + entry.size);
+    }
+
+    private void restore(Entry entry) {
+        entry.params = decode(entry.spilled);
+        spilledBytes -= entry.spilled.capacity();
+        spilledCount--;
+        entry.spilled = null;
+        memoryBytes += entry.size;
+    }
+
+    private static Map<String, Object> decode(ByteBuffer spilled) {
+        ByteBuffer buffer = spilled.duplicate();
+        buffer.rewind();
+        return (Map<String, Object>) StandardMessageCodec.INSTANCE.decodeMessage(buffer);
+    }
+
+    /**
+     * 估算参数占用的字节数，只用来比较大小和统计，不追求精确
+     */
+    static int estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD * 2 + ((String) value).length() * 2;
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) value).length;
+        }
+        if (value instanceof int[]) {
+            return OBJECT_OVERHEAD + ((int[]) value).length * 4;
+        }
+        if (value instanceof long[]) {
+            return OBJECT_OVERHEAD + ((long[]) value).length * 8;
+        }
+        if (value instanceof double[]) {
+            return OBJECT_OVERHEAD + ((double[]) value).length * 8;
+        }
+        if (value instanceof Map) {
+            int size = OBJECT_OVERHEAD * 3;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += OBJECT_OVERHEAD * 2 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            int size = OBJECT_OVERHEAD * 2;
+            for (Object item : (Collection<?>) value) {
+                size += 4 + estimateSize(item);
+            }
+            return size;
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+    /**
+     * 单条参数记录，params和spilled同时只有一个不为null
+     */
+    private static class Entry {
+        Map<String, Object> params;
+        ByteBuffer spilled;
+        final int size;
+        long lastAccess;
+        //编码失败过，不再尝试转存
+        boolean unspillable;
+
+        Entry(Map<String, Object> params) {
+            this.params = params;
+            this.size = estimateSize(params);
+        }
+    }
+}
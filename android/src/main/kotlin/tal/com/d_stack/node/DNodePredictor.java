@@ -0,0 +1,464 @@
+package tal.com.d_stack.node;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import tal.com.d_stack.channel.DStackMethodHandler;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 下一个页面预测
+ * 根据节点入栈记录学习页面之间的跳转次数（一阶转移表），转移表保存在文件中，下次启动继续使用
+ * 打开页面后，如果跳转到某个flutter页面的概率超过阈值，等转场结束后通知flutter侧预热该页面
+ * 预热发出前导航到其他页面算取消，预热发出后没有打开预测的页面算浪费
+ * 默认关闭，只在主线程使用，文件读写在节点日志线程
+ */
+public class DNodePredictor {
+
+    private static final String FILE_NAME = "node_transitions";
+    private static final int MAGIC = 0x44535031;
+
+    //默认预测阈值
+    private static final float DEFAULT_THRESHOLD = 0.6f;
+    //来源页面的跳转次数少于这个值时不预测
+    private static final int MIN_SAMPLES = 5;
+    //最多记录的来源页面
+    private static final int MAX_FROM_ROUTES = 64;
+    //每个来源页面最多记录的目标页面
+    private static final int MAX_TO_ROUTES = 8;
+    //来源页面的跳转次数超过这个值时全部减半，让旧的习惯逐渐失效
+    private static final int MAX_FROM_COUNT = 1024;
+    //记录多少次跳转后保存一次文件
+    private static final int SAVE_INTERVAL = 16;
+    //打开页面后延迟预热，避免和转场动画抢占主线程
+    private static final long PREWARM_DELAY = 400;
+
+    private boolean enabled;
+    private float threshold = DEFAULT_THRESHOLD;
+    private File file;
+    private DNodeJournal journal;
+    private Handler mainHandler;
+    //转移表，key是来源页面
+    private final Map<String, From> table = new HashMap<>();
+    private int unsavedCount;
+
+    //当前的预测，来源节点id和预测的目标页面
+    private long predictFromId = DNodeIdService.NO_ID;
+    private String predictRoute;
+    //预热消息是否已经发出
+    private boolean prewarmDispatched;
+    private final Runnable prewarmRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPrewarm();
+        }
+    };
+
+    private int predictCount;
+    private int hitCount;
+    private int cancelledCount;
+    private int wastedCount;
+
+    /**
+     * 开启预测，在日志线程读取上次保存的转移表
+     */
+    void open(Context context, DNodeJournal journal) {
+        if (enabled || context == null) {
+            return;
+        }
+        enabled = true;
+        this.journal = journal;
+        mainHandler = new Handler(Looper.getMainLooper());
+        file = new File(new File(context.getFilesDir(), DNodeJournal.DIR_NAME), FILE_NAME);
+        final File loadFile = file;
+        journal.postBackground(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, From> loaded = read(loadFile);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        merge(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 关闭预测，取消还没有发出的预热
+     */
+    void close() {
+        if (!enabled) {
+            return;
+        }
+        cancel();
+        save();
+        enabled = false;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置预测阈值，跳转概率超过阈值才预热
+     */
+    public void setThreshold(float threshold) {
+        this.threshold = Math.max(0f, Math.min(1f, threshold));
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 当前节点变化，打开了预测的页面算命中，否则取消当前预测
+     */
+    void onCurrentNodeChanged(DNode currentNode) {
+        if (predictRoute == null) {
+            return;
+        }
+        if (currentNode != null && currentNode.getId() == predictFromId) {
+            return;
+        }
+        if (currentNode != null && currentNode.isFlutter()
+                && predictRoute.equals(currentNode.getTarget())) {
+            hitCount++;
+            if (!prewarmDispatched) {
+                mainHandler.removeCallbacks(prewarmRunnable);
+            }
+            clearPrediction();
+            return;
+        }
+        cancel();
+    }
+
+    /**
+     * 节点入栈，记录跳转并预测下一个页面
+     *
+     * @param from 入栈前的当前节点
+     * @param node 入栈的节点
+     */
+    void onPush(DNode from, DNode node) {
+        if (!enabled) {
+            return;
+        }
+        if (from != null && from.getTarget() != null && node.getTarget() != null) {
+            record(from.getTarget(), node.getTarget(), node.isFlutter());
+        }
+        predict(node);
+    }
+
+    /**
+     * 发出的预测次数
+     */
+    public int getPredictCount() {
+        return predictCount;
+    }
+
+    /**
+     * 预测命中的次数
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * 预热发出前被取消的次数
+     */
+    public int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * 预热发出后没有打开预测页面的次数
+     */
+    public int getWastedCount() {
+        return wastedCount;
+    }
+
+    private void record(String fromRoute, String toRoute, boolean toFlutter) {
+        From from = table.get(fromRoute);
+        if (from == null) {
+            if (table.size() >= MAX_FROM_ROUTES) {
+                removeRarestFrom();
+            }
+            from = new From();
+            table.put(fromRoute, from);
+        }
+        from.add(toRoute, toFlutter, 1);
+        if (++unsavedCount >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    private void predict(DNode node) {
+        From from = table.get(node.getTarget());
+        if (from == null || from.total < MIN_SAMPLES) {
+            return;
+        }
+        To best = from.best();
+        if (best == null || !best.flutter || (float) best.count / from.total < threshold) {
+            return;
+        }
+        predictFromId = node.getId();
+        predictRoute = best.route;
+        prewarmDispatched = false;
+        predictCount++;
+        mainHandler.postDelayed(prewarmRunnable, PREWARM_DELAY);
+    }
+
+    private void dispatchPrewarm() {
+        if (predictRoute == null) {
+            return;
+        }
+        prewarmDispatched = true;
+        DLog.logD("预热flutter页面：" + predictRoute);
+        DStackMethodHandler.sendPrewarm(predictRoute, false);
+    }
+
+    /**
+     * 取消当前预测
+     */
+    private void cancel() {
+        if (predictRoute == null) {
+            return;
+        }
+        if (prewarmDispatched) {
+            wastedCount++;
+            DStackMethodHandler.sendPrewarm(predictRoute, true);
+        } else {
+            cancelledCount++;
+            mainHandler.removeCallbacks(prewarmRunnable);
+        }
+        clearPrediction();
+    }
+
+    private void clearPrediction() {
+        predictFromId = DNodeIdService.NO_ID;
+        predictRoute = null;
+        prewarmDispatched = false;
+    }
+
+    private void removeRarestFrom() {
+        String rarest = null;
+        int rarestTotal = Integer.MAX_VALUE;
+        for (Map.Entry<String, From> entry : table.entrySet()) {
+            if (entry.getValue().total < rarestTotal) {
+                rarest = entry.getKey();
+                rarestTotal = entry.getValue().total;
+            }
+        }
+        table.remove(rarest);
+    }
+
+    /**
+     * 合并文件中读取的转移表，读取完成前已经记录的跳转保留
+     */
+    private void merge(Map<String, From> loaded) {
+        if (loaded == null) {
+            return;
+        }
+        for (Map.Entry<String, From> entry : loaded.entrySet()) {
+            From from = table.get(entry.getKey());
+            if (from == null) {
+                if (table.size() >= MAX_FROM_ROUTES) {
+                    continue;
+                }
+                table.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            for (To to : entry.getValue().tos) {
+                from.add(to.route, to.flutter, to.count);
+            }
+        }
+    }
+
+    /**
+     * 在主线程拷贝转移表，在日志线程写入文件
+     */
+    private void save() {
+        unsavedCount = 0;
+        if (file == null) {
+            return;
+        }
+        final List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<String, From> entry : table.entrySet()) {
+            for (To to : entry.getValue().tos) {
+                rows.add(new Object[]{entry.getKey(), to.route, to.flutter, to.count});
+            }
+        }
+        final File saveFile = file;
+        journal.postBackground(new Runnable() {
+            @Override
+            public void run() {
+                write(saveFile, rows);
+            }
+        });
+    }
+
+    /**
+     * 文件格式：magic、行数，每行是来源页面、目标页面、目标是否是flutter页面、跳转次数
+     */
+    private static void write(File file, List<Object[]> rows) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tempFile));
+            out.writeInt(MAGIC);
+            out.writeInt(rows.size());
+            for (Object[] row : rows) {
+                out.writeUTF((String) row[0]);
+                out.writeUTF((String) row[1]);
+                out.writeBoolean((Boolean) row[2]);
+                out.writeInt((Integer) row[3]);
+            }
+            out.flush();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                DLog.logE("页面转移表保存失败");
+            }
+        } catch (IOException e) {
+            DLog.logE("页面转移表保存失败：" + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Map<String, From> read(File file) {
+        Map<String, From> result = new HashMap<>();
+        if (!file.exists()) {
+            return result;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC) {
+                return result;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String fromRoute = in.readUTF();
+                String toRoute = in.readUTF();
+                boolean flutter = in.readBoolean();
+                int toCount = in.readInt();
+                From from = result.get(fromRoute);
+                if (from == null) {
+                    from = new From();
+                    result.put(fromRoute, from);
+                }
+                from.add(toRoute, flutter, toCount);
+            }
+        } catch (IOException e) {
+            DLog.logE("页面转移表读取失败：" + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 来源页面的跳转记录
+     */
+    private static class From {
+        final List<To> tos = new ArrayList<>(MAX_TO_ROUTES);
+        int total;
+
+        void add(String route, boolean flutter, int count) {
+            To target = null;
+            for (To to : tos) {
+                if (to.route.equals(route)) {
+                    target = to;
+                    break;
+                }
+            }
+            if (target == null) {
+                if (tos.size() >= MAX_TO_ROUTES) {
+                    removeRarest();
+                }
+                target = new To(route, flutter);
+                tos.add(target);
+            }
+            target.flutter = flutter;
+            target.count += count;
+            total += count;
+            if (total > MAX_FROM_COUNT) {
+                halve();
+            }
+        }
+
+        To best() {
+            To best = null;
+            for (To to : tos) {
+                if (best == null || to.count > best.count) {
+                    best = to;
+                }
+            }
+            return best;
+        }
+
+        private void removeRarest() {
+            To rarest = null;
+            for (To to : tos) {
+                if (rarest == null || to.count < rarest.count) {
+                    rarest = to;
+                }
+            }
+            tos.remove(rarest);
+            total -= rarest.count;
+        }
+
+        private void halve() {
+            total = 0;
+            Iterator<To> iterator = tos.iterator();
+            while (iterator.hasNext()) {
+                To to = iterator.next();
+                to.count /= 2;
+                if (to.count == 0) {
+                    iterator.remove();
+                } else {
+                    total += to.count;
+                }
+            }
+        }
+    }
+
+    /**
+     * 目标页面的跳转次数
+     */
+    private static class To {
+        final String route;
+        boolean flutter;
+        int count;
+
+        To(String route, boolean flutter) {
+            this.route = route;
+            this.flutter = flutter;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package tal.com.d_stack.node;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import tal.com.d_stack.node.constants.DNodeActionType;
+import tal.com.d_stack.router.IPushDropListener;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 打开页面的去重和限流
+ * 连续点击时，短时间内会收到多次相同的打开页面操作，在进入DNodeManager.checkNode之前丢弃重复的操作
+ * 去重：去重窗口内路由、参数和动作都相同的打开操作只保留第一次
+ * 限流：同一个路由在限流窗口内最多打开指定次数
+ * 只处理native侧打开flutter页面和flutter侧打开native页面，flutter侧打开flutter页面时路由已经入栈，不能丢弃
+ * 只在主线程使用
+ */
+public class DNodePushThrottle {
+
+    //重复的打开操作
+    public static final int DROP_DUPLICATE = 1;
+    //超过路由的打开频率
+    public static final int DROP_RATE_LIMIT = 2;
+
+    //默认去重窗口
+    private static final long DEFAULT_DEDUP_WINDOW = 500;
+    //默认限流窗口
+    private static final long DEFAULT_RATE_WINDOW = 1000;
+    //默认限流窗口内同一个路由最多打开的次数
+    private static final int DEFAULT_RATE_LIMIT = 3;
+    //记录数超过这个值时清理过期记录
+    private static final int MAX_RECORD_SIZE = 32;
+
+    private long dedupWindow = DEFAULT_DEDUP_WINDOW;
+    private long rateWindow = DEFAULT_RATE_WINDOW;
+    private int rateLimit = DEFAULT_RATE_LIMIT;
+    //最近的打开操作，key是路由、动作和参数hash，value是时间
+    private final Map<String, Long> recentPushes = new HashMap<>();
+    //路由的限流窗口，key是路由
+    private final Map<String, RateWindow> rateWindows = new HashMap<>();
+    private int droppedDuplicateCount;
+    private int droppedRateLimitCount;
+    private IPushDropListener dropListener;
+
+    /**
+     * 判断打开操作是否需要丢弃，不丢弃时记录本次操作
+     */
+    public boolean shouldDrop(DNode node) {
+        if (!isThrottled(node)) {
+            return false;
+        }
+        long now = uptimeMillis();
+        String route = node.getTarget() == null ? "" : node.getTarget();
+        String key = node.getActionCode() + "|" + route + "|" + paramsHash(node);
+        if (dedupWindow > 0) {
+            Long lastTime = recentPushes.get(key);
+            if (lastTime != null && now - lastTime < dedupWindow) {
+                droppedDuplicateCount++;
+                onDropped(route, DROP_DUPLICATE, droppedDuplicateCount + droppedRateLimitCount);
+                return true;
+            }
+        }
+        if (rateLimit > 0) {
+            RateWindow window = rateWindows.get(route);
+            if (window == null) {
+                window = new RateWindow();
+                rateWindows.put(route, window);
+            }
+            if (now - window.start >= rateWindow) {
+                window.start = now;
+                window.count = 0;
+            }
+            if (window.count >= rateLimit) {
+                droppedRateLimitCount++;
+                onDropped(route, DROP_RATE_LIMIT, droppedDuplicateCount + droppedRateLimitCount);
+                return true;
+            }
+            window.count++;
+        }
+        recentPushes.put(key, now);
+        trim(now);
+        return false;
+    }
+
+    /**
+     * 清空记录，比如节点集合被重建时
+     */
+    public void reset() {
+        recentPushes.clear();
+        rateWindows.clear();
+    }
+
+    /**
+     * 设置去重窗口，单位毫秒，0表示不去重
+     */
+    public void setDedupWindow(long dedupWindow) {
+        this.dedupWindow = Math.max(0, dedupWindow);
+    }
+
+    public long getDedupWindow() {
+        return dedupWindow;
+    }
+
+    /**
+     * 设置同一个路由在限流窗口内最多打开的次数，0表示不限流
+     *
+     * @param rateLimit  最多打开的次数
+     * @param rateWindow 限流窗口，单位毫秒
+     */
+    public void setRateLimit(int rateLimit, long rateWindow) {
+        this.rateLimit = Math.max(0, rateLimit);
+        this.rateWindow = Math.max(0, rateWindow);
+        rateWindows.clear();
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public long getRateWindow() {
+        return rateWindow;
+    }
+
+    /**
+     * 因为重复被丢弃的次数
+     */
+    public int getDroppedDuplicateCount() {
+        return droppedDuplicateCount;
+    }
+
+    /**
+     * 因为限流被丢弃的次数
+     */
+    public int getDroppedRateLimitCount() {
+        return droppedRateLimitCount;
+    }
+
+    /**
+     * 设置丢弃监听
+     */
+    public void setDropListener(IPushDropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * 当前时间，单元测试中替换
+     */
+    long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * 只有native侧打开flutter页面和flutter侧打开native页面可以丢弃
+     */
+    private boolean isThrottled(DNode node) {
+        int action = node.getActionCode();
+        if (action != DNodeActionType.PUSH && action != DNodeActionType.PRESENT) {
+            return false;
+        }
+        if (node.isFromFlutter()) {
+            return node.isNative();
+        }
+        return node.isFlutter();
+    }
+
+    private int paramsHash(DNode node) {
+        Map<String, Object> params = node.getParams();
+        return params == null ? 0 : params.hashCode();
+    }
+
+    private void onDropped(String route, int reason, int droppedCount) {
+        DLog.logE("打开页面被丢弃，route：" + route + "，reason：" + reason);
+        if (dropListener != null) {
+            dropListener.onPushDropped(route, reason, droppedCount);
+        }
+    }
+
+    /**
+     * 清理过期的记录
+     */
+    private void trim(long now) {
+        if (recentPushes.size() > MAX_RECORD_SIZE) {
+            Iterator<Map.Entry<String, Long>> iterator = recentPushes.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().getValue() >= dedupWindow) {
+                    iterator.remove();
+                }
+            }
+        }
+        if (rateWindows.size() > MAX_RECORD_SIZE) {
+            Iterator<Map.Entry<String, RateWindow>> iterator = rateWindows.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().getValue().start >= rateWindow) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 路由的限流窗口
+     */
+    private static class RateWindow {
+        long start;
+        int count;
+    }
+}
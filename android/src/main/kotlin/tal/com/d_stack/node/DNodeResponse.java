@@ -15,6 +15,8 @@ public class DNodeResponse {
     public boolean animated = false;
     public boolean boundary = false;
     public String identifier = "";
+    //节点id，flutter侧回传时用来准确找到节点
+    public long id;
 
     @Override
     public String toString() {
@@ -28,6 +30,7 @@ public class DNodeResponse {
             jo.put("animated", animated);
             jo.put("boundary", boundary);
             jo.put("identifier", identifier);
+            jo.put("id", id);
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -44,6 +47,7 @@ public class DNodeResponse {
         map.put("animated", animated);
         map.put("boundary", boundary);
         map.put("identifier", identifier);
+        map.put("id", id);
         return map;
     }
 }
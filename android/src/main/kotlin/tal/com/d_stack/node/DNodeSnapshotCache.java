@@ -0,0 +1,141 @@
+package tal.com.d_stack.node;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.PixelCopy;
+import android.view.View;
+import android.view.Window;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 页面截图缓存，用于预测性返回手势的预览
+ * 页面被新页面覆盖时，用PixelCopy异步复制页面所在窗口的画面，native页面和flutter页面都一样处理，不阻塞主线程也不需要引擎读回画面
+ * 返回手势拖动时直接显示下面页面的截图，引擎只渲染当前页面，拖动过程中不需要和flutter侧通信
+ * 截图按比例缩小保存，只保留最近覆盖的几个页面，节点出栈时释放
+ * 预测性返回需要Android 14及以上，更低的版本开启无效，默认关闭，只在主线程使用
+ */
+public class DNodeSnapshotCache {
+
+    //预测性返回的最低版本，Android 14
+    static final int MIN_SDK = 34;
+    //截图缩放比例，预览时页面本身也会缩小，不需要原始分辨率
+    private static final float SCALE = 0.5f;
+    //最多保留的截图，返回手势只会用到栈顶下面的页面
+    private static final int MAX_SNAPSHOTS = 2;
+
+    private boolean enabled;
+    //key是节点id，按截图顺序排列
+    private final LinkedHashMap<Long, Bitmap> snapshots = new LinkedHashMap<>();
+    private Handler mainHandler;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled && Build.VERSION.SDK_INT >= MIN_SDK;
+        if (!this.enabled) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 节点被新页面覆盖，在新页面显示之前截图
+     */
+    void onNodeCovered(DNode node) {
+        if (!enabled || Build.VERSION.SDK_INT < MIN_SDK || node == null || node.getActivity() == null) {
+            return;
+        }
+        Activity activity = node.getActivity().get();
+        if (activity == null || activity.isFinishing()) {
+            return;
+        }
+        Window window = activity.getWindow();
+        View decorView = window == null ? null : window.getDecorView();
+        if (decorView == null) {
+            return;
+        }
+        int width = (int) (decorView.getWidth() * SCALE);
+        int height = (int) (decorView.getHeight() * SCALE);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        final long id = node.getId();
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        //PixelCopy按目标bitmap的大小缩放
+        PixelCopy.request(window, bitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+            @Override
+            public void onPixelCopyFinished(int copyResult) {
+                onCaptured(id, bitmap, copyResult == PixelCopy.SUCCESS);
+            }
+        }, mainHandler);
+    }
+
+    /**
+     * 截图完成，节点在截图期间已经出栈或者截图失败时丢弃
+     */
+    private void onCaptured(long id, Bitmap bitmap, boolean success) {
+        if (!enabled || !success || DNodeManager.getInstance().findNodeById(id) == null) {
+            bitmap.recycle();
+            return;
+        }
+        remove(id);
+        snapshots.put(id, bitmap);
+        Iterator<Map.Entry<Long, Bitmap>> iterator = snapshots.entrySet().iterator();
+        while (snapshots.size() > MAX_SNAPSHOTS && iterator.hasNext()) {
+            iterator.next().getValue().recycle();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 获取节点的截图，没有时返回null
+     */
+    public Bitmap get(long id) {
+        return snapshots.get(id);
+    }
+
+    /**
+     * 释放节点的截图
+     */
+    void remove(long id) {
+        if (snapshots.isEmpty()) {
+            //每个节点出栈都会调用，没有截图时不装箱id
+            return;
+        }
+        Bitmap bitmap = snapshots.remove(id);
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 释放所有截图
+     */
+    public void clear() {
+        for (Bitmap bitmap : snapshots.values()) {
+            bitmap.recycle();
+        }
+        snapshots.clear();
+    }
+
+    /**
+     * 截图占用的字节数
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Bitmap bitmap : snapshots.values()) {
+            bytes += bitmap.getAllocationByteCount();
+        }
+        return bytes;
+    }
+}
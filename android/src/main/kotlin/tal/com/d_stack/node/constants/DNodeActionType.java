@@ -1,6 +1,7 @@
 package tal.com.d_stack.node.constants;
 
 // 跳转类型
+// 框架内部使用int类型的跳转类型，只在消息通道和对外接口处和字符串互相转换
 public class DNodeActionType {
 
     // push跳转android
@@ -32,4 +33,72 @@ public class DNodeActionType {
 
     //pushAndRemoveUntil
     public static final String DNodeActionPushAndRemoveUntil = "pushAndRemoveUntil";
+
+    //多步导航事务，合并后的节点变化
+    public static final String DNodeActionTypeTransaction = "transaction";
+
+    //flutter页面休眠，释放页面内容
+    public static final String DNodeActionTypeEvict = "evict";
+
+    //按标识移除flutter页面，不影响栈顶页面
+    public static final String DNodeActionTypeRemove = "remove";
+
+    // 未知跳转类型
+    public static final int UNKNOWN = 0;
+    public static final int PUSH = 1;
+    public static final int PRESENT = 2;
+    public static final int POP = 3;
+    public static final int POP_TO = 4;
+    public static final int POP_TO_ROOT = 5;
+    public static final int POP_SKIP = 6;
+    public static final int GESTURE = 7;
+    public static final int DISSMISS = 8;
+    public static final int REPLACE = 9;
+    public static final int PUSH_AND_REMOVE_UNTIL = 10;
+    public static final int TRANSACTION = 11;
+    public static final int EVICT = 12;
+    public static final int REMOVE = 13;
+
+    //下标是int类型，值是对应的字符串类型
+    private static final String[] NAMES = {
+            "",
+            DNodeActionTypePush,
+            DNodeActionTypePresent,
+            DNodeActionTypePop,
+            DNodeActionTypePopTo,
+            DNodeActionTypePopToRoot,
+            DNodeActionTypePopSkip,
+            DNodeActionTypeGesture,
+            DNodeActionTypeDissmiss,
+            DNodeActionTypeReplace,
+            DNodeActionPushAndRemoveUntil,
+            DNodeActionTypeTransaction,
+            DNodeActionTypeEvict,
+            DNodeActionTypeRemove,
+    };
+
+    /**
+     * 字符串跳转类型转换为int类型，无法识别时返回UNKNOWN
+     */
+    public static int toCode(String action) {
+        if (action == null) {
+            return UNKNOWN;
+        }
+        for (int i = 1; i < NAMES.length; i++) {
+            if (NAMES[i].equals(action)) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * int类型跳转类型转换为字符串类型，无法识别时返回空字符串
+     */
+    public static String toName(int code) {
+        if (code < 0 || code >= NAMES.length) {
+            return NAMES[UNKNOWN];
+        }
+        return NAMES[code];
+    }
 }
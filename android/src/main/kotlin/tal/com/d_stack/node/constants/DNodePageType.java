@@ -1,6 +1,7 @@
 package tal.com.d_stack.node.constants;
 
 // 页面类型
+// 框架内部使用int类型的页面类型，只在消息通道和对外接口处和字符串互相转换
 public class DNodePageType {
 
     // 原生页面
@@ -9,4 +10,35 @@ public class DNodePageType {
     // Flutter页面
     public static final String DNodePageTypeFlutter = "flutter";
 
+    // 未知页面类型
+    public static final int UNKNOWN = 0;
+    public static final int NATIVE = 1;
+    public static final int FLUTTER = 2;
+
+    /**
+     * 字符串页面类型转换为int类型，无法识别时返回UNKNOWN
+     */
+    public static int toCode(String pageType) {
+        if (DNodePageTypeNative.equals(pageType)) {
+            return NATIVE;
+        }
+        if (DNodePageTypeFlutter.equals(pageType)) {
+            return FLUTTER;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * int类型页面类型转换为字符串类型，无法识别时返回空字符串
+     */
+    public static String toName(int code) {
+        switch (code) {
+            case NATIVE:
+                return DNodePageTypeNative;
+            case FLUTTER:
+                return DNodePageTypeFlutter;
+            default:
+                return "";
+        }
+    }
 }
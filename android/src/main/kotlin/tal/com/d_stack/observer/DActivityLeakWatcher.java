@@ -0,0 +1,270 @@
+package tal.com.d_stack.observer;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tal.com.d_stack.router.IActivityLeakListener;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * activity泄漏检测
+ * activity销毁后用弱引用观察，延迟一段时间并触发GC后仍然能访问到就认为泄漏
+ * 泄漏时估算activity持有的view树、图片和渲染surface的大小，写日志并通知监听者
+ * GC在后台线程触发，不阻塞主线程；主动GC有成本，默认只在debug包开启
+ * 每个activity只报告一次，除GC外只在主线程使用
+ */
+public class DActivityLeakWatcher {
+
+    //销毁后等待多久检查，给主线程上还没执行完的消息释放引用的时间
+    private static final long CHECK_DELAY = 5000;
+    //最多同时观察的activity
+    private static final int MAX_WATCHED = 32;
+    //单个view的估算大小，包括view对象、布局参数和绘制状态
+    private static final int VIEW_SIZE = 512;
+    //估算surface占用时使用的缓冲区数量
+    private static final int SURFACE_BUFFER_COUNT = 3;
+
+    private final static AtomicReference<DActivityLeakWatcher> INSTANCE = new AtomicReference<>();
+
+    public static DActivityLeakWatcher getInstance() {
+        for (; ; ) {
+            DActivityLeakWatcher factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DActivityLeakWatcher();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Watched> watchedList = new ArrayList<>();
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+    //在后台线程触发GC，完成后回到主线程确认
+    private final Runnable gcRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+            handler.post(confirmRunnable);
+        }
+    };
+    private final Runnable confirmRunnable = new Runnable() {
+        @Override
+        public void run() {
+            confirm();
+        }
+    };
+    //触发GC的后台线程，第一次需要GC时创建
+    private Handler gcHandler;
+    //是否正在等待后台GC完成
+    private boolean gcPending;
+    private boolean enabled = DLog.isDebug();
+    private IActivityLeakListener leakListener;
+    private int leakCount;
+    private long leakedBytes;
+
+    private DActivityLeakWatcher() {
+    }
+
+    /**
+     * 设置是否开启泄漏检测，debug包默认开启，release包默认关闭
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            watchedList.clear();
+            handler.removeCallbacks(checkRunnable);
+            handler.removeCallbacks(confirmRunnable);
+        }
+    }
+
+    public void setLeakListener(IActivityLeakListener leakListener) {
+        this.leakListener = leakListener;
+    }
+
+    /**
+     * 观察已经销毁的activity
+     */
+    public void watch(Activity activity) {
+        if (!enabled || activity == null) {
+            return;
+        }
+        for (Watched watched : watchedList) {
+            if (watched.reference.get() == activity) {
+                return;
+            }
+        }
+        if (watchedList.size() >= MAX_WATCHED) {
+            watchedList.remove(0);
+        }
+        watchedList.add(new Watched(activity));
+        if (gcPending) {
+            //正在等待GC，确认后会重新安排检查
+            return;
+        }
+        handler.removeCallbacks(checkRunnable);
+        handler.postDelayed(checkRunnable, CHECK_DELAY);
+    }
+
+    /**
+     * 确认泄漏的activity数量
+     */
+    public int getLeakCount() {
+        return leakCount;
+    }
+
+    /**
+     * 确认泄漏的activity估算持有的总字节数
+     */
+    public long getLeakedBytes() {
+        return leakedBytes;
+    }
+
+    /**
+     * 检查到期的activity，还能访问到的先在后台线程触发一次GC，GC完成后再确认
+     */
+    private void check() {
+        if (gcPending) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        boolean due = false;
+        Iterator<Watched> iterator = watchedList.iterator();
+        while (iterator.hasNext()) {
+            Watched watched = iterator.next();
+            if (watched.reference.get() == null) {
+                iterator.remove();
+            } else if (now - watched.destroyedTime >= CHECK_DELAY) {
+                due = true;
+            }
+        }
+        if (due) {
+            requestGc();
+        } else if (!watchedList.isEmpty()) {
+            handler.postDelayed(checkRunnable, CHECK_DELAY);
+        }
+    }
+
+    private void requestGc() {
+        if (gcHandler == null) {
+            HandlerThread thread = new HandlerThread("d_stack_leak", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            gcHandler = new Handler(thread.getLooper());
+        }
+        gcPending = true;
+        gcHandler.post(gcRunnable);
+    }
+
+    /**
+     * GC完成后在主线程确认，到期后仍然能访问到的activity认为泄漏
+     */
+    private void confirm() {
+        gcPending = false;
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Watched> iterator = watchedList.iterator();
+        while (iterator.hasNext()) {
+            Watched watched = iterator.next();
+            Activity activity = watched.reference.get();
+            if (activity == null) {
+                iterator.remove();
+                continue;
+            }
+            if (now - watched.destroyedTime < CHECK_DELAY) {
+                continue;
+            }
+            iterator.remove();
+            report(activity, now - watched.destroyedTime);
+        }
+        if (!watchedList.isEmpty()) {
+            handler.postDelayed(checkRunnable, CHECK_DELAY);
+        }
+    }
+
+    private void report(Activity activity, long leakedTime) {
+        long retainedBytes = 0;
+        if (activity.getWindow() != null) {
+            retainedBytes = estimateRetainedSize(activity.getWindow().getDecorView());
+        }
+        leakCount++;
+        leakedBytes += retainedBytes;
+        String name = activity.getClass().getName();
+        DLog.logE("activity泄漏：" + name + "，估算持有：" + retainedBytes + "字节，销毁后：" + leakedTime + "ms");
+        if (leakListener != null) {
+            leakListener.onActivityLeaked(name, retainedBytes, leakedTime);
+        }
+    }
+
+    /**
+     * 估算view树持有的字节数，只用来发现问题和比较大小，不追求精确
+     */
+    static long estimateRetainedSize(View view) {
+        if (view == null) {
+            return 0;
+        }
+        long size = VIEW_SIZE + drawableSize(view.getBackground());
+        if (view instanceof ImageView) {
+            size += drawableSize(((ImageView) view).getDrawable());
+        }
+        if (view instanceof SurfaceView || view instanceof TextureView) {
+            size += (long) view.getWidth() * view.getHeight() * 4 * SURFACE_BUFFER_COUNT;
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            int count = group.getChildCount();
+            for (int i = 0; i < count; i++) {
+                size += estimateRetainedSize(group.getChildAt(i));
+            }
+        }
+        return size;
+    }
+
+    private static long drawableSize(Drawable drawable) {
+        if (!(drawable instanceof BitmapDrawable)) {
+            return 0;
+        }
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        if (bitmap == null || bitmap.isRecycled()) {
+            return 0;
+        }
+        return bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * 观察中的activity
+     */
+    private static class Watched {
+        final WeakReference<Activity> reference;
+        final long destroyedTime;
+
+        Watched(Activity activity) {
+            this.reference = new WeakReference<>(activity);
+            this.destroyedTime = SystemClock.elapsedRealtime();
+        }
+    }
+}
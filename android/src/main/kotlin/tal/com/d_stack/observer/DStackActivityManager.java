@@ -2,8 +2,12 @@ package tal.com.d_stack.observer;
 
 import android.app.Activity;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.flutter.embedding.android.DFlutterActivity;
@@ -15,6 +19,9 @@ import tal.com.d_stack.utils.DLog;
 
 /**
  * activity的栈管理
+ * 按task分成多个栈，FLAG_ACTIVITY_NEW_TASK打开的页面、分屏和自由窗口里的页面不会混在同一个栈里
+ * 栈顶activity取当前task的栈顶，当前task是最近创建或者回到前台的activity所在的task
+ * 只用弱引用持有activity，漏掉销毁回调时不会泄漏activity，并且交给DActivityLeakWatcher检查
  */
 public class DStackActivityManager {
 
@@ -33,36 +40,51 @@ public class DStackActivityManager {
         }
     }
 
-    //activity栈集合
-    private List<Activity> activities;
-    // Host栈
-    private List<DFlutterPageDelegate.Host> hostList;
-    //栈顶activity
-    private Activity topActivity;
-    //栈底activity
-    private Activity bottomActivity;
+    //按task id保存的activity栈，按task创建顺序排列，第一个是应用启动的task
+    private final Map<Integer, DStackTask> tasks;
+    //activity所在的task，跨task查找时不需要遍历所有栈
+    private final Map<Activity, DStackTask> activityTasks;
+    //当前task
+    private DStackTask currentTask;
     //需要移除出栈的activity集合
-    private List<Activity> needRemoveActivities;
+    private final List<WeakReference<Activity>> needRemoveActivities;
     //正在执行activity栈清除操作
     private boolean executeStack;
     //是否需要重新attach引擎
     private boolean needReAttachEngine = false;
+    //因为配置变化正在重建的activity在栈中的位置，-1表示没有
+    private int recreatingIndex = -1;
+    private int recreatingTaskId;
+    private Class<?> recreatingClass;
+    //flutter容器因为配置变化解绑了引擎，新容器创建时不需要再解绑上一个容器
+    private boolean configChangeDetached;
+    //配置变化重建的次数和估算节省的时间，单位微秒
+    private int configChangeCount;
+    private long configChangeSavedTime;
+    //正常出栈和入栈的累计耗时和次数，单位纳秒，用来估算配置变化时节省的时间
+    private long popCost;
+    private int popCount;
+    private long pushCost;
+    private int pushCount;
 
     private DStackActivityManager() {
-        activities = new ArrayList<>();
-        hostList = new ArrayList<>();
+        tasks = new LinkedHashMap<>();
+        activityTasks = new WeakHashMap<>();
         needRemoveActivities = new ArrayList<>();
     }
 
     /**
-     * 栈增加activity
+     * 栈增加activity，放到所在task的栈顶
      */
     public void addActivity(Activity activity) {
         if (activity == null) {
             return;
         }
-        activities.add(activity);
-        setBottomAndTopActivity();
+        pruneActivities();
+        DStackTask task = obtainTask(activity.getTaskId());
+        task.add(activity);
+        activityTasks.put(activity, task);
+        currentTask = task;
     }
 
     /**
@@ -72,51 +94,239 @@ public class DStackActivityManager {
         if (activity == null) {
             return;
         }
-        activities.remove(activity);
+        DStackTask task = activityTasks.remove(activity);
+        if (task != null) {
+            int index = task.indexOf(activity);
+            if (index >= 0) {
+                task.remove(index);
+            }
+            removeTaskIfEmpty(task);
+        }
         handleReAttachEngine(activity);
         handleNeedRemoveActivities(activity);
-        setBottomAndTopActivity();
+        DActivityLeakWatcher.getInstance().watch(activity);
     }
 
-    public void addHost(DFlutterPageDelegate.Host host) {
-        if (host == null) {
+    /**
+     * activity回到前台，切换当前task
+     * 分屏或者从最近任务切换task时，后续的栈顶activity和容器查找都在这个task里进行
+     */
+    public void setCurrentActivity(Activity activity) {
+        DStackTask task = activityTasks.get(activity);
+        if (task != null && task != currentTask) {
+            DLog.logD("切换task：" + (currentTask == null ? null : currentTask.getTaskId()) + " -> " + task.getTaskId());
+            currentTask = task;
+        }
+    }
+
+    /**
+     * 移除已经被回收或者已经销毁但没有收到销毁回调的activity
+     * 没有收到销毁回调的activity交给泄漏检测观察
+     */
+    private void pruneActivities() {
+        for (DStackTask task : new ArrayList<>(tasks.values())) {
+            for (int i = task.size() - 1; i >= 0; i--) {
+                Activity activity = task.get(i);
+                if (activity == null) {
+                    task.remove(i);
+                } else if (activity.isDestroyed()) {
+                    DLog.logE("activity没有收到销毁回调：" + activity.getClass().getName());
+                    task.remove(i);
+                    activityTasks.remove(activity);
+                    DActivityLeakWatcher.getInstance().watch(activity);
+                }
+            }
+            removeTaskIfEmpty(task);
+        }
+    }
+
+    private DStackTask obtainTask(int taskId) {
+        DStackTask task = tasks.get(taskId);
+        if (task == null) {
+            task = new DStackTask(taskId);
+            tasks.put(taskId, task);
+        }
+        return task;
+    }
+
+    /**
+     * 移除空的task，当前task为空时切换到最近创建的task
+     */
+    private void removeTaskIfEmpty(DStackTask task) {
+        if (!task.isEmpty()) {
             return;
         }
-        hostList.add(host);
+        tasks.remove(task.getTaskId());
+        if (currentTask == task) {
+            currentTask = null;
+            for (DStackTask loopTask : tasks.values()) {
+                currentTask = loopTask;
+            }
+        }
     }
 
-    public void removeHost(DFlutterPageDelegate.Host host) {
-        if (host == null) {
+    /**
+     * 获取activity所在的task，不在栈里时返回null
+     */
+    public DStackTask getTask(Activity activity) {
+        return activityTasks.get(activity);
+    }
+
+    /**
+     * 获取task id对应的栈，没有时返回null
+     */
+    public DStackTask getTask(int taskId) {
+        return tasks.get(taskId);
+    }
+
+    /**
+     * 获取当前task
+     */
+    public DStackTask getCurrentTask() {
+        return currentTask;
+    }
+
+    /**
+     * 获取所有task，第一个是应用启动的task
+     */
+    public List<DStackTask> getTasks() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    /**
+     * 查找activity在弱引用集合中的位置
+     */
+    private static int indexOf(List<WeakReference<Activity>> list, Activity activity) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).get() == activity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * activity因为配置变化销毁，移出栈但记住位置，等重建的activity放回原位
+     * 不处理重新绑定引擎和待关闭的activity，这些状态在重建前后不变
+     */
+    public void removeActivityForConfigChange(Activity activity) {
+        if (activity == null) {
             return;
         }
-        hostList.remove(host);
+        DStackTask task = activityTasks.remove(activity);
+        recreatingIndex = task == null ? -1 : task.indexOf(activity);
+        if (recreatingIndex < 0) {
+            return;
+        }
+        recreatingClass = activity.getClass();
+        recreatingTaskId = task.getTaskId();
+        //task暂时为空时也保留，重建的activity放回同一个task
+        task.remove(recreatingIndex);
     }
 
     /**
-     * 设置栈顶和栈底Activity
+     * 配置变化重建的activity放回原来的位置
+     *
+     * @return 是否是正在重建的activity，不是时按新打开的activity处理
      */
-    public void setBottomAndTopActivity() {
-        if (activities == null || activities.size() == 0) {
-            topActivity = null;
-            bottomActivity = null;
-        } else {
-            topActivity = activities.get(activities.size() - 1);
-            bottomActivity = activities.get(0);
+    public boolean addRecreatedActivity(Activity activity) {
+        if (activity == null || recreatingIndex < 0 || activity.getClass() != recreatingClass
+                || activity.getTaskId() != recreatingTaskId) {
+            return false;
         }
+        DStackTask task = obtainTask(recreatingTaskId);
+        task.add(recreatingIndex, activity);
+        activityTasks.put(activity, task);
+        currentTask = task;
+        recreatingIndex = -1;
+        recreatingClass = null;
+        return true;
+    }
+
+    /**
+     * 设置flutter容器因为配置变化解绑了引擎
+     */
+    public void setConfigChangeDetached(boolean configChangeDetached) {
+        this.configChangeDetached = configChangeDetached;
     }
 
     /**
-     * 获取栈顶Activity
+     * flutter容器是否因为配置变化解绑了引擎，读取后清除
+     */
+    public boolean consumeConfigChangeDetached() {
+        boolean detached = configChangeDetached;
+        configChangeDetached = false;
+        return detached;
+    }
+
+    /**
+     * 记录一次正常出栈的耗时，单位纳秒
+     */
+    void recordPopCost(long cost) {
+        popCost += cost;
+        popCount++;
+    }
+
+    /**
+     * 记录一次正常入栈的耗时，单位纳秒
+     */
+    void recordPushCost(long cost) {
+        pushCost += cost;
+        pushCount++;
+    }
+
+    /**
+     * 记录一次配置变化重建，按正常出栈和入栈的平均耗时减去重新绑定的耗时估算节省的时间
+     *
+     * @param cost 重新绑定节点的耗时，单位纳秒
+     */
+    void recordConfigChange(long cost) {
+        configChangeCount++;
+        long normalCost = (popCount == 0 ? 0 : popCost / popCount) + (pushCount == 0 ? 0 : pushCost / pushCount);
+        configChangeSavedTime += Math.max(0, normalCost - cost) / 1000;
+    }
+
+    /**
+     * 配置变化重建的次数
+     */
+    public int getConfigChangeCount() {
+        return configChangeCount;
+    }
+
+    /**
+     * 配置变化重建估算节省的总时间，单位微秒
+     */
+    public long getConfigChangeSavedTime() {
+        return configChangeSavedTime;
+    }
+
+    /**
+     * 登记flutter容器，容器由delegate自己登记到DStackHostRegistry，这里保留给旧的调用方
+     */
+    public void addHost(DFlutterPageDelegate.Host host) {
+        DStackHostRegistry.getInstance().register(host);
+    }
+
+    public void removeHost(DFlutterPageDelegate.Host host) {
+        DStackHostRegistry.getInstance().unregister(host);
+    }
+
+    /**
+     * 获取当前task的栈顶Activity
      */
     public Activity getTopActivity() {
-        return topActivity;
+        return currentTask == null ? null : currentTask.getTopActivity();
+    }
+
+    /**
+     * 获取所有flutter容器，最后一个是最近创建的
+     */
+    public List<DFlutterPageDelegate.Host> getHosts() {
+        return DStackHostRegistry.getInstance().getHosts();
     }
 
     public DFlutterPageDelegate.Host getLastHost() {
-        if (hostList == null || hostList.size() <= 1) {
-            return null;
-        }
-        return hostList.get(hostList.size() - 2);
+        return DStackHostRegistry.getInstance().getLastHost();
     }
 
 
@@ -124,10 +334,9 @@ public class DStackActivityManager {
      * 判断栈顶的activity是否和要打开的activity是同一个activity
      */
     public boolean isSameActivity(Class<?> needOpenActivity) {
+        Activity topActivity = getTopActivity();
         if (topActivity != null && needOpenActivity != null) {
-            String topActivityName = topActivity.getClass().getSimpleName();
-            String needOpenActivityName = needOpenActivity.getSimpleName();
-            return topActivityName.trim().equals(needOpenActivityName.trim());
+            return topActivity.getClass() == needOpenActivity;
         }
         return false;
     }
@@ -136,6 +345,7 @@ public class DStackActivityManager {
      * 关闭栈顶activity
      */
     public void closeTopActivity() {
+        Activity topActivity = getTopActivity();
         if (topActivity == null) {
             return;
         }
@@ -146,6 +356,7 @@ public class DStackActivityManager {
      * 关闭栈顶的flutter控制器activity
      */
     public void closeTopFlutterActivity() {
+        Activity topActivity = getTopActivity();
         if (topActivity == null) {
             return;
         }
@@ -166,7 +377,7 @@ public class DStackActivityManager {
     }
 
     /**
-     * 把该节点对应activity之上的所有activity关闭
+     * 把该节点对应activity之上的所有activity关闭，只关闭同一个task里的activity
      */
     public void closeActivityWithNode(DNode node) {
         if (node == null || node.getActivity() == null) {
@@ -175,9 +386,16 @@ public class DStackActivityManager {
         boolean find = false;
         needRemoveActivities.clear();
         Activity activity = node.getActivity().get();
-        for (int i = activities.size() - 1; i >= 0; i--) {
-            Activity tempActivity = activities.get(i);
-            if (tempActivity != activity) {
+        DStackTask task = activityTasks.get(activity);
+        if (task == null) {
+            return;
+        }
+        for (int i = task.size() - 1; i >= 0; i--) {
+            WeakReference<Activity> tempActivity = task.getReference(i);
+            if (tempActivity.get() == null) {
+                continue;
+            }
+            if (tempActivity.get() != activity) {
                 needRemoveActivities.add(tempActivity);
             } else {
                 find = true;
@@ -189,7 +407,7 @@ public class DStackActivityManager {
                 return;
             }
             executeStack = true;
-            needRemoveActivities.get(0).finish();
+            finishFirstNeedRemoveActivity();
         } else {
             needRemoveActivities.clear();
         }
@@ -203,14 +421,28 @@ public class DStackActivityManager {
             return;
         }
         DLog.logE("被关闭的Activity是：" + activity.getClass().getName());
-        needRemoveActivities.remove(activity);
-        if (needRemoveActivities.size() == 0) {
-            //activity栈的处理完成
-            executeStack = false;
-            return;
+        int index = indexOf(needRemoveActivities, activity);
+        if (index >= 0) {
+            needRemoveActivities.remove(index);
         }
         //继续取集合第一个activity进行关闭
-        needRemoveActivities.get(0).finish();
+        finishFirstNeedRemoveActivity();
+    }
+
+    /**
+     * 关闭待移除集合的第一个activity，已经被回收的直接跳过
+     */
+    private void finishFirstNeedRemoveActivity() {
+        while (needRemoveActivities.size() > 0) {
+            Activity activity = needRemoveActivities.get(0).get();
+            if (activity != null) {
+                activity.finish();
+                return;
+            }
+            needRemoveActivities.remove(0);
+        }
+        //activity栈的处理完成
+        executeStack = false;
     }
 
     /**
@@ -222,19 +454,32 @@ public class DStackActivityManager {
     }
 
     /**
-     * 获取栈内Activity数量
+     * 获取所有task里还没有被回收的activity，按task创建顺序，每个task从栈底到栈顶
+     */
+    public List<Activity> getActivities() {
+        List<Activity> result = new ArrayList<>();
+        for (DStackTask task : tasks.values()) {
+            result.addAll(task.getActivities());
+        }
+        return result;
+    }
+
+    /**
+     * 获取所有task里的Activity数量
      */
     public int getActivitiesSize() {
-        if (activities == null) {
-            return 0;
+        int size = 0;
+        for (DStackTask task : tasks.values()) {
+            size += task.size();
         }
-        return activities.size();
+        return size;
     }
 
     /**
-     * 判断当前工程是否是一个纯Flutter工程
+     * 判断当前工程是否是一个纯Flutter工程，按应用启动的task的栈底判断
      */
     public boolean isFlutterApp() {
+        Activity bottomActivity = tasks.isEmpty() ? null : tasks.values().iterator().next().getBottomActivity();
         if (bottomActivity == null) {
             return true;
         }
@@ -274,7 +519,7 @@ public class DStackActivityManager {
                 activity instanceof FlutterActivity ||
                         activity instanceof DFlutterActivity ||
                         activity instanceof FlutterFragmentActivity) {
-            for (Activity tempActivity : activities) {
+            for (Activity tempActivity : getActivities()) {
                 if (tempActivity instanceof FlutterActivity ||
                         tempActivity instanceof DFlutterActivity ||
                         tempActivity instanceof FlutterFragmentActivity) {
@@ -300,12 +545,14 @@ public class DStackActivityManager {
     }
 
     /**
-     * 栈里是否有flutter控制器
+     * 所有task里是否有flutter控制器，所有容器共用一个引擎和Navigator，不区分task
      */
     public boolean haveFlutterContainer() {
-        for (Activity activity : activities) {
-            if (isFlutterActivity(activity)) {
-                return true;
+        for (DStackTask task : tasks.values()) {
+            for (Activity activity : task.getActivities()) {
+                if (isFlutterActivity(activity)) {
+                    return true;
+                }
             }
         }
         return false;
@@ -0,0 +1,170 @@
+package tal.com.d_stack.observer;
+
+import android.app.Activity;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.embedding.android.DFlutterPageDelegate;
+import io.flutter.embedding.android.FlutterView;
+
+/**
+ * flutter容器注册表
+ * 容器的delegate在创建时登记activity、Host和FlutterView，销毁时移除
+ * 通过activity或Host直接查到对应的记录，不再用反射读取delegate和flutterView
+ * 只用弱引用持有，漏掉销毁时不会泄漏容器，activity和Host都没有重写equals，WeakHashMap按对象比较
+ * 只在主线程使用
+ */
+public class DStackHostRegistry {
+
+    private final static AtomicReference<DStackHostRegistry> INSTANCE = new AtomicReference<>();
+
+    public static DStackHostRegistry getInstance() {
+        for (; ; ) {
+            DStackHostRegistry factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DStackHostRegistry();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    //按创建顺序排列的容器，最后一个是最近创建的
+    private final List<WeakReference<DFlutterPageDelegate.Host>> hosts = new ArrayList<>();
+    private final Map<DFlutterPageDelegate.Host, Record> hostRecords = new WeakHashMap<>();
+    private final Map<Activity, Record> activityRecords = new WeakHashMap<>();
+
+    private DStackHostRegistry() {
+    }
+
+    /**
+     * 登记容器，delegate的onCreate调用
+     */
+    public void register(DFlutterPageDelegate.Host host) {
+        if (host == null || hostRecords.containsKey(host)) {
+            return;
+        }
+        Record record = new Record(host);
+        hostRecords.put(host, record);
+        Activity activity = host.getActivity();
+        if (activity != null) {
+            activityRecords.put(activity, record);
+        }
+        pruneHosts();
+        hosts.add(new WeakReference<>(host));
+    }
+
+    /**
+     * 登记容器创建的FlutterView，delegate创建FlutterView后调用
+     */
+    public void setFlutterView(DFlutterPageDelegate.Host host, FlutterView flutterView) {
+        Record record = hostRecords.get(host);
+        if (record != null) {
+            record.flutterView = new WeakReference<>(flutterView);
+        }
+    }
+
+    /**
+     * 移除容器，delegate销毁时调用
+     */
+    public void unregister(DFlutterPageDelegate.Host host) {
+        if (host == null || hostRecords.remove(host) == null) {
+            return;
+        }
+        Activity activity = host.getActivity();
+        if (activity != null) {
+            activityRecords.remove(activity);
+        }
+        for (int i = hosts.size() - 1; i >= 0; i--) {
+            if (hosts.get(i).get() == host) {
+                hosts.remove(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 获取activity对应的容器，不是登记过的flutter容器时返回null
+     */
+    public DFlutterPageDelegate.Host getHost(Activity activity) {
+        Record record = activityRecords.get(activity);
+        return record == null ? null : record.host.get();
+    }
+
+    /**
+     * 获取activity对应的FlutterView，不是登记过的flutter容器时返回null
+     */
+    public FlutterView getFlutterView(Activity activity) {
+        Record record = activityRecords.get(activity);
+        return record == null ? null : record.getFlutterView();
+    }
+
+    /**
+     * 获取容器对应的FlutterView
+     */
+    public FlutterView getFlutterView(DFlutterPageDelegate.Host host) {
+        Record record = hostRecords.get(host);
+        return record == null ? null : record.getFlutterView();
+    }
+
+    /**
+     * 所有登记的容器，最后一个是最近创建的
+     */
+    public List<DFlutterPageDelegate.Host> getHosts() {
+        pruneHosts();
+        List<DFlutterPageDelegate.Host> result = new ArrayList<>(hosts.size());
+        for (WeakReference<DFlutterPageDelegate.Host> reference : hosts) {
+            DFlutterPageDelegate.Host host = reference.get();
+            if (host != null) {
+                result.add(host);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 倒数第二个容器，最近创建的容器销毁前用来找到需要重新绑定引擎的容器
+     */
+    public DFlutterPageDelegate.Host getLastHost() {
+        pruneHosts();
+        int size = hosts.size();
+        if (size <= 1) {
+            return null;
+        }
+        return hosts.get(size - 2).get();
+    }
+
+    /**
+     * 移除已经被回收的容器
+     */
+    private void pruneHosts() {
+        for (int i = hosts.size() - 1; i >= 0; i--) {
+            if (hosts.get(i).get() == null) {
+                hosts.remove(i);
+            }
+        }
+    }
+
+    /**
+     * 单个容器的登记信息
+     */
+    private static class Record {
+        final WeakReference<DFlutterPageDelegate.Host> host;
+        WeakReference<FlutterView> flutterView;
+
+        Record(DFlutterPageDelegate.Host host) {
+            this.host = new WeakReference<>(host);
+        }
+
+        FlutterView getFlutterView() {
+            return flutterView == null ? null : flutterView.get();
+        }
+    }
+}
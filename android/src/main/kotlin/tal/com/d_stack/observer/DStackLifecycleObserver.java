@@ -3,18 +3,28 @@ package tal.com.d_stack.observer;
 import android.app.Activity;
 import android.app.Application;
 import android.os.Bundle;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import io.flutter.embedding.android.FlutterView;
+import tal.com.d_stack.DStack;
+import tal.com.d_stack.DStackDeepLink;
+import tal.com.d_stack.jank.DJankMonitor;
+import tal.com.d_stack.lifecycle.AppStateMachine;
 import tal.com.d_stack.lifecycle.PageLifecycleManager;
 import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.node.DNodeIdService;
 import tal.com.d_stack.node.DNodeManager;
 import tal.com.d_stack.node.constants.DNodeActionType;
 import tal.com.d_stack.node.constants.DNodePageType;
+import tal.com.d_stack.result.DResultManager;
 import tal.com.d_stack.utils.DLog;
 import tal.com.d_stack.utils.DStackUtils;
 
@@ -23,33 +33,76 @@ import tal.com.d_stack.utils.DStackUtils;
  */
 public class DStackLifecycleObserver implements Application.ActivityLifecycleCallbacks {
 
-    private int appCount = 0;
-    //app是否在前台
-    private boolean isFrontApp = true;
-    //当前活动activity
-    private Activity activeActivity;
+    //activity保存状态时记录对应节点id的key
+    private static final String KEY_NODE_ID = "d_stack_node_id";
+
+    //当前活动activity，只用来判断是否切换了activity，弱引用持有
+    private WeakReference<Activity> activeActivity;
     //是否app启动
     boolean appStart;
+    //因为配置变化正在重建的activity绑定的节点，null表示没有在重建
+    private List<DNode> recreatingNodes;
+    //配置变化销毁时处理的耗时，单位纳秒
+    private long recreateCost;
+    //onActivityDestroyed复用的出栈节点，只用于通知DNodeManager，不会被节点集合持有
+    //节点操作的监听方拿到的是DOperationManager复制出来的DNodeResponse，不会看到这个节点之后的修改
+    private final DNode destroyNode = new DNode.Builder()
+            .action(DNodeActionType.POP)
+            .params(Collections.<String, Object>emptyMap())
+            .build();
 
     @Override
     public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
         if (!FilterActivityManager.getInstance().canAdd(activity)) {
             return;
         }
+        DJankMonitor.getInstance().track(activity);
+        if (recreatingNodes != null && DStackActivityManager.getInstance().addRecreatedActivity(activity)) {
+            //配置变化重建，节点和标识不变，只把节点绑定到新的activity
+            long start = SystemClock.elapsedRealtimeNanos();
+            WeakReference<Activity> reference = new WeakReference<>(activity);
+            for (DNode node : recreatingNodes) {
+                node.setActivity(reference);
+            }
+            recreatingNodes = null;
+            activeActivity = new WeakReference<>(activity);
+            DStackActivityManager.getInstance().recordConfigChange(
+                    recreateCost + SystemClock.elapsedRealtimeNanos() - start);
+            DLog.logD("activity配置变化重建：" + activity.getClass().getName());
+            return;
+        }
         DStackActivityManager.getInstance().addActivity(activity);
-        activeActivity = activity;
+        activeActivity = new WeakReference<>(activity);
 
         appStart = DStackActivityManager.getInstance().getActivitiesSize() == 1;
+        if (savedInstanceState != null && bindRestoredNode(activity, savedInstanceState)) {
+            //进程被杀死后恢复，activity已经绑定到恢复的节点
+            DLog.logD("activity绑定恢复的节点：" + activity.getClass().getName());
+        } else {
+            addNodeWithActivity(activity);
+        }
+        if (appStart) {
+            //app启动通知
+            PageLifecycleManager.appCreate();
+        }
+    }
+
+    /**
+     * 新创建的activity添加节点
+     */
+    private void addNodeWithActivity(Activity activity) {
         if (appStart) {
+            //冷启动，丢弃上次进程的节点日志
+            DNodeManager.getInstance().startJournalSession();
             DNode node;
             //应用刚刚启动时
             if (DStackActivityManager.getInstance().isFlutterActivity(activity)) {
                 //是flutter工程，添加根节点
                 node = new DNode.Builder()
                         .target("/")
-                        .pageType(DNodePageType.DNodePageTypeFlutter)
-                        .action(DNodeActionType.DNodeActionTypePush)
-                        .identifier(DStackUtils.generateUniqueId())
+                        .pageType(DNodePageType.FLUTTER)
+                        .action(DNodeActionType.PUSH)
+                        .idAsIdentifier()
                         .isHomePage(true)
                         .isRootPage(true)
                         .build();
@@ -57,13 +110,19 @@ public class DStackLifecycleObserver implements Application.ActivityLifecycleCal
                 //是native工程，添加根节点
                 node = new DNode.Builder()
                         .target("/")
-                        .pageType(DNodePageType.DNodePageTypeNative)
-                        .action(DNodeActionType.DNodeActionTypePush)
-                        .identifier(DStackUtils.generateUniqueId())
+                        .pageType(DNodePageType.NATIVE)
+                        .action(DNodeActionType.PUSH)
+                        .idAsIdentifier()
                         .isHomePage(true)
                         .isRootPage(true)
                         .build();
             }
+            DStackDeepLink deepLink = DStack.getInstance().parseDeepLink(activity.getIntent());
+            if (deepLink != null) {
+                //deep link冷启动，根节点和deep link的页面一次性入栈
+                seedDeepLink(activity, node, deepLink);
+                return;
+            }
             DNodeManager.getInstance().checkNode(node);
         } else {
             //应用已经启动，打开新的activity
@@ -71,30 +130,121 @@ public class DStackLifecycleObserver implements Application.ActivityLifecycleCal
                 //是native工程，添加普通节点
                 DNode node = new DNode.Builder()
                         .target(activity.getClass().getName())
-                        .pageType(DNodePageType.DNodePageTypeNative)
-                        .action(DNodeActionType.DNodeActionTypePush)
-                        .identifier(DStackUtils.generateUniqueId())
+                        .pageType(DNodePageType.NATIVE)
+                        .action(DNodeActionType.PUSH)
+                        .idAsIdentifier()
                         .build();
+                long start = SystemClock.elapsedRealtimeNanos();
                 DNodeManager.getInstance().checkNode(node);
+                DStackActivityManager.getInstance().recordPushCost(SystemClock.elapsedRealtimeNanos() - start);
+                //flutter打开的native页面，按intent里的结果标记绑定flutter侧等待的返回结果
+                DResultManager.getInstance().bindNativeResult(node.getId(), activity.getIntent());
             }
         }
-        DNodeManager.getInstance().getCurrentNode().setActivity(new WeakReference(activity));
-        if (appStart) {
-            //app启动通知
-            PageLifecycleManager.appCreate();
+        bindTopNodes(activity);
+    }
+
+    /**
+     * 新创建的activity绑定栈顶节点
+     * flutter容器从栈顶往下一直绑定到临界节点，事务或者deep link一次打开多个页面时，
+     * 临界节点上面新增的页面都在这个容器里，已经绑定到其他存活activity的节点不会被改绑
+     */
+    private void bindTopNodes(Activity activity) {
+        WeakReference<Activity> reference = new WeakReference<>(activity);
+        List<DNode> nodeList = DNodeManager.getInstance().getNodeList();
+        int top = nodeList.size() - 1;
+        for (int i = top; i >= 0; i--) {
+            DNode node = nodeList.get(i);
+            if (i != top && (node.isNative() || isBoundToLiveActivity(node))) {
+                break;
+            }
+            node.setActivity(reference);
+            if (node.isNative() || node.isBoundary()) {
+                break;
+            }
         }
     }
 
+    private static boolean isBoundToLiveActivity(DNode node) {
+        return node.getActivity() != null && node.getActivity().get() != null;
+    }
+
+    /**
+     * deep link冷启动，在第一个activity创建时把根节点和deep link的页面一起写入节点集合
+     * flutter页面用一条消息发给flutter侧，不再逐个页面走checkNode和消息往返
+     * flutter工程的页面都在第一个flutter容器里，native工程需要打开新的flutter容器，
+     * 容器创建时bindTopNodes把所有deep link页面绑定到容器
+     */
+    private void seedDeepLink(Activity activity, DNode rootNode, DStackDeepLink deepLink) {
+        WeakReference<Activity> reference = new WeakReference<>(activity);
+        rootNode.setActivity(reference);
+        boolean flutterRoot = rootNode.isFlutter();
+        List<DNode> nodes = new ArrayList<>();
+        nodes.add(rootNode);
+        for (DStackDeepLink.Page page : deepLink.getPages()) {
+            boolean first = nodes.size() == 1;
+            DNode node = new DNode.Builder()
+                    .target(page.getPageRouter())
+                    .params(page.getParams())
+                    .pageType(DNodePageType.FLUTTER)
+                    .action(DNodeActionType.PUSH)
+                    .boundary(first && !flutterRoot)
+                    .isHomePage(first && !flutterRoot)
+                    .build();
+            if (flutterRoot) {
+                node.setActivity(reference);
+            }
+            nodes.add(node);
+        }
+        DNodeManager.getInstance().seedNodes(nodes);
+        if (!flutterRoot) {
+            DStack.getInstance().startFlutterContainer(deepLink.getContainerCls());
+        }
+    }
+
+    /**
+     * 进程被杀死后重建的activity，绑定到恢复的节点上
+     * 应用启动的第一个activity负责从节点栈日志恢复节点集合
+     *
+     * @return 是否绑定成功，失败时按新页面处理
+     */
+    private boolean bindRestoredNode(Activity activity, Bundle savedInstanceState) {
+        long nodeId = savedInstanceState.getLong(KEY_NODE_ID, DNodeIdService.NO_ID);
+        if (nodeId == DNodeIdService.NO_ID) {
+            return false;
+        }
+        DNodeManager manager = DNodeManager.getInstance();
+        if (appStart && !manager.restoreNodes()) {
+            return false;
+        }
+        DNode node = manager.findNodeById(nodeId);
+        if (node == null) {
+            if (!appStart) {
+                return false;
+            }
+            //节点集合已经恢复，找不到时绑定到栈顶节点
+            node = manager.getCurrentNode();
+        }
+        //flutter容器里的页面都绑定到同一个activity，直到下一个native页面或者临界页面
+        WeakReference<Activity> reference = new WeakReference<>(activity);
+        List<DNode> nodeList = manager.getNodeList();
+        int size = nodeList.size();
+        for (int i = nodeList.indexOf(node); i < size; i++) {
+            DNode loopNode = nodeList.get(i);
+            if (loopNode != node && (loopNode.isNative() || loopNode.isBoundary())) {
+                break;
+            }
+            loopNode.setActivity(reference);
+        }
+        return true;
+    }
+
     @Override
     public void onActivityStarted(@NonNull Activity activity) {
         if (!FilterActivityManager.getInstance().canAdd(activity)) {
             return;
         }
-        appCount++;
-        if (!isFrontApp) {
-            isFrontApp = true;
-            PageLifecycleManager.appForeground();
-        }
+        AppStateMachine.getInstance().onActivityStarted();
     }
 
     @Override
@@ -102,9 +252,11 @@ public class DStackLifecycleObserver implements Application.ActivityLifecycleCal
         if (!FilterActivityManager.getInstance().canAdd(activity)) {
             return;
         }
-        if (activeActivity != activity) {
+        if (activeActivity == null || activeActivity.get() != activity) {
             //正在执行恢复activity的逻辑，页面返回操作，onCreate，onResumed不是同一个activity
-            activeActivity = activity;
+            activeActivity = new WeakReference<>(activity);
+            //可能是切换到了另一个task的activity
+            DStackActivityManager.getInstance().setCurrentActivity(activity);
             // 不建议再生命周期这里做引擎操作，增加了维护成本，要放到delegate中去做！add by @pollex
 //            if (DStackActivityManager.getInstance().isNeedReAttachEngine()) {
 //                //判断是否需要重新attach flutter引擎，1.17以上bug，解决软键盘不能弹出问题
@@ -129,11 +281,8 @@ public class DStackLifecycleObserver implements Application.ActivityLifecycleCal
         if (!FilterActivityManager.getInstance().canAdd(activity)) {
             return;
         }
-        appCount--;
-        if (!isFrontApp()) {
-            isFrontApp = false;
-            PageLifecycleManager.appBackground();
-        }
+        //配置变化重建和页面切换时新的activity马上会start，由状态机延迟确认是否进入后台
+        AppStateMachine.getInstance().onActivityStopped();
     }
 
     @Override
@@ -141,30 +290,43 @@ public class DStackLifecycleObserver implements Application.ActivityLifecycleCal
         if (!FilterActivityManager.getInstance().canAdd(activity)) {
             return;
         }
+        DJankMonitor.getInstance().untrack(activity);
+        if (activity.isChangingConfigurations()) {
+            //配置变化销毁，节点保留，不出栈也不发送生命周期和节点操作，等重建的activity重新绑定
+            long start = SystemClock.elapsedRealtimeNanos();
+            DStackActivityManager.getInstance().removeActivityForConfigChange(activity);
+            recreatingNodes = DNodeManager.getInstance().findNodesByActivity(activity);
+            recreateCost = SystemClock.elapsedRealtimeNanos() - start;
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
         boolean isPopTo = DStackActivityManager.getInstance().isExecuteStack();
         DStackActivityManager.getInstance().removeActivity(activity);
         DNode currentNode = DNodeManager.getInstance().getCurrentNode();
-        DNode node = new DNode.Builder()
-                .target(currentNode.getTarget())
-                .pageType(currentNode.getPageType())
-                .action(DNodeActionType.DNodeActionTypePop)
-                .isHomePage(currentNode.isHomePage())
-                .isRootPage(currentNode.isRootPage())
-                .identifier(currentNode.getIdentifier())
-                .isPopTo(isPopTo)
-                .build();
+        if (currentNode.getActivity() != null && currentNode.getActivity().get() != activity
+                && DNodeManager.getInstance().removeNodesWithActivity(activity)) {
+            //销毁的不是栈顶节点的activity，比如另一个task里的页面，只移除它自己的节点
+            DStackActivityManager.getInstance().recordPopCost(SystemClock.elapsedRealtimeNanos() - start);
+            return;
+        }
+        DNode node = destroyNode;
+        node.setTarget(currentNode.getTarget());
+        node.setPageType(currentNode.getPageTypeCode());
+        node.setHomePage(currentNode.isHomePage());
+        node.setRootPage(currentNode.isRootPage());
+        node.copyIdentity(currentNode);
+        node.setPopTo(isPopTo);
+        node.setBoundary(false);
         DNodeManager.getInstance().checkNode(node);
-    }
-
-    /**
-     * 判断App是否在前台
-     */
-    private boolean isFrontApp() {
-        return appCount > 0;
+        DStackActivityManager.getInstance().recordPopCost(SystemClock.elapsedRealtimeNanos() - start);
     }
 
     @Override
     public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
-
+        //记录activity对应的节点id，进程被杀死后恢复时用来绑定节点
+        DNode node = DNodeManager.getInstance().findNodeByActivity(activity);
+        if (node != null) {
+            outState.putLong(KEY_NODE_ID, node.getId());
+        }
     }
 }
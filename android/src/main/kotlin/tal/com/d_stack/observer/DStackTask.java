@@ -0,0 +1,107 @@
+package tal.com.d_stack.observer;
+
+import android.app.Activity;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个task的activity栈
+ * FLAG_ACTIVITY_NEW_TASK打开的页面、分屏和自由窗口里的页面可能在不同的task里，每个task单独维护栈顶和栈底
+ * 只用弱引用持有activity，只在主线程使用
+ */
+public class DStackTask {
+
+    private final int taskId;
+    //从栈底到栈顶
+    private final List<WeakReference<Activity>> activities = new ArrayList<>();
+
+    DStackTask(int taskId) {
+        this.taskId = taskId;
+    }
+
+    public int getTaskId() {
+        return taskId;
+    }
+
+    /**
+     * 获取栈顶activity
+     */
+    public Activity getTopActivity() {
+        for (int i = activities.size() - 1; i >= 0; i--) {
+            Activity activity = activities.get(i).get();
+            if (activity != null) {
+                return activity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取栈底activity
+     */
+    public Activity getBottomActivity() {
+        for (WeakReference<Activity> reference : activities) {
+            Activity activity = reference.get();
+            if (activity != null) {
+                return activity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取还没有被回收的activity，从栈底到栈顶
+     */
+    public List<Activity> getActivities() {
+        List<Activity> result = new ArrayList<>(activities.size());
+        for (WeakReference<Activity> reference : activities) {
+            Activity activity = reference.get();
+            if (activity != null) {
+                result.add(activity);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return activities.size();
+    }
+
+    public boolean isEmpty() {
+        return activities.isEmpty();
+    }
+
+    void add(Activity activity) {
+        activities.add(new WeakReference<>(activity));
+    }
+
+    void add(int index, Activity activity) {
+        activities.add(Math.min(index, activities.size()), new WeakReference<>(activity));
+    }
+
+    void remove(int index) {
+        activities.remove(index);
+    }
+
+    Activity get(int index) {
+        return activities.get(index).get();
+    }
+
+    WeakReference<Activity> getReference(int index) {
+        return activities.get(index);
+    }
+
+    /**
+     * 查找activity在栈中的位置
+     */
+    int indexOf(Activity activity) {
+        for (int i = 0; i < activities.size(); i++) {
+            if (activities.get(i).get() == activity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
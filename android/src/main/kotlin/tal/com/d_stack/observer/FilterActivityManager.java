@@ -49,8 +49,9 @@ public class FilterActivityManager {
             return false;
         }
         String fullName = activity.getClass().getName();
-        for (String filterName : filterActivities) {
-            if (fullName.contains(filterName)) {
+        //每个activity回调都会调用，按下标遍历，不创建迭代器
+        for (int i = 0; i < filterActivities.size(); i++) {
+            if (fullName.contains(filterActivities.get(i))) {
                 return false;
             }
         }
@@ -0,0 +1,108 @@
+package tal.com.d_stack.plugin;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import tal.com.d_stack.node.DNode;
+import tal.com.d_stack.utils.DLog;
+
+/**
+ * 按需注册插件
+ * 使用后引擎不再自动注册所有插件，只在创建引擎时注册核心插件
+ * 其他插件声明在用到它的flutter路由上，第一次打开这些路由时才注册到引擎，之后一直保留
+ * 每个插件注册的耗时都会记录下来
+ * 例如：new DPluginRegistry().core(new PathProviderPlugin()).route("/video", new VideoPlayerPlugin())
+ * 只在主线程使用
+ */
+public class DPluginRegistry {
+
+    //核心插件，创建引擎时注册
+    private final List<FlutterPlugin> corePlugins = new ArrayList<>();
+    //路由声明的插件，key是路由
+    private final Map<String, List<FlutterPlugin>> routePlugins = new HashMap<>();
+    //插件注册耗时，单位微秒，key是插件类名，按注册顺序排列
+    private final Map<String, Long> attachTimes = new LinkedHashMap<>();
+    private FlutterEngine engine;
+
+    /**
+     * 添加核心插件
+     */
+    public DPluginRegistry core(FlutterPlugin... plugins) {
+        Collections.addAll(corePlugins, plugins);
+        return this;
+    }
+
+    /**
+     * 声明路由用到的插件，多个路由可以声明同一个插件对象，只会注册一次
+     */
+    public DPluginRegistry route(String route, FlutterPlugin... plugins) {
+        List<FlutterPlugin> list = routePlugins.get(route);
+        if (list == null) {
+            list = new ArrayList<>(plugins.length);
+            routePlugins.put(route, list);
+        }
+        Collections.addAll(list, plugins);
+        return this;
+    }
+
+    /**
+     * 创建引擎后注册核心插件
+     */
+    public void attachCorePlugins(FlutterEngine engine) {
+        this.engine = engine;
+        for (FlutterPlugin plugin : corePlugins) {
+            attach(plugin);
+        }
+    }
+
+    /**
+     * flutter节点入栈，注册该路由声明的插件
+     * 在通知flutter打开页面之前调用，页面发出的插件消息一定在插件注册之后处理
+     */
+    public void onNodePush(DNode node) {
+        if (engine == null || !node.isFlutter()) {
+            return;
+        }
+        List<FlutterPlugin> plugins = routePlugins.remove(node.getTarget());
+        if (plugins == null) {
+            return;
+        }
+        for (FlutterPlugin plugin : plugins) {
+            attach(plugin);
+        }
+    }
+
+    /**
+     * 已注册插件的耗时，单位微秒，key是插件类名
+     */
+    public Map<String, Long> getAttachTimes() {
+        return Collections.unmodifiableMap(attachTimes);
+    }
+
+    /**
+     * 还有插件没有注册的路由数量
+     */
+    public int getPendingRouteCount() {
+        return routePlugins.size();
+    }
+
+    private void attach(FlutterPlugin plugin) {
+        String name = plugin.getClass().getName();
+        if (attachTimes.containsKey(name) || engine.getPlugins().has(plugin.getClass())) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        engine.getPlugins().add(plugin);
+        long cost = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        attachTimes.put(name, cost);
+        DLog.logD("插件注册：" + name + "，耗时：" + cost + "us");
+    }
+}
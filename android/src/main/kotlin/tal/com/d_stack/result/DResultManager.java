@@ -0,0 +1,126 @@
+package tal.com.d_stack.result;
+
+import android.content.Intent;
+
+import androidx.collection.LongSparseArray;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tal.com.d_stack.DStack;
+import tal.com.d_stack.router.INativeResultRouter;
+
+/**
+ * 页面返回结果管理
+ * 按节点id保存等待结果的页面，节点出栈时按id完成对应的结果
+ * 只在主线程使用
+ */
+public class DResultManager {
+
+    private final static AtomicReference<DResultManager> INSTANCE = new AtomicReference<>();
+
+    //等待结果的页面，key是节点id
+    private final LongSparseArray<DStackResult> results = new LongSparseArray<>();
+    //页面出栈前设置的返回参数，key是节点id
+    private final LongSparseArray<Map<String, Object>> pendingResults = new LongSparseArray<>();
+    //flutter打开native页面时创建的结果，等native页面的节点创建后绑定
+    private DStackResult nextNativeResult;
+    //上一个结果标记，每次加一
+    private long lastToken = DStackResult.NO_TOKEN;
+
+    public static DResultManager getInstance() {
+        for (; ; ) {
+            DResultManager factory = INSTANCE.get();
+            if (factory != null) {
+                return factory;
+            }
+            factory = new DResultManager();
+            if (INSTANCE.compareAndSet(null, factory)) {
+                return factory;
+            }
+        }
+    }
+
+    /**
+     * 为节点创建返回结果
+     */
+    public DStackResult register(long nodeId) {
+        DStackResult result = results.get(nodeId);
+        if (result == null) {
+            result = new DStackResult();
+            results.put(nodeId, result);
+        }
+        return result;
+    }
+
+    /**
+     * 节点出栈前设置返回参数，出栈时带给对应的结果
+     */
+    public void setPendingResult(long nodeId, Map<String, Object> result) {
+        if (results.get(nodeId) != null) {
+            pendingResults.put(nodeId, result);
+        }
+    }
+
+    /**
+     * 节点出栈，完成对应的结果
+     */
+    public void onNodeRemoved(long nodeId) {
+        DStackResult result = results.get(nodeId);
+        if (result == null) {
+            return;
+        }
+        Map<String, Object> value = pendingResults.get(nodeId);
+        results.remove(nodeId);
+        pendingResults.remove(nodeId);
+        result.complete(value);
+    }
+
+    /**
+     * flutter打开native页面时创建结果，下一个创建的native节点会绑定这个结果
+     */
+    public DStackResult expectNativeResult() {
+        if (nextNativeResult != null) {
+            //上一个native页面没有打开，结束等待
+            nextNativeResult.complete(null);
+        }
+        nextNativeResult = new DStackResult();
+        nextNativeResult.token = ++lastToken;
+        return nextNativeResult;
+    }
+
+    /**
+     * 获取还没有绑定节点的native页面结果
+     */
+    public DStackResult peekNativeResult() {
+        return nextNativeResult;
+    }
+
+    /**
+     * native页面的节点创建后，绑定flutter打开该页面时创建的结果
+     * INativeResultRouter拿到了结果，只绑定intent里带有这个结果标记的页面，其他native页面不会误绑定
+     * 普通的INativeRouter拿不到结果，无法带上标记，仍然绑定下一个创建的native页面
+     *
+     * @param intent 页面的intent，读取DStackResult.attachTo放进去的结果标记
+     */
+    public void bindNativeResult(long nodeId, Intent intent) {
+        if (nextNativeResult == null) {
+            return;
+        }
+        long token = intent == null ? DStackResult.NO_TOKEN
+                : intent.getLongExtra(DStackResult.EXTRA_TOKEN, DStackResult.NO_TOKEN);
+        if (token == DStackResult.NO_TOKEN) {
+            if (DStack.getInstance().getNativeRouter() instanceof INativeResultRouter) {
+                //没有带标记的页面不是flutter这次打开的页面
+                return;
+            }
+        } else if (token != nextNativeResult.token) {
+            //之前的结果标记，对应的结果已经结束
+            return;
+        }
+        if (!nextNativeResult.isDone()) {
+            results.put(nodeId, nextNativeResult);
+        }
+        nextNativeResult = null;
+    }
+}
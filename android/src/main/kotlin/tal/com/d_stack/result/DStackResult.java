@@ -0,0 +1,102 @@
+package tal.com.d_stack.result;
+
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 页面返回结果
+ * 打开页面时返回，对应页面出栈时完成，只会完成一次
+ * 页面通过pop带回参数时结果是该参数，被popTo、popToRoot等一起关闭时结果是null
+ * 只在主线程使用
+ */
+public class DStackResult {
+
+    //flutter打开native页面时，放进intent的结果标记
+    public static final String EXTRA_TOKEN = "d_stack_result_token";
+    //没有结果标记
+    public static final long NO_TOKEN = 0;
+
+    /**
+     * 结果回调
+     */
+    public interface Callback {
+
+        /**
+         * @param result 页面返回的参数，没有返回参数时为null
+         */
+        void onResult(Map<String, Object> result);
+    }
+
+    private boolean done;
+    private Map<String, Object> result;
+    private List<Callback> callbacks;
+    //flutter打开native页面时的结果标记，其他结果为NO_TOKEN
+    long token = NO_TOKEN;
+
+    /**
+     * 添加结果回调，已经完成时立即回调
+     */
+    public DStackResult then(Callback callback) {
+        if (callback == null) {
+            return this;
+        }
+        if (done) {
+            callback.onResult(result);
+            return this;
+        }
+        if (callbacks == null) {
+            callbacks = new ArrayList<>(1);
+        }
+        callbacks.add(callback);
+        return this;
+    }
+
+    /**
+     * 把结果标记放进打开native页面的intent，页面创建时按标记绑定这个结果
+     * INativeResultRouter打开页面时需要调用，没有标记的页面不会绑定这个结果
+     */
+    public Intent attachTo(Intent intent) {
+        if (intent != null && token != NO_TOKEN) {
+            intent.putExtra(EXTRA_TOKEN, token);
+        }
+        return intent;
+    }
+
+    /**
+     * 是否已经完成
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 获取结果，未完成或者没有返回参数时为null
+     */
+    public Map<String, Object> getResult() {
+        return result;
+    }
+
+    /**
+     * 完成结果，只有第一次调用有效
+     *
+     * @return 是否是第一次完成
+     */
+    public boolean complete(Map<String, Object> result) {
+        if (done) {
+            return false;
+        }
+        done = true;
+        this.result = result;
+        if (callbacks != null) {
+            List<Callback> list = callbacks;
+            callbacks = null;
+            for (Callback callback : list) {
+                callback.onResult(result);
+            }
+        }
+        return true;
+    }
+}
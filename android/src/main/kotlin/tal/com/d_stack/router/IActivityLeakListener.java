@@ -0,0 +1,15 @@
+package tal.com.d_stack.router;
+
+/**
+ * activity泄漏监听接口
+ */
+public interface IActivityLeakListener {
+
+    /**
+     * @param activityName  泄漏的activity类名
+     * @param retainedBytes 估算被泄漏的activity持有的字节数，包括view树、图片和渲染surface
+     * @param leakedTime    activity销毁后到确认泄漏的时间，单位毫秒
+     */
+    void onActivityLeaked(String activityName, long retainedBytes, long leakedTime);
+
+}
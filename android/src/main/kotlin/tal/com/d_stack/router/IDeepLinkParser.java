@@ -0,0 +1,17 @@
+package tal.com.d_stack.router;
+
+import android.net.Uri;
+
+import tal.com.d_stack.DStackDeepLink;
+
+/**
+ * deep link解析接口
+ */
+public interface IDeepLinkParser {
+
+    /**
+     * 把deep link解析成要打开的flutter页面栈，不是可以处理的deep link时返回null
+     */
+    DStackDeepLink parse(Uri uri);
+
+}
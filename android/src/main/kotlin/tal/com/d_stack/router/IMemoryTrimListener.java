@@ -0,0 +1,14 @@
+package tal.com.d_stack.router;
+
+/**
+ * 内存分级回收监听接口
+ */
+public interface IMemoryTrimListener {
+
+    /**
+     * @param tier           回收级别，DMemoryPolicy.TIER_LIGHT、TIER_MEDIUM或TIER_HEAVY
+     * @param reclaimedBytes 本次回收估算的字节数
+     */
+    void onMemoryTrimmed(int tier, long reclaimedBytes);
+
+}
@@ -0,0 +1,17 @@
+package tal.com.d_stack.router;
+
+import java.util.Map;
+
+import tal.com.d_stack.result.DStackResult;
+
+/**
+ * 带返回结果的路由信息接口
+ * 实现该接口后，flutter打开native页面时会带上该页面的返回结果
+ * 打开页面时需要用result.attachTo(intent)把结果标记放进intent，页面创建时按标记绑定结果
+ * native页面关闭前通过DStack.setResult设置返回参数，页面出栈时结果发回flutter
+ */
+public interface INativeResultRouter extends INativeRouter {
+
+    void openContainer(String routerUrl, Map<String, Object> params, DStackResult result);
+
+}
@@ -0,0 +1,15 @@
+package tal.com.d_stack.router;
+
+/**
+ * 打开页面被丢弃的监听接口
+ */
+public interface IPushDropListener {
+
+    /**
+     * @param route       被丢弃的页面路由
+     * @param reason      丢弃原因，DNodePushThrottle.DROP_DUPLICATE或DROP_RATE_LIMIT
+     * @param droppedCount 累计丢弃的次数
+     */
+    void onPushDropped(String route, int reason, int droppedCount);
+
+}
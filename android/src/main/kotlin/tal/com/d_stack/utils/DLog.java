@@ -22,4 +22,11 @@ public class DLog {
             Log.d(TAG, log);
         }
     }
+
+    /**
+     * 是否打印日志，拼接日志字符串前先判断，避免release包里无用的字符串分配
+     */
+    public static boolean isDebug() {
+        return BuildConfig.DEBUG;
+    }
 }
@@ -4,13 +4,14 @@ import android.app.Activity;
 
 import java.lang.reflect.Field;
 
-import io.flutter.embedding.android.DFlutterActivity;
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.android.FlutterFragmentActivity;
 import io.flutter.embedding.android.FlutterView;
 import io.flutter.embedding.engine.FlutterEngine;
 import io.flutter.embedding.engine.FlutterEngineCache;
 import tal.com.d_stack.DStack;
+import tal.com.d_stack.node.DNodeIdService;
+import tal.com.d_stack.observer.DStackHostRegistry;
 
 /**
  * 框架常用工具类
@@ -18,59 +19,66 @@ import tal.com.d_stack.DStack;
  */
 public class DStackUtils {
 
+    //框架外的flutter容器没有登记，第一次使用时反射查找字段并缓存，之后不再查找
+    private static Field flutterActivityDelegateField;
+    private static Field flutterFragmentField;
+    private static Field fragmentDelegateField;
+    private static Field delegateFlutterViewField;
+
     /**
-     * 通过传入的FlutterActivity获取对应的FlutterView
-     * 通过反射，获取delegate，然后再反射获取flutterView对象
+     * 通过传入的activity获取对应的FlutterView
+     * DFlutterActivity由delegate登记在DStackHostRegistry中，直接查表
+     * FlutterActivity和FlutterFragmentActivity不经过框架的delegate，只能反射读取，字段只查找一次
      */
     public static FlutterView getFlutterView(Activity activity) {
         if (activity == null) {
             return null;
         }
-        FlutterView flutterView = null;
-        Class c = activity.getClass();
+        FlutterView flutterView = DStackHostRegistry.getInstance().getFlutterView(activity);
+        if (flutterView != null) {
+            return flutterView;
+        }
         try {
-            // 处理FlutterActivity
             if (activity instanceof FlutterActivity) {
-                while (c != FlutterActivity.class) {
-                    c = c.getSuperclass();
+                // 处理FlutterActivity
+                if (flutterActivityDelegateField == null) {
+                    flutterActivityDelegateField = accessibleField(FlutterActivity.class, "delegate");
                 }
-                Field fieldDelegate = c.getDeclaredField("delegate");
-                fieldDelegate.setAccessible(true);
-                Object objectDelegate = fieldDelegate.get(activity);
-                Field flutterViewDelegate = objectDelegate.getClass().getDeclaredField("flutterView");
-                flutterViewDelegate.setAccessible(true);
-                flutterView = (FlutterView) flutterViewDelegate.get(objectDelegate);
-            } else if (activity instanceof DFlutterActivity) {
-                while (c != DFlutterActivity.class) {
-                    c = c.getSuperclass();
+                return readFlutterView(flutterActivityDelegateField.get(activity));
+            } else if (activity instanceof FlutterFragmentActivity) {
+                // 处理FlutterFragmentActivity
+                if (flutterFragmentField == null) {
+                    flutterFragmentField = accessibleField(FlutterFragmentActivity.class, "flutterFragment");
                 }
-                Field fieldDelegate = c.getDeclaredField("delegate");
-                fieldDelegate.setAccessible(true);
-                Object objectDelegate = fieldDelegate.get(activity);
-                Field flutterViewDelegate = objectDelegate.getClass().getDeclaredField("flutterView");
-                flutterViewDelegate.setAccessible(true);
-                flutterView = (FlutterView) flutterViewDelegate.get(objectDelegate);
-            }
-            // 处理FlutterFragmentActivity
-            else if (activity instanceof FlutterFragmentActivity) {
-                while (c != FlutterFragmentActivity.class) {
-                    c = c.getSuperclass();
+                Object objectFragment = flutterFragmentField.get(activity);
+                if (objectFragment == null) {
+                    return null;
                 }
-                Field fieldFragment = c.getDeclaredField("flutterFragment");
-                fieldFragment.setAccessible(true);
-                Object objectFragment = fieldFragment.get(activity);
-                Field fieldDelegate = objectFragment.getClass().getDeclaredField("delegate");
-                fieldDelegate.setAccessible(true);
-                Object objectDelegate = fieldDelegate.get(objectFragment);
-                Field flutterViewDelegate = objectDelegate.getClass().getDeclaredField("flutterView");
-                flutterViewDelegate.setAccessible(true);
-                flutterView = (FlutterView) flutterViewDelegate.get(objectDelegate);
+                if (fragmentDelegateField == null) {
+                    fragmentDelegateField = accessibleField(objectFragment.getClass(), "delegate");
+                }
+                return readFlutterView(fragmentDelegateField.get(objectFragment));
             }
         } catch (Exception e) {
             DLog.logE(e.getMessage());
-        } finally {
-            return flutterView;
         }
+        return null;
+    }
+
+    private static FlutterView readFlutterView(Object objectDelegate) throws Exception {
+        if (objectDelegate == null) {
+            return null;
+        }
+        if (delegateFlutterViewField == null) {
+            delegateFlutterViewField = accessibleField(objectDelegate.getClass(), "flutterView");
+        }
+        return (FlutterView) delegateFlutterViewField.get(objectDelegate);
+    }
+
+    private static Field accessibleField(Class<?> c, String name) throws NoSuchFieldException {
+        Field field = c.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
     }
 
     /**
@@ -90,10 +98,9 @@ public class DStackUtils {
     }
 
     /**
-     * 获取唯一id
+     * 获取唯一id，单调递增，不会重复
      */
     public static String generateUniqueId() {
-        double d = Math.random();
-        return (int) (d * 100000) + "";
+        return DNodeIdService.toIdentifier(DNodeIdService.nextId());
     }
 }
@@ -0,0 +1,144 @@
+package tal.com.d_stack.lifecycle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppStateMachineTest {
+
+    private TestStateMachine machine;
+
+    @Before
+    public void setUp() {
+        machine = new TestStateMachine();
+    }
+
+    @Test
+    public void startsInForegroundWithoutNotification() {
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        machine.onActivityStarted();
+        assertTrue(machine.isForeground());
+        assertEquals(0, machine.foregroundNotified);
+    }
+
+    @Test
+    public void lastStopWaitsBeforeBackground() {
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        assertEquals(AppStateMachine.STATE_PENDING_BACKGROUND, machine.getState());
+        assertTrue(machine.isForeground());
+        assertEquals(0, machine.backgroundNotified);
+
+        machine.fire();
+        assertEquals(AppStateMachine.STATE_BACKGROUND, machine.getState());
+        assertFalse(machine.isForeground());
+        assertEquals(1, machine.backgroundNotified);
+        assertEquals(1, machine.getBackgroundCount());
+    }
+
+    @Test
+    public void activitySwitchInsideWindowIsSuppressed() {
+        machine.onActivityStarted();
+        //先stop再start的页面跳转
+        machine.onActivityStopped();
+        machine.onActivityStarted();
+        assertFalse(machine.scheduled);
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        assertEquals(1, machine.getSuppressedCount());
+        assertEquals(0, machine.backgroundNotified);
+        assertEquals(0, machine.foregroundNotified);
+    }
+
+    @Test
+    public void overlappingActivitiesNeverLeaveForeground() {
+        machine.onActivityStarted();
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        assertFalse(machine.scheduled);
+    }
+
+    @Test
+    public void returningFromBackgroundNotifiesOnce() {
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        machine.fire();
+        machine.onActivityStarted();
+        machine.onActivityStarted();
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        assertEquals(1, machine.foregroundNotified);
+        assertEquals(1, machine.getForegroundCount());
+    }
+
+    @Test
+    public void lateTimerAfterRestartIsIgnored() {
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        machine.onActivityStarted();
+        //取消没有赶上，计时仍然触发
+        machine.dispatchBackground();
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        assertEquals(0, machine.backgroundNotified);
+    }
+
+    @Test
+    public void stopWithoutStartDoesNotUnderflow() {
+        machine.onActivityStopped();
+        machine.fire();
+        machine.onActivityStarted();
+        assertEquals(AppStateMachine.STATE_FOREGROUND, machine.getState());
+        assertEquals(1, machine.foregroundNotified);
+    }
+
+    @Test
+    public void debounceTimeIsPassedToTimer() {
+        machine.setDebounceTime(300);
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        assertEquals(300, machine.delay);
+        machine.setDebounceTime(-1);
+        machine.onActivityStarted();
+        machine.onActivityStopped();
+        assertEquals(0, machine.delay);
+    }
+
+    /**
+     * 计时由测试控制，只统计通知次数
+     */
+    private static class TestStateMachine extends AppStateMachine {
+        boolean scheduled;
+        long delay;
+        int foregroundNotified;
+        int backgroundNotified;
+
+        void fire() {
+            assertTrue(scheduled);
+            scheduled = false;
+            dispatchBackground();
+        }
+
+        @Override
+        void scheduleBackground(long delay) {
+            scheduled = true;
+            this.delay = delay;
+        }
+
+        @Override
+        void cancelBackground() {
+            scheduled = false;
+        }
+
+        @Override
+        void notifyForeground() {
+            foregroundNotified++;
+        }
+
+        @Override
+        void notifyBackground() {
+            backgroundNotified++;
+        }
+    }
+}
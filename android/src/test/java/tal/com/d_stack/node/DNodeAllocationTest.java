@@ -0,0 +1,109 @@
+package tal.com.d_stack.node;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 页面跳转热路径上的节点记录不能每次都分配对象
+ * 预热之后统计当前线程分配的字节数，平均每次操作必须少于1字节
+ */
+public class DNodeAllocationTest {
+
+    private static final int WARM_UP = 20000;
+    private static final int ITERATIONS = 100000;
+    private static final int STACK_SIZE = 16;
+
+    @Test
+    public void changeLogRecordsWithoutAllocation() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        if (bean == null) {
+            return;
+        }
+        DNodeChangeLog changeLog = new DNodeChangeLog();
+        DNode[] nodes = createNodes();
+        for (int i = 0; i < STACK_SIZE; i++) {
+            changeLog.add(i, nodes[i]);
+        }
+        runChangeLog(changeLog, nodes, WARM_UP);
+        long before = allocatedBytes(bean);
+        runChangeLog(changeLog, nodes, ITERATIONS);
+        long allocated = allocatedBytes(bean) - before;
+        assertTrue("变更记录分配了" + allocated + "字节", allocated < ITERATIONS);
+        assertEquals(STACK_SIZE, changeLog.snapshot().size());
+    }
+
+    @Test
+    public void indexLookupWithoutAllocation() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        if (bean == null) {
+            return;
+        }
+        DNodeIndex index = new DNodeIndex();
+        DNode[] nodes = createNodes();
+        for (DNode node : nodes) {
+            index.put(node.getId(), node);
+        }
+        runIndex(index, nodes, WARM_UP);
+        long before = allocatedBytes(bean);
+        runIndex(index, nodes, ITERATIONS);
+        long allocated = allocatedBytes(bean) - before;
+        assertTrue("节点索引分配了" + allocated + "字节", allocated < ITERATIONS);
+        assertEquals(STACK_SIZE, index.size());
+    }
+
+    /**
+     * 模拟页面入栈、替换、出栈
+     */
+    private static void runChangeLog(DNodeChangeLog changeLog, DNode[] nodes, int count) {
+        for (int i = 0; i < count; i++) {
+            DNode node = nodes[i % STACK_SIZE];
+            changeLog.add(STACK_SIZE, node);
+            changeLog.update(STACK_SIZE, node);
+            changeLog.remove(STACK_SIZE);
+        }
+    }
+
+    /**
+     * 模拟页面出栈时按id查找并移除，再重新入栈
+     */
+    private static void runIndex(DNodeIndex index, DNode[] nodes, int count) {
+        for (int i = 0; i < count; i++) {
+            DNode node = nodes[i % STACK_SIZE];
+            if (index.get(node.getId()) != node) {
+                throw new AssertionError("索引查找失败");
+            }
+            index.remove(node.getId());
+            index.put(node.getId(), node);
+        }
+    }
+
+    private static DNode[] createNodes() {
+        DNode[] nodes = new DNode[STACK_SIZE];
+        for (int i = 0; i < STACK_SIZE; i++) {
+            nodes[i] = new DNode.Builder().target("page_" + i).pageType("native").build();
+        }
+        return nodes;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
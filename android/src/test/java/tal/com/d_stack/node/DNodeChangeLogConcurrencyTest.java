@@ -0,0 +1,143 @@
+package tal.com.d_stack.node;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 查询通道在后台线程读取变更记录，主线程同时快速修改节点栈
+ * 每个查询线程按版本号增量同步，变更必须连续，最后和全量快照一致
+ */
+public class DNodeChangeLogConcurrencyTest {
+
+    private static final int READER_COUNT = 4;
+    private static final int MUTATION_COUNT = 20000;
+
+    @Test(timeout = 30000)
+    public void concurrentQueriesDuringRapidMutation() throws Exception {
+        final DNodeChangeLog changeLog = new DNodeChangeLog();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> readers = new ArrayList<>();
+        final List<List<String>> readerRoutes = new ArrayList<>();
+        final long[] readerVersions = new long[READER_COUNT];
+
+        for (int r = 0; r < READER_COUNT; r++) {
+            final int reader = r;
+            final List<String> routes = new ArrayList<>();
+            readerRoutes.add(routes);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long version = -1;
+                        while (writing.get()) {
+                            version = sync(changeLog, version, routes);
+                        }
+                        readerVersions[reader] = sync(changeLog, version, routes);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "d_stack_query_" + r);
+            readers.add(thread);
+            thread.start();
+        }
+
+        //模拟主线程快速入栈、出栈、替换和清空
+        Random random = new Random(7);
+        int size = 0;
+        start.countDown();
+        for (int i = 0; i < MUTATION_COUNT; i++) {
+            int op = random.nextInt(10);
+            if (size == 0 || op < 5) {
+                changeLog.add(size, node("page_" + i));
+                size++;
+            } else if (op < 8) {
+                changeLog.remove(size - 1);
+                size--;
+            } else if (op < 9) {
+                changeLog.update(random.nextInt(size), node("replace_" + i));
+            } else if (size > 32) {
+                changeLog.clear();
+                size = 0;
+            }
+        }
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        List<String> expected = routesOf(changeLog.snapshot());
+        assertEquals(size, expected.size());
+        for (int r = 0; r < READER_COUNT; r++) {
+            assertEquals(changeLog.getVersion(), readerVersions[r]);
+            assertEquals(expected, readerRoutes.get(r));
+        }
+    }
+
+    /**
+     * 模拟flutter侧的一次增量同步，返回同步后的版本号
+     */
+    @SuppressWarnings("unchecked")
+    private static long sync(DNodeChangeLog changeLog, long version, List<String> routes) {
+        Map<String, Object> result = changeLog.syncSince(version);
+        long newVersion = (Long) result.get("version");
+        assertTrue("版本号不能回退", newVersion >= version);
+        if ((Boolean) result.get("full")) {
+            routes.clear();
+            routes.addAll(routesOf((List<Map<String, Object>>) result.get("nodes")));
+            return newVersion;
+        }
+        long expectedVersion = version;
+        for (Map<String, Object> change : (List<Map<String, Object>>) result.get("changes")) {
+            expectedVersion++;
+            assertEquals("变更必须连续", expectedVersion, (long) (Long) change.get("version"));
+            int index = (Integer) change.get("index");
+            String route = (String) change.get("route");
+            switch ((String) change.get("type")) {
+                case DNodeChangeLog.CHANGE_ADD:
+                    routes.add(index, route);
+                    break;
+                case DNodeChangeLog.CHANGE_REMOVE:
+                    routes.remove(index);
+                    break;
+                case DNodeChangeLog.CHANGE_UPDATE:
+                    routes.set(index, route);
+                    break;
+                case DNodeChangeLog.CHANGE_CLEAR:
+                    routes.clear();
+                    break;
+                default:
+                    break;
+            }
+        }
+        assertEquals(newVersion, expectedVersion);
+        return newVersion;
+    }
+
+    private static List<String> routesOf(List<Map<String, Object>> nodes) {
+        List<String> routes = new ArrayList<>(nodes.size());
+        for (Map<String, Object> node : nodes) {
+            routes.add((String) node.get("route"));
+        }
+        return routes;
+    }
+
+    private static DNode node(String target) {
+        return new DNode.Builder().target(target).pageType("flutter").build();
+    }
+}
@@ -0,0 +1,107 @@
+package tal.com.d_stack.node;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DNodeChangeLogTest {
+
+    private DNodeChangeLog changeLog;
+
+    @Before
+    public void setUp() {
+        changeLog = new DNodeChangeLog();
+    }
+
+    @Test
+    public void everyChangeIncrementsVersion() {
+        assertEquals(0, changeLog.getVersion());
+        changeLog.add(0, node("/"));
+        changeLog.add(1, node("a"));
+        changeLog.update(1, node("b"));
+        changeLog.remove(1);
+        changeLog.clear();
+        assertEquals(5, changeLog.getVersion());
+    }
+
+    @Test
+    public void changesSinceReturnsOnlyNewerChanges() {
+        changeLog.add(0, node("/"));
+        long synced = changeLog.getVersion();
+        changeLog.add(1, node("a"));
+        changeLog.remove(1);
+
+        List<Map<String, Object>> changes = changeLog.changesSince(synced);
+        assertEquals(2, changes.size());
+        assertEquals(DNodeChangeLog.CHANGE_ADD, changes.get(0).get("type"));
+        assertEquals("a", changes.get(0).get("route"));
+        assertEquals(1, changes.get(0).get("index"));
+        assertEquals(synced + 1, changes.get(0).get("version"));
+        assertEquals(DNodeChangeLog.CHANGE_REMOVE, changes.get(1).get("type"));
+        assertTrue(changeLog.changesSince(changeLog.getVersion()).isEmpty());
+    }
+
+    @Test
+    public void unknownVersionNeedsFullSync() {
+        changeLog.add(0, node("/"));
+        assertNull(changeLog.changesSince(-1));
+        assertNull(changeLog.changesSince(changeLog.getVersion() + 1));
+    }
+
+    @Test
+    public void trimmedChangesNeedFullSync() {
+        changeLog.add(0, node("/"));
+        long synced = changeLog.getVersion();
+        for (int i = 0; i < 100; i++) {
+            changeLog.add(1, node("page_" + i));
+            changeLog.remove(1);
+        }
+        assertNull(changeLog.changesSince(synced));
+
+        Map<String, Object> result = changeLog.syncSince(synced);
+        assertEquals(true, result.get("full"));
+        assertEquals(changeLog.getVersion(), result.get("version"));
+        List<?> nodes = (List<?>) result.get("nodes");
+        assertEquals(1, nodes.size());
+    }
+
+    @Test
+    public void syncSinceReturnsIncrementalChanges() {
+        changeLog.add(0, node("/"));
+        long synced = changeLog.getVersion();
+        changeLog.update(0, node("home"));
+
+        Map<String, Object> result = changeLog.syncSince(synced);
+        assertEquals(false, result.get("full"));
+        List<?> changes = (List<?>) result.get("changes");
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void snapshotFollowsChanges() {
+        changeLog.add(0, node("/"));
+        changeLog.add(1, node("a"));
+        changeLog.add(2, node("b"));
+        changeLog.update(1, node("c"));
+        changeLog.remove(2);
+
+        List<Map<String, Object>> snapshot = changeLog.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("/", snapshot.get(0).get("route"));
+        assertEquals("c", snapshot.get(1).get("route"));
+        assertEquals("flutter", snapshot.get(1).get("pageType"));
+
+        changeLog.clear();
+        assertTrue(changeLog.snapshot().isEmpty());
+    }
+
+    private static DNode node(String target) {
+        return new DNode.Builder().target(target).pageType("flutter").build();
+    }
+}
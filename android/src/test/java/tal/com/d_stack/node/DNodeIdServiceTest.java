@@ -0,0 +1,90 @@
+package tal.com.d_stack.node;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DNodeIdServiceTest {
+
+    @Test
+    public void idsIncreaseMonotonically() {
+        long previous = DNodeIdService.nextId();
+        for (int i = 0; i < 1000; i++) {
+            long id = DNodeIdService.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentIdsAreUnique() throws Exception {
+        final int threads = 4;
+        final int perThread = 10000;
+        final long[][] ids = new long[threads][perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long[] out = ids[t];
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        out[i] = DNodeIdService.nextId();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Set<Long> unique = new HashSet<>();
+        for (long[] threadIds : ids) {
+            for (long id : threadIds) {
+                assertTrue(id != DNodeIdService.NO_ID);
+                unique.add(id);
+            }
+        }
+        assertEquals(threads * perThread, unique.size());
+    }
+
+    @Test
+    public void ensureAboveSkipsRestoredIds() {
+        long restored = DNodeIdService.nextId() + 1000;
+        DNodeIdService.ensureAbove(restored);
+        assertTrue(DNodeIdService.nextId() > restored);
+        //比当前值小时不回退
+        long current = DNodeIdService.nextId();
+        DNodeIdService.ensureAbove(1);
+        assertTrue(DNodeIdService.nextId() > current);
+    }
+
+    @Test
+    public void identifierRoundTrip() {
+        long id = DNodeIdService.nextId();
+        assertEquals(id, DNodeIdService.parseId(DNodeIdService.toIdentifier(id)));
+    }
+
+    @Test
+    public void flutterIdentifiersAreNotParsed() {
+        assertEquals(DNodeIdService.NO_ID, DNodeIdService.parseId(null));
+        assertEquals(DNodeIdService.NO_ID, DNodeIdService.parseId(""));
+        assertEquals(DNodeIdService.NO_ID, DNodeIdService.parseId("0123"));
+        assertEquals(DNodeIdService.NO_ID, DNodeIdService.parseId("page_12"));
+        assertEquals(DNodeIdService.NO_ID, DNodeIdService.parseId("99999999999999999999"));
+        //还没有分配过的id也不能当作native标识
+        assertEquals(DNodeIdService.NO_ID,
+                DNodeIdService.parseId(DNodeIdService.toIdentifier(DNodeIdService.nextId() + 100)));
+    }
+}
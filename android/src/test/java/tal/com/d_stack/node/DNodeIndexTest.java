@@ -0,0 +1,210 @@
+package tal.com.d_stack.node;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DNodeIndexTest {
+
+    private DNodeIndex index;
+
+    @Before
+    public void setUp() {
+        index = new DNodeIndex();
+    }
+
+    @Test
+    public void putGetAndOverwrite() {
+        DNode first = node();
+        DNode second = node();
+        index.put(7, first);
+        assertSame(first, index.get(7));
+        index.put(7, second);
+        assertSame(second, index.get(7));
+        assertEquals(1, index.size());
+        assertNull(index.get(8));
+    }
+
+    @Test
+    public void noIdIsIgnored() {
+        index.put(DNodeIdService.NO_ID, node());
+        assertEquals(0, index.size());
+        assertNull(index.get(DNodeIdService.NO_ID));
+        index.remove(DNodeIdService.NO_ID);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void collidingIdsShareOneProbeChain() {
+        long[] ids = collidingIds(0, 4);
+        DNode[] nodes = putAll(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertSame(nodes[i], index.get(ids[i]));
+        }
+        //同一个理想位置但不在表里的id，查找要走完整条探测链
+        assertNull(index.get(collidingIds(0, 5)[4]));
+    }
+
+    @Test
+    public void removeFromMiddleOfChainShiftsBackward() {
+        long[] ids = collidingIds(3, 5);
+        DNode[] nodes = putAll(ids);
+        index.remove(ids[2]);
+        assertNull(index.get(ids[2]));
+        assertEquals(ids.length - 1, index.size());
+        for (int i = 0; i < ids.length; i++) {
+            if (i != 2) {
+                assertSame(nodes[i], index.get(ids[i]));
+            }
+        }
+        //后移之后空出来的位置可以再次使用
+        index.put(ids[2], nodes[2]);
+        assertSame(nodes[2], index.get(ids[2]));
+        assertEquals(ids.length, index.size());
+    }
+
+    @Test
+    public void removeKeepsInterleavedChainsReachable() {
+        //两条相邻的探测链交错在一起，删除前一条链的元素时不能把后一条链的元素移到理想位置之前
+        long[] first = collidingIds(5, 3);
+        long[] second = collidingIds(6, 3);
+        Map<Long, DNode> expected = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            DNode a = node();
+            DNode b = node();
+            index.put(first[i], a);
+            index.put(second[i], b);
+            expected.put(first[i], a);
+            expected.put(second[i], b);
+        }
+        index.remove(first[0]);
+        expected.remove(first[0]);
+        index.remove(first[1]);
+        expected.remove(first[1]);
+        assertMatches(expected);
+    }
+
+    @Test
+    public void chainWrapsAroundTableEnd() {
+        int last = index.capacity() - 1;
+        long[] ids = collidingIds(last, 4);
+        DNode[] nodes = putAll(ids);
+        index.remove(ids[1]);
+        for (int i = 0; i < ids.length; i++) {
+            if (i != 1) {
+                assertSame(nodes[i], index.get(ids[i]));
+            }
+        }
+        assertNull(index.get(ids[1]));
+    }
+
+    @Test
+    public void resizeKeepsAllNodes() {
+        Map<Long, DNode> expected = new HashMap<>();
+        for (long id = 1; id <= 1000; id++) {
+            DNode node = node();
+            index.put(id, node);
+            expected.put(id, node);
+        }
+        assertTrue(index.capacity() >= 2000);
+        for (long id = 1; id <= 1000; id += 2) {
+            index.remove(id);
+            expected.remove(id);
+        }
+        assertMatches(expected);
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(31);
+        Map<Long, DNode> expected = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            long id = 1 + random.nextInt(256);
+            if (random.nextInt(3) == 0) {
+                index.remove(id);
+                expected.remove(id);
+            } else {
+                DNode node = node();
+                index.put(id, node);
+                expected.put(id, node);
+            }
+        }
+        assertMatches(expected);
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(expected.isEmpty() ? 1 : expected.keySet().iterator().next()));
+    }
+
+    @Test(timeout = 10000)
+    public void lookupThroughput() {
+        int count = 1024;
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = DNodeIdService.nextId();
+            index.put(ids[i], node());
+        }
+        long start = System.nanoTime();
+        int found = 0;
+        int lookups = 2000000;
+        for (int i = 0; i < lookups; i++) {
+            if (index.get(ids[i & (count - 1)]) != null) {
+                found++;
+            }
+        }
+        long cost = System.nanoTime() - start;
+        assertEquals(lookups, found);
+        //宽松的上限，只用来发现探测链退化成线性查找，平均每次查找不超过1微秒
+        assertTrue("查找耗时" + cost + "纳秒", cost < lookups * 1000L);
+    }
+
+    /**
+     * 找出count个理想位置都是home的id，容量不变时它们在同一条探测链上
+     */
+    private long[] collidingIds(int home, int count) {
+        int mask = index.capacity() - 1;
+        long[] ids = new long[count];
+        int found = 0;
+        for (long id = 1; found < count; id++) {
+            if ((DNodeIndex.hash(id) & mask) == home) {
+                ids[found++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private DNode[] putAll(long[] ids) {
+        DNode[] nodes = new DNode[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            nodes[i] = node();
+            index.put(ids[i], nodes[i]);
+        }
+        return nodes;
+    }
+
+    private void assertMatches(Map<Long, DNode> expected) {
+        assertEquals(expected.size(), index.size());
+        List<Long> ids = new ArrayList<>(expected.keySet());
+        for (Long id : ids) {
+            assertSame(expected.get(id), index.get(id));
+        }
+        for (long id = 1; id <= 2000; id++) {
+            if (!expected.containsKey(id)) {
+                assertNull(index.get(id));
+            }
+        }
+    }
+
+    private static DNode node() {
+        return new DNode.Builder().target("page").pageType("native").build();
+    }
+}
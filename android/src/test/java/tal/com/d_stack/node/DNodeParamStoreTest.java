@@ -0,0 +1,136 @@
+package tal.com.d_stack.node;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DNodeParamStoreTest {
+
+    private DNodeParamStore store;
+
+    @Before
+    public void setUp() {
+        store = new DNodeParamStore();
+    }
+
+    @Test
+    public void putGetRemove() {
+        Map<String, Object> params = params("a", 16);
+        store.put(1, params);
+        assertSame(params, store.get(1));
+        assertEquals(1, store.getEntryCount());
+        assertTrue(store.getMemoryBytes() > 0);
+
+        assertSame(params, store.remove(1));
+        assertNull(store.get(1));
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0, store.getMemoryBytes());
+    }
+
+    @Test
+    public void takeResultClearsEvenWithoutMatchingId() {
+        store.putResult(1, params("result", 16));
+        store.putResult(2, params("result", 16));
+        assertTrue(store.getMemoryBytes() > 0);
+
+        assertNull(store.takeResult(3));
+        assertEquals(0, store.getMemoryBytes());
+        assertNull(store.takeResult(1));
+    }
+
+    @Test
+    public void takeResultReturnsOnlyOnce() {
+        Map<String, Object> result = params("result", 16);
+        store.putResult(1, result);
+        assertSame(result, store.takeResult(1));
+        assertNull(store.takeResult(1));
+    }
+
+    @Test
+    public void spillColdParamsOverBudgetAndRestoreOnAccess() {
+        Map<String, Object> cold = params("cold", 16 * 1024);
+        Map<String, Object> hot = params("hot", 16 * 1024);
+        store.put(1, cold);
+        store.put(2, hot);
+        store.setMemoryBudget(DNodeParamStore.estimateSize(hot) + 1024);
+
+        assertEquals(1, store.getSpilledCount());
+        assertTrue(store.getSpilledBytes() > 0);
+        assertTrue(store.getMemoryBytes() <= store.getMemoryBudget());
+
+        //访问被转存的参数时解码回内存，另一个参数被转存
+        Map<String, Object> restored = store.get(1);
+        assertEquals(cold, restored);
+        assertEquals(1, store.getSpilledCount());
+        assertEquals(hot, store.get(2));
+    }
+
+    @Test
+    public void peekDoesNotRestoreSpilledParams() {
+        Map<String, Object> cold = params("cold", 16 * 1024);
+        Map<String, Object> hot = params("hot", 16 * 1024);
+        store.put(1, cold);
+        store.put(2, hot);
+        store.setMemoryBudget(DNodeParamStore.estimateSize(hot) + 1024);
+        long spilledBytes = store.getSpilledBytes();
+
+        //只读转存的参数得到副本，参数仍然保持转存，也不会把热参数挤出去
+        assertEquals(cold, store.peek(1));
+        assertEquals(1, store.getSpilledCount());
+        assertEquals(spilledBytes, store.getSpilledBytes());
+        assertSame(hot, store.peek(2));
+        assertNull(store.peek(3));
+
+        //只读不更新访问时间，之后访问冷参数仍然把热参数转存
+        store.get(1);
+        assertEquals(1, store.getSpilledCount());
+        assertEquals(hot, store.get(2));
+    }
+
+    @Test
+    public void putResultTrimsToBudget() {
+        store.put(1, params("node", 16 * 1024));
+        store.setMemoryBudget(64 * 1024);
+        assertEquals(0, store.getSpilledCount());
+
+        store.putResult(2, params("result", 32 * 1024));
+        assertEquals(1, store.getSpilledCount());
+        assertNotNull(store.takeResult(2));
+    }
+
+    @Test
+    public void unsupportedParamsStayInMemory() {
+        Map<String, Object> params = params("value", 16 * 1024);
+        params.put("object", new Object());
+        store.put(1, params);
+        store.setMemoryBudget(1024);
+
+        assertEquals(0, store.getSpilledCount());
+        assertSame(params, store.get(1));
+    }
+
+    @Test
+    public void smallParamsAreNotSpilled() {
+        store.put(1, params("small", 16));
+        store.setMemoryBudget(1);
+        assertEquals(0, store.getSpilledCount());
+    }
+
+    private static Map<String, Object> params(String key, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put(key, builder.toString());
+        return params;
+    }
+}
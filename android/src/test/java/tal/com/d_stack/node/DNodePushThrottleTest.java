@@ -0,0 +1,146 @@
+package tal.com.d_stack.node;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import tal.com.d_stack.node.constants.DNodeActionType;
+import tal.com.d_stack.node.constants.DNodePageType;
+import tal.com.d_stack.router.IPushDropListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DNodePushThrottleTest {
+
+    private TestThrottle throttle;
+
+    @Before
+    public void setUp() {
+        throttle = new TestThrottle();
+        throttle.setDedupWindow(500);
+        throttle.setRateLimit(3, 1000);
+    }
+
+    @Test
+    public void duplicatePushInsideWindowIsDropped() {
+        assertFalse(throttle.shouldDrop(nativePush("page", null)));
+        throttle.now += 100;
+        assertTrue(throttle.shouldDrop(nativePush("page", null)));
+        assertEquals(1, throttle.getDroppedDuplicateCount());
+
+        throttle.now += 500;
+        assertFalse(throttle.shouldDrop(nativePush("page", null)));
+    }
+
+    @Test
+    public void differentParamsAreNotDuplicates() {
+        assertFalse(throttle.shouldDrop(nativePush("page", params(1))));
+        assertFalse(throttle.shouldDrop(nativePush("page", params(2))));
+        assertTrue(throttle.shouldDrop(nativePush("page", params(1))));
+    }
+
+    @Test
+    public void rateLimitPerRoute() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(throttle.shouldDrop(nativePush("page", params(i))));
+        }
+        assertTrue(throttle.shouldDrop(nativePush("page", params(3))));
+        assertEquals(1, throttle.getDroppedRateLimitCount());
+        //其他路由不受影响
+        assertFalse(throttle.shouldDrop(nativePush("other", null)));
+
+        throttle.now += 1000;
+        assertFalse(throttle.shouldDrop(nativePush("page", params(4))));
+    }
+
+    @Test
+    public void disabledWindowsNeverDrop() {
+        throttle.setDedupWindow(0);
+        throttle.setRateLimit(0, 1000);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(throttle.shouldDrop(nativePush("page", null)));
+        }
+    }
+
+    @Test
+    public void flutterToFlutterPushIsNeverDropped() {
+        for (int i = 0; i < 10; i++) {
+            DNode node = new DNode.Builder()
+                    .target("page")
+                    .pageType(DNodePageType.FLUTTER)
+                    .action(DNodeActionType.PUSH)
+                    .fromFlutter(true)
+                    .build();
+            assertFalse(throttle.shouldDrop(node));
+        }
+    }
+
+    @Test
+    public void popIsNeverDropped() {
+        for (int i = 0; i < 10; i++) {
+            DNode node = new DNode.Builder()
+                    .target("page")
+                    .pageType(DNodePageType.FLUTTER)
+                    .action(DNodeActionType.POP)
+                    .build();
+            assertFalse(throttle.shouldDrop(node));
+        }
+    }
+
+    @Test
+    public void resetForgetsRecentPushes() {
+        assertFalse(throttle.shouldDrop(nativePush("page", null)));
+        throttle.reset();
+        assertFalse(throttle.shouldDrop(nativePush("page", null)));
+    }
+
+    @Test
+    public void listenerReceivesReasonAndTotal() {
+        final int[] last = new int[2];
+        throttle.setDropListener(new IPushDropListener() {
+            @Override
+            public void onPushDropped(String route, int reason, int droppedCount) {
+                last[0] = reason;
+                last[1] = droppedCount;
+            }
+        });
+        throttle.shouldDrop(nativePush("page", null));
+        throttle.shouldDrop(nativePush("page", null));
+        assertEquals(DNodePushThrottle.DROP_DUPLICATE, last[0]);
+        assertEquals(1, last[1]);
+    }
+
+    /**
+     * native侧打开flutter页面
+     */
+    private static DNode nativePush(String target, Map<String, Object> params) {
+        return new DNode.Builder()
+                .target(target)
+                .pageType(DNodePageType.FLUTTER)
+                .action(DNodeActionType.PUSH)
+                .params(params)
+                .build();
+    }
+
+    private static Map<String, Object> params(int value) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("value", value);
+        return params;
+    }
+
+    /**
+     * 时间由测试控制
+     */
+    private static class TestThrottle extends DNodePushThrottle {
+        long now = 10000;
+
+        @Override
+        long uptimeMillis() {
+            return now;
+        }
+    }
+}
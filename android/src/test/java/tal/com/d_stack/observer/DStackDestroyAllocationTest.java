@@ -0,0 +1,126 @@
+package tal.com.d_stack.observer;
+
+import android.app.Activity;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+
+import io.flutter.plugin.common.MethodChannel;
+import tal.com.d_stack.DStack;
+import tal.com.d_stack.lifecycle.EngineIdleManager;
+import tal.com.d_stack.node.DNodeManager;
+import tal.com.d_stack.utils.DLog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * native页面销毁的整条路径不能每次都分配对象
+ * DStackLifecycleObserver -> DNodeManager -> PageLifecycleManager -> DStackMethodHandler，消息通道换成只计数的通道
+ * 模拟native页面盖在可见的flutter容器上，引擎不空闲，生命周期消息直接发到通道
+ * 预热之后只统计onActivityDestroyed期间当前线程分配的字节数，平均每次销毁必须少于1字节
+ * debug包会拼接日志字符串，只在release的单元测试里检查
+ */
+public class DStackDestroyAllocationTest {
+
+    private static final int BATCH = 8;
+    private static final int WARM_UP = 2000;
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    public void destroyWithoutAllocation() throws Exception {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        if (bean == null || DLog.isDebug()) {
+            return;
+        }
+        CountingChannel channel = new CountingChannel();
+        setMethodChannel(channel);
+        EngineIdleManager.getInstance().onHostStarted();
+        DStackLifecycleObserver observer = new DStackLifecycleObserver();
+        Activity root = new Activity();
+        observer.onActivityCreated(root, null);
+        Activity[] activities = new Activity[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            activities[i] = new Activity();
+        }
+
+        run(observer, activities, WARM_UP / BATCH, null);
+        int nodeCount = DNodeManager.getInstance().getNodeList().size();
+        channel.count = 0;
+        long allocated = run(observer, activities, ITERATIONS / BATCH, bean);
+        EngineIdleManager.getInstance().onHostStopped();
+
+        assertTrue("页面销毁分配了" + allocated + "字节", allocated < ITERATIONS);
+        assertEquals(nodeCount, DNodeManager.getInstance().getNodeList().size());
+        //每次销毁都通过通道发出了生命周期消息
+        assertTrue(channel.count >= ITERATIONS);
+    }
+
+    /**
+     * 依次打开一批native页面再从栈顶逐个销毁，只统计销毁期间分配的字节数
+     */
+    private static long run(DStackLifecycleObserver observer, Activity[] activities, int rounds,
+                            com.sun.management.ThreadMXBean bean) {
+        long allocated = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (Activity activity : activities) {
+                observer.onActivityCreated(activity, null);
+            }
+            long before = bean == null ? 0 : allocatedBytes(bean);
+            for (int i = activities.length - 1; i >= 0; i--) {
+                observer.onActivityDestroyed(activities[i]);
+            }
+            if (bean != null) {
+                allocated += allocatedBytes(bean) - before;
+            }
+        }
+        return allocated;
+    }
+
+    private static void setMethodChannel(MethodChannel channel) throws Exception {
+        Field field = DStack.class.getDeclaredField("methodChannel");
+        field.setAccessible(true);
+        field.set(DStack.getInstance(), channel);
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 只记录发送次数的消息通道，不编码消息
+     */
+    private static class CountingChannel extends MethodChannel {
+        int count;
+
+        CountingChannel() {
+            super(null, "d_stack_test");
+        }
+
+        @Override
+        public void invokeMethod(String method, Object arguments) {
+            count++;
+        }
+
+        @Override
+        public void invokeMethod(String method, Object arguments, Result callback) {
+            count++;
+        }
+    }
+}
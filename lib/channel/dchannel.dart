@@ -8,11 +8,15 @@
  */
 
 import 'dart:async';
+import 'dart:typed_data';
+import 'dart:ui';
 
 import 'package:d_stack/constant/constant_config.dart';
 import 'package:d_stack/navigator/dnavigator_manager.dart';
 import 'package:d_stack/observer/d_node_observer.dart';
 import 'package:d_stack/observer/life_cycle_observer.dart';
+import 'package:flutter/painting.dart';
+import 'package:flutter/scheduler.dart';
 import 'package:flutter/services.dart';
 
 import '../d_stack.dart';
@@ -20,21 +24,82 @@ import '../d_stack.dart';
 class DChannel {
   late MethodChannel _methodChannel;
 
+  /// 只读查询通道，native侧在后台线程处理，不占用主线程
+  static const MethodChannel _queryChannel =
+      MethodChannel(DStackConstant.queryChannel);
+
+  /// native侧是否注册了查询通道，iOS等未注册时回落到主通道
+  static bool _queryChannelAvailable = true;
+
+  /// 已同步的节点列表，DStack.instance每次都会创建新的DChannel，所以缓存是静态的
+  static final List<DStackNode> _nodeList = [];
+
+  /// 已同步的节点栈版本号，-1表示还未同步过
+  static int _nodeListVersion = -1;
+
+  /// 上报帧耗时的回调，为null表示没有上报
+  static TimingsCallback? _timingsCallback;
+
   DChannel(MethodChannel methodChannel) {
     _methodChannel = methodChannel;
     _methodChannel.setMethodCallHandler((MethodCall call) {
       // sendActionToFlutter 处理Native发过来的指令
+      // push返回的future要等页面关闭才完成，不能等它，处理完指令就回复native
       if (DStackConstant.nodeToFlutter == call.method) {
-        return DNavigatorManager.handleActionToFlutter(call.arguments)!;
+        DNavigatorManager.handleActionToFlutter(call.arguments);
+        return Future.value();
       } else if (DStackConstant.lifeCycle == call.method) {
         return LifeCycleHandler.handleLifecycleMessage(call.arguments);
       } else if (DStackConstant.sendOperationNodeToFlutter == call.method) {
         return DNodeObserverHandler.handlerNodeMessage(call.arguments);
+      } else if (DStackConstant.sendResultToFlutter == call.method) {
+        DNavigatorManager.handleResultToFlutter(call.arguments);
+      } else if (DStackConstant.sendPrewarmToFlutter == call.method) {
+        DStack.instance.handlePrewarm(call.arguments);
+      } else if (DStackConstant.sendMemoryTrimToFlutter == call.method) {
+        return Future.value(_trimImageCache(call.arguments['tier']));
+      } else if (DStackConstant.sendIdleToFlutter == call.method) {
+        DStack.instance.idle.value = call.arguments['idle'] == true;
+      } else if (DStackConstant.sendFrameTimingToFlutter == call.method) {
+        _setFrameTimingEnabled(methodChannel, call.arguments['enabled'] == true);
       }
       return Future.value();
     });
   }
 
+  /// 按级别清理图片缓存，返回释放的字节数
+  /// 1级只清理没有在使用的图片，2级以上同时清理休眠页面还持有的图片
+  static int _trimImageCache(int? tier) {
+    final ImageCache imageCache = PaintingBinding.instance!.imageCache!;
+    int before = imageCache.currentSizeBytes;
+    imageCache.clear();
+    if (tier != null && tier >= 2) {
+      imageCache.clearLiveImages();
+    }
+    return before - imageCache.currentSizeBytes;
+  }
+
+  /// 开始或停止上报帧耗时
+  /// 引擎按批回调帧耗时，每批一条消息，每帧两个数：vsync开始的时间戳和帧总耗时，单位微秒
+  static void _setFrameTimingEnabled(MethodChannel channel, bool enabled) {
+    if (_timingsCallback != null) {
+      SchedulerBinding.instance!.removeTimingsCallback(_timingsCallback!);
+      _timingsCallback = null;
+    }
+    if (!enabled) {
+      return;
+    }
+    _timingsCallback = (List<FrameTiming> timings) {
+      final Int64List data = Int64List(timings.length * 2);
+      for (int i = 0; i < timings.length; i++) {
+        data[i * 2] = timings[i].timestampInMicroseconds(FramePhase.vsyncStart);
+        data[i * 2 + 1] = timings[i].totalSpan.inMicroseconds;
+      }
+      channel.invokeMethod(DStackConstant.sendFrameTimings, {'timings': data});
+    };
+    SchedulerBinding.instance!.addTimingsCallback(_timingsCallback!);
+  }
+
   Future invokeMethod<T>(String method, [dynamic arguments]) async {
     return _methodChannel.invokeMethod(method, arguments);
   }
@@ -49,17 +114,78 @@ class DChannel {
     return _methodChannel.invokeMethod(DStackConstant.checkRemoved, arguments);
   }
 
+  /// 获取节点列表
+  /// 带上已同步的版本号，native侧只返回该版本之后的变更
   Future<List<DStackNode>> getNodeList() async {
-    dynamic list = await _methodChannel.invokeMethod(DStackConstant.nodeList, null);
-    if (list is List) {
-      List<DStackNode> nodeList = [];
-      list.forEach((element) {
-        DStackNode node = DStackNode(route: element["route"], pageType: element["pageType"]);
-        nodeList.add(node);
-      });
-      return nodeList;
+    dynamic result =
+        await _invokeQuery(DStackConstant.nodeList, {'version': _nodeListVersion});
+    if (result is List) {
+      // native侧不支持增量同步，返回的是全量节点列表
+      _resetNodeList(result);
+      _nodeListVersion = -1;
+    } else if (result is Map) {
+      int version = result['version'];
+      if (result['full'] == true) {
+        if (version >= _nodeListVersion) {
+          _resetNodeList(result['nodes']);
+          _nodeListVersion = version;
+        }
+      } else {
+        _applyNodeChanges(result['changes']);
+      }
+    } else {
+      return [];
+    }
+    return List.of(_nodeList);
+  }
+
+  /// 发送只读查询消息，优先走查询通道
+  Future<dynamic> _invokeQuery(String method, [dynamic arguments]) async {
+    if (_queryChannelAvailable) {
+      try {
+        return await _queryChannel.invokeMethod(method, arguments);
+      } on MissingPluginException {
+        _queryChannelAvailable = false;
+      }
     }
-    return [];
+    return _methodChannel.invokeMethod(method, arguments);
+  }
+
+  /// 全量替换节点列表
+  void _resetNodeList(List nodes) {
+    _nodeList.clear();
+    nodes.forEach((element) {
+      _nodeList.add(
+          DStackNode(route: element["route"], pageType: element["pageType"]));
+    });
+  }
+
+  /// 按顺序应用节点变更，已经应用过的版本直接跳过
+  void _applyNodeChanges(List changes) {
+    changes.forEach((change) {
+      int version = change['version'];
+      if (version <= _nodeListVersion) {
+        return;
+      }
+      int index = change['index'];
+      switch (change['type']) {
+        case 'add':
+          _nodeList.insert(index,
+              DStackNode(route: change['route'], pageType: change['pageType']));
+          break;
+        case 'remove':
+          _nodeList.removeAt(index);
+          break;
+        case 'update':
+          _nodeList[index] =
+              DStackNode(route: change['route'], pageType: change['pageType']);
+          break;
+        case 'clear':
+          _nodeList.clear();
+          break;
+      }
+      _nodeListVersion = version;
+    });
   }
 
   Future sendHomePageRoute(String? route) {
@@ -67,6 +193,16 @@ class DChannel {
         DStackConstant.sendHomePageRoute, {"homePageRoute": route});
   }
 
+  /// 发送消息订阅，不支持订阅的平台照常发送所有消息
+  Future sendSubscription(Map subscription) async {
+    try {
+      await _methodChannel.invokeMethod(
+          DStackConstant.sendSubscription, subscription);
+    } on MissingPluginException {
+      // 不支持订阅
+    }
+  }
+
   /// 发送更新临界节点的信息
   Future sendUpdateBoundaryNode(Map params) {
     return _methodChannel.invokeMethod(
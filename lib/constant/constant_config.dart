@@ -18,8 +18,16 @@ class DStackConstant {
   static const String replace = "replace";
   static const String gesture = "gesture";
   static const String pushAndRemoveUntil = "pushAndRemoveUntil";
+  /// native侧多步导航事务，nodes里每个节点带有自己的pop/push
+  static const String transaction = "transaction";
+  /// native侧通知页面休眠，释放页面内容，路由仍然保留
+  static const String evict = "evict";
+  /// native侧按标识移除页面，页面不一定在栈顶，不会影响栈顶页面
+  static const String remove = "remove";
 
   /// channel通道
+  /// 只读查询通道，native侧在后台线程处理，目前只有nodeList
+  static const String queryChannel = "d_stack_query";
   static const String nodeToFlutter = "sendActionToFlutter";
   static const String nodeToNative = "sendNodeToNative";
   static const String checkRemoved = "sendRemoveFlutterPageNode";
@@ -29,6 +37,20 @@ class DStackConstant {
   static const String sendOperationNodeToFlutter = 'sendOperationNodeToFlutter';
   static const String sendHomePageRoute = 'sendHomePageRoute';
   static const String sendUpdateBoundaryNode = 'sendUpdateBoundaryNode';
+  /// flutter侧声明订阅的消息类型和路由，native侧不再发送没有订阅的消息
+  static const String sendSubscription = 'sendSubscription';
+  /// native侧开启掉帧统计，通知flutter侧开始或停止上报帧耗时
+  static const String sendFrameTimingToFlutter = 'sendFrameTimingToFlutter';
+  /// flutter侧上报帧耗时
+  static const String sendFrameTimings = 'sendFrameTimings';
+  /// native页面关闭时发回flutter打开该页面时等待的返回结果
+  static const String sendResultToFlutter = 'sendResultToFlutter';
+  /// native侧预测到下一个页面，通知flutter侧预热或取消预热
+  static const String sendPrewarmToFlutter = 'sendPrewarmToFlutter';
+  /// native侧内存不足，按级别清理图片缓存
+  static const String sendMemoryTrimToFlutter = 'sendMemoryTrimToFlutter';
+  /// native侧只显示native页面时引擎进入空闲状态
+  static const String sendIdleToFlutter = 'sendIdleToFlutter';
 
   /// 其他标识
   static const String nativeDidPopGesture = "nativeDidPopGesture";
@@ -49,6 +49,9 @@ typedef AnimatedPageBuilder = AnimatedWidget Function(
     Animation<double> secondaryAnimation,
     WidgetBuilder widgetBuilder);
 
+/// 预热页面，native侧预测到即将打开route时调用，cancel为true表示预测落空，可以放弃预热的内容
+typedef DStackPrewarmer = void Function(String route, bool cancel);
+
 typedef PushAnimationPageBuilder = AnimatedWidget Function(
     BuildContext context,
     Animation<double> animation,
@@ -85,11 +88,34 @@ class DStack {
   final DStackNavigatorObserver dStackNavigatorObserver =
       DStackNavigatorObserver();
 
+  DLifeCycleObserver? _dLifeCycleObserver;
+  DNodeObserver? _dNodeObserver;
+  List<String>? _lifecycleRoutes;
+
   /// 用来监听 应用生命周期
-  DLifeCycleObserver? dLifeCycleObserver;
+  DLifeCycleObserver? get dLifeCycleObserver => _dLifeCycleObserver;
+
+  /// 修改监听者后重新通知native侧订阅的消息
+  set dLifeCycleObserver(DLifeCycleObserver? observer) {
+    _dLifeCycleObserver = observer;
+    _sendSubscription();
+  }
 
   /// 用来监听节点操作
-  DNodeObserver? dNodeObserver;
+  DNodeObserver? get dNodeObserver => _dNodeObserver;
+
+  /// 修改监听者后重新通知native侧订阅的消息
+  set dNodeObserver(DNodeObserver? observer) {
+    _dNodeObserver = observer;
+    _sendSubscription();
+  }
+
+  /// 预热页面，native侧开启页面预测后使用
+  DStackPrewarmer? prewarmer;
+
+  /// 引擎是否空闲，native侧只显示native页面时为true
+  /// 空闲时DStack的页面停止ticker，业务侧可以监听它暂停自己的定时器和数据流
+  final ValueNotifier<bool> idle = ValueNotifier<bool>(false);
 
   final Map<String, DStackWidgetBuilder> _pageBuilders =
       <String, DStackWidgetBuilder>{};
@@ -97,15 +123,41 @@ class DStack {
   /// 注册DStack
   /// builders 路由的builder
   /// observer 生命周期监听者
+  /// lifecycleRoutes 只接收这些路由出现或消失的页面生命周期，为null时接收所有路由
+  /// 注册后native侧只发送有监听者的生命周期和节点操作消息
   void register(
       {Map<String, DStackWidgetBuilder>? builders,
       DLifeCycleObserver? observer,
-      DNodeObserver? nodeObserver}) {
+      DNodeObserver? nodeObserver,
+      DStackPrewarmer? prewarmer,
+      List<String>? lifecycleRoutes}) {
     if (builders?.isNotEmpty == true) {
       _pageBuilders.addAll(builders!);
     }
-    dLifeCycleObserver = observer;
-    dNodeObserver = nodeObserver;
+    _dLifeCycleObserver = observer;
+    _dNodeObserver = nodeObserver;
+    _lifecycleRoutes = lifecycleRoutes;
+    this.prewarmer = prewarmer;
+    _sendSubscription();
+  }
+
+  /// 按当前的监听者通知native侧订阅的消息
+  void _sendSubscription() {
+    channel!.sendSubscription({
+      'app': _dLifeCycleObserver != null,
+      'page': _dLifeCycleObserver != null,
+      'nodeOperation': _dNodeObserver != null,
+      'routes': _lifecycleRoutes,
+    });
+  }
+
+  /// 处理native侧发来的预热消息，只预热已注册的路由
+  void handlePrewarm(Map arguments) {
+    String? route = arguments['route'];
+    if (route == null || prewarmer == null || !_pageBuilders.containsKey(route)) {
+      return;
+    }
+    prewarmer!(route, arguments['cancel'] == true);
   }
 
   /// 获取一个 DStackWidgetBuilder
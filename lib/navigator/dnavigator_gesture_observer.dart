@@ -11,6 +11,8 @@ import 'package:d_stack/constant/constant_config.dart';
 import 'package:d_stack/d_stack.dart';
 import 'package:flutter/material.dart';
 
+import 'package:d_stack/widget/page_route.dart';
+
 import 'dnavigator_manager.dart';
 
 // 路由监听
@@ -42,6 +44,34 @@ class DStackNavigatorObserver extends NavigatorObserver {
   Route? _currentRoute;
   Route? get currentRoute => _currentRoute;
 
+  /// 页面唯一标识对应的路由，用于让native侧指定的页面休眠
+  final Map<String, Route> _routes = {};
+
+  /// 设置页面是否休眠，只有DStackPageRouteBuilder创建的页面支持休眠
+  void setRouteDormant(String? identifier, bool dormant) {
+    final Route? route = _routes[identifier];
+    if (route is DStackPageRouteBuilder && route != _currentRoute) {
+      route.dormant.value = dormant;
+    }
+  }
+
+  /// 按标识移除页面，不在栈顶的页面直接移除，不会pop栈顶页面
+  /// 移除走didRemove，不会再通知native侧删除节点
+  void removeRoute(String? identifier) {
+    final Route? route = _routes[identifier];
+    if (route == null || route.navigator == null) {
+      return;
+    }
+    route.navigator!.removeRoute(route);
+  }
+
+  /// 返回到休眠的页面时重新创建页面内容
+  void _wakeRoute(Route? route) {
+    if (route is DStackPageRouteBuilder && route.dormant.value) {
+      route.dormant.value = false;
+    }
+  }
+
   /// 页面进入了
   /// route 路由目标页面
   /// previousRoute 目标页面的上一个页面
@@ -51,6 +81,7 @@ class DStackNavigatorObserver extends NavigatorObserver {
     debugPrint(' 【didPush】${route.settings.name}【didPush】');
     routerCount += 1;
     _currentRoute = route;
+    _routes[DNavigatorManager.identifierWithRoute(route)] = route;
     if (route is PopupRoute) {
       /// dialog进栈
       DNavigatorManager.nodeHandle(DStackConstant.flutterDialog, PageType.flutter, DStackConstant.push, route: route);
@@ -65,6 +96,8 @@ class DStackNavigatorObserver extends NavigatorObserver {
     super.didPop(route, previousRoute);
     routerCount -= 1;
     _currentRoute = previousRoute;
+    _routes.remove(DNavigatorManager.identifierWithRoute(route));
+    _wakeRoute(previousRoute);
     debugPrint(' 【didPop】${route.settings.name} 【didPop】');
     if (route is PopupRoute) {
       /// dialog出栈
@@ -88,6 +121,22 @@ class DStackNavigatorObserver extends NavigatorObserver {
   void didReplace({Route<dynamic>? newRoute, Route<dynamic>? oldRoute}) {
     super.didReplace(newRoute: newRoute, oldRoute: oldRoute);
     _currentRoute = newRoute;
+    if (oldRoute != null) {
+      _routes.remove(DNavigatorManager.identifierWithRoute(oldRoute));
+    }
+    if (newRoute != null) {
+      _routes[DNavigatorManager.identifierWithRoute(newRoute)] = newRoute;
+    }
+  }
+
+  @override
+  void didRemove(Route route, Route? previousRoute) {
+    super.didRemove(route, previousRoute);
+    routerCount -= 1;
+    if (route == _currentRoute) {
+      _currentRoute = previousRoute;
+    }
+    _routes.remove(DNavigatorManager.identifierWithRoute(route));
   }
 
   /// route 路由目标页面
@@ -7,6 +7,7 @@
  * tartget: flutter侧用户调用入口
  */
 
+import 'dart:async';
 import 'dart:ui';
 import 'dart:io';
 
@@ -18,6 +19,7 @@ import 'package:d_stack/widget/page_route.dart';
 import 'package:flutter/cupertino.dart';
 import 'package:flutter/foundation.dart';
 import 'package:flutter/material.dart';
+import 'package:flutter/services.dart';
 
 /// 主要两个部分：
 /// 1.发送节点信息到Native，Native记录完整的路由信息
@@ -35,17 +37,60 @@ class DNavigatorManager {
 
   static Map<String, Map<dynamic, dynamic>> paramsCache = Map();
 
+  /// 打开native页面时等待的返回结果，key是requestId
+  static final Map<int, Completer> _nativeResults = {};
+  static int _nextRequestId = 0;
+
   static Future push(String routeName, PageType pageType, {Map? params, bool? maintainState, bool animated = true}) {
     if (pageType == PageType.flutter) {
       var route = DNavigatorManager.materialRoute(routeName: routeName, params: params, maintainState: maintainState!, pushAnimated: animated);
       DNavigatorManager.nodeHandle(routeName, pageType, DStackConstant.push, result: {}, animated: animated, route: route);
       return _navigator!.push(route);
+    } else if (Platform.isAndroid) {
+      return _pushNativeForResult(routeName, pageType, params: params, animated: animated);
     } else {
       DNavigatorManager.nodeHandle(routeName, pageType, DStackConstant.push, result: params, animated: animated);
       return Future.value(true);
     }
   }
 
+  /// 打开native页面，native页面关闭时，native侧通过sendResultToFlutter发回返回结果
+  /// 消息发送失败或者引擎销毁时以null完成，调用方不会一直等待
+  static Future _pushNativeForResult(String routeName, PageType pageType, {Map? params, bool animated = true}) {
+    _DetachObserver.ensureInitialized();
+    int requestId = ++_nextRequestId;
+    Completer completer = Completer();
+    _nativeResults[requestId] = completer;
+    DNavigatorManager.nodeHandle(routeName, pageType, DStackConstant.push,
+        result: params, animated: animated, requestId: requestId).catchError((error) {
+      _completeNativeResult(requestId, null);
+    });
+    return completer.future;
+  }
+
+  /// native页面关闭，完成打开该页面时返回的Future
+  static void handleResultToFlutter(Map arguments) {
+    _completeNativeResult(arguments['requestId'], arguments['result']);
+  }
+
+  static void _completeNativeResult(int? requestId, dynamic result) {
+    Completer? completer = _nativeResults.remove(requestId);
+    if (completer != null && !completer.isCompleted) {
+      completer.complete(result);
+    }
+  }
+
+  /// 引擎销毁，native侧不会再发回结果，以null完成所有等待中的Future
+  static void _completeAllNativeResults() {
+    final List<Completer> completers = List.of(_nativeResults.values);
+    _nativeResults.clear();
+    completers.forEach((completer) {
+      if (!completer.isCompleted) {
+        completer.complete(null);
+      }
+    });
+  }
+
   static Future animatedFlutterPage(String routeName,
       {Map? params,
       TransitionType? transition,
@@ -171,6 +216,8 @@ class DNavigatorManager {
           builder: builder);
       DNavigatorManager.nodeHandle(routeName, PageType.flutter, DStackConstant.push, result: {}, animated: animated, route: route);
       return _navigator!.push(route);
+    } else if (Platform.isAndroid) {
+      return _pushNativeForResult(routeName, pageType, params: params, animated: animated);
     } else {
       DNavigatorManager.nodeHandle(routeName, pageType, DStackConstant.push, result: params, animated: animated);
       return Future.value(true);
@@ -210,7 +257,8 @@ class DNavigatorManager {
     if (result != null) {
       String id = _generateId(result);
       paramsCache[id] = result;
-      result = {'id': id};
+      // 可以通过消息通道编码的返回值同时带给native，作为该页面的返回结果
+      result = _canEncode(result) ? {'id': id, 'result': result} : {'id': id};
     }
     DNavigatorManager.nodeHandle(null, null, DStackConstant.pop, result: result, animated: animated);
   }
@@ -235,6 +283,15 @@ class DNavigatorManager {
     return false;
   }
 
+  static bool _canEncode(Map result) {
+    try {
+      const StandardMessageCodec().encodeMessage(result);
+      return true;
+    } catch (e) {
+      return false;
+    }
+  }
+
   static String _generateId(Map result) {
     String id = result.hashCode.toString();
     // result.forEach((key, value) {
@@ -263,7 +320,8 @@ class DNavigatorManager {
     DNavigatorManager.nodeHandle(null, null, DStackConstant.dismiss, result: result, animated: animated);
   }
 
-  static Future nodeHandle(String? target, PageType? pageType, String actionType, {Map? result, bool? homePage, bool animated = true, Route? route}) {
+  static Future nodeHandle(String? target, PageType? pageType, String actionType,
+      {Map? result, bool? homePage, bool animated = true, Route? route, int? requestId}) {
     Map arguments = {
       'target': target,
       'pageType': '$pageType'.split('.').last,
@@ -273,6 +331,9 @@ class DNavigatorManager {
       'animated': animated,
       'identifier': identifierWithRoute(route)
     };
+    if (requestId != null) {
+      arguments['requestId'] = requestId;
+    }
     return DStack.instance.channel!.sendNodeToNative(arguments);
   }
 
@@ -313,6 +374,15 @@ class DNavigatorManager {
     return Future.value(true);
   }
 
+  /// native侧已经删除节点后的出栈，标记为native发起，didPop里不再removeFlutterNode回传给native
+  /// pop是同步回调didPop的，没有真正出栈时也要清掉标记，避免吞掉下一次flutter侧的出栈
+  static Future _popFromNative(Map? params, bool? animated) {
+    DStackNavigatorObserver.instance!.setGesturingRouteName(DStackConstant.nativeDidPopGesture);
+    final Future pop = DNavigatorManager.gardPop(params, animated);
+    DStackNavigatorObserver.instance!.setGesturingRouteName(null);
+    return pop;
+  }
+
   /// 2.处理Native发过来的指令
   /// argument里包含必选参数routeName，actionType，可选参数params
   static Future? handleActionToFlutter(Map arguments) {
@@ -329,33 +399,7 @@ class DNavigatorManager {
       case DStackConstant.present:
         {
           final DNode node = nodeEntity.nodeList.first;
-          final Map? params = node.params;
-          final bool? homePage = node.homePage;
-          final PageType? pageType = node.pageType;
-          final String? router = node.target;
-
-          if (homePage != null && homePage == true && node.boundary != null && node.boundary == true) {
-            _hasReplaceHomePage = true;
-            return replace(router, pageType, homePage: homePage, animated: false, params: node.params);
-          } else {
-            PageRoute route;
-            bool? boundary = node.boundary;
-            if (boundary != null && boundary) {
-              /// 临界页面不开启动画
-              route = DNavigatorManager.materialRoute(
-                routeName: router,
-                params: params,
-                fullscreenDialog: action == DStackConstant.present,
-                pushAnimated: false,
-              );
-            } else {
-              route = DNavigatorManager.materialRoute(routeName: router, params: params, fullscreenDialog: action == DStackConstant.present);
-            }
-            node.identifier = identifierWithRoute(route);
-            Map json = node.toJson();
-            DStack.instance.channel!.sendUpdateBoundaryNode(json);
-            return _navigator!.push(route);
-          }
+          return _pushNodeFromNative(node, fullscreenDialog: action == DStackConstant.present);
         }
         break;
       case DStackConstant.pop:
@@ -402,6 +446,41 @@ class DNavigatorManager {
           return DNavigatorManager.gardPop(node.params);
         }
         break;
+      case DStackConstant.transaction:
+        {
+          // native侧事务合并后的节点变化，按顺序执行，只有最后一个页面有动画
+          Future? future;
+          int length = nodeEntity.nodeList.length - 1;
+          for (int i = 0; i <= length; i++) {
+            final DNode node = nodeEntity.nodeList[i];
+            bool _animated = i == length && nodeEntity.animated != false;
+            if (node.action == DStackConstant.pop) {
+              future = _popFromNative(node.params, _animated);
+            } else if (node.action == DStackConstant.push) {
+              future = _pushNodeFromNative(node, animated: _animated);
+            }
+          }
+          return future;
+        }
+        break;
+      case DStackConstant.evict:
+        {
+          // native侧活跃页面超出限制，让较早的页面休眠
+          for (final DNode node in nodeEntity.nodeList) {
+            DStackNavigatorObserver.instance!.setRouteDormant(node.identifier, true);
+          }
+          return Future.value(true);
+        }
+        break;
+      case DStackConstant.remove:
+        {
+          // 其他task里的activity被销毁，只移除它自己的页面，找不到的页面忽略
+          for (final DNode node in nodeEntity.nodeList) {
+            DStackNavigatorObserver.instance!.removeRoute(node.identifier);
+          }
+          return Future.value(true);
+        }
+        break;
       case DStackConstant.replace:
         {
           if (_hasReplaceHomePage) {
@@ -417,6 +496,27 @@ class DNavigatorManager {
     return null;
   }
 
+  /// 打开native侧发来的flutter节点
+  static Future _pushNodeFromNative(DNode node, {bool fullscreenDialog = false, bool animated = true}) {
+    final bool? homePage = node.homePage;
+    final bool? boundary = node.boundary;
+    if (homePage != null && homePage == true && boundary != null && boundary == true) {
+      _hasReplaceHomePage = true;
+      return replace(node.target, node.pageType, homePage: homePage, animated: false, params: node.params);
+    }
+    /// 临界页面不开启动画
+    PageRoute route = DNavigatorManager.materialRoute(
+      routeName: node.target,
+      params: node.params,
+      fullscreenDialog: fullscreenDialog,
+      pushAnimated: animated && boundary != true,
+    );
+    node.identifier = identifierWithRoute(route);
+    Map json = node.toJson();
+    DStack.instance.channel!.sendUpdateBoundaryNode(json);
+    return _navigator!.push(route);
+  }
+
   /// 用户自定义flutter页面转场动画
   static PageRouteBuilder animationRoute({
     required AnimatedPageBuilder animatedBuilder,
@@ -596,3 +696,22 @@ class DNavigatorManager {
     };
   }
 }
+
+/// 监听引擎从界面分离，分离后native侧不会再发回native页面的返回结果
+class _DetachObserver with WidgetsBindingObserver {
+  static _DetachObserver? _instance;
+
+  static void ensureInitialized() {
+    if (_instance == null) {
+      _instance = _DetachObserver();
+      WidgetsBinding.instance!.addObserver(_instance!);
+    }
+  }
+
+  @override
+  void didChangeAppLifecycleState(AppLifecycleState state) {
+    if (state == AppLifecycleState.detached) {
+      DNavigatorManager._completeAllNativeResults();
+    }
+  }
+}
@@ -68,6 +68,9 @@ class DNode {
   /// 页面唯一id
   String? identifier;
 
+  /// native侧的节点id，回传给native时用来查找节点
+  int? id;
+
   DNode.fromJson(Map json) {
     target = json["target"];
     action = json["action"];
@@ -76,6 +79,7 @@ class DNode {
     animated = json["animated"] ?? true;
     boundary = json["boundary"] ?? false;
     identifier = json["identifier"];
+    id = json["id"];
     String pageString = json["pageType"];
     if (pageString.toLowerCase() == "flutter") {
       pageType = PageType.flutter;
@@ -93,6 +97,7 @@ class DNode {
     json["boundary"] = this.boundary;
     json["animated"] = this.animated;
     json["identifier"] = this.identifier;
+    json["id"] = this.id;
     switch (this.pageType) {
       case PageType.flutter:
         {
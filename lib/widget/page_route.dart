@@ -37,6 +37,10 @@ class DStackPageRouteBuilder<T> extends PageRoute<T> {
   final PushAnimationPageBuilder? animationBuilder;
   final bool popGesture;
 
+  /// 页面是否休眠，休眠时释放页面内容，只保留路由
+  /// 重新变为活跃时用路由的settings重新创建页面
+  final ValueNotifier<bool> dormant = ValueNotifier<bool>(false);
+
   DStackPageRouteBuilder(
       {required this.pageBuilder,
       RouteSettings? settings,
@@ -73,22 +77,37 @@ class DStackPageRouteBuilder<T> extends PageRoute<T> {
   @override
   Widget buildPage(BuildContext context, Animation<double> animation,
       Animation<double> secondaryAnimation) {
-    final Widget child = pageBuilder(context);
     final Widget result = Semantics(
       scopesRoute: true,
       explicitChildNodes: true,
-      child: child,
+      child: ValueListenableBuilder<bool>(
+        // 引擎空闲时停止页面里的ticker，不再请求新的帧
+        valueListenable: DStack.instance.idle,
+        builder: (BuildContext context, bool isIdle, Widget? child) {
+          return TickerMode(enabled: !isIdle, child: child!);
+        },
+        child: ValueListenableBuilder<bool>(
+          valueListenable: dormant,
+          builder: (BuildContext context, bool isDormant, Widget? _) {
+            if (isDormant) {
+              return const SizedBox.shrink();
+            }
+            final Widget child = pageBuilder(context);
+            assert(() {
+              if (child == null) {
+                throw FlutterError.fromParts(<DiagnosticsNode>[
+                  ErrorSummary(
+                      'The builder for route "${settings.name}" returned null.'),
+                  ErrorDescription('Route builders must never return null.'),
+                ]);
+              }
+              return true;
+            }());
+            return child;
+          },
+        ),
+      ),
     );
-    assert(() {
-      if (child == null) {
-        throw FlutterError.fromParts(<DiagnosticsNode>[
-          ErrorSummary(
-              'The builder for route "${settings.name}" returned null.'),
-          ErrorDescription('Route builders must never return null.'),
-        ]);
-      }
-      return true;
-    }());
     return result;
   }
 
@@ -111,6 +130,12 @@ class DStackPageRouteBuilder<T> extends PageRoute<T> {
         this, context, animation, secondaryAnimation, child);
   }
 
+  @override
+  void dispose() {
+    dormant.dispose();
+    super.dispose();
+  }
+
   @override
   bool didPop(T? result) {
     if (result != null && result is DStackPopResult) {